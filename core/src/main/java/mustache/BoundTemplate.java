@@ -0,0 +1,110 @@
+package mustache;
+
+import java.io.IOException;
+import java.util.List;
+
+import mustache.core.Processor;
+import mustache.core.TemplateAnalysis;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.parser.PartialLoader;
+import mustache.rendering.AccessPlan;
+import mustache.rendering.AccessPlan.Binding;
+import mustache.rendering.SectionStack;
+
+/**
+ * The {@code BoundTemplate} class is a template always rendered with the same
+ * type of data. The paths of the template are resolved against the model
+ * class once, when the template is compiled, and a path that the model can
+ * not have is rejected right away. Variables are then read through the
+ * accessors resolved beforehand, instead of being searched in the sections
+ * for each lookup.
+ *
+ * <p>
+ * Paths depending on maps, interfaces or {@link Object} are still looked up
+ * at runtime, as well as the paths of templates rendered by lambdas. The
+ * output is the same as the one of
+ * {@link Renderer#render(Processor, Object, Appendable)}, as long as the data
+ * does not rely on members added by subclasses of the declared types.
+ * </p>
+ *
+ * <p>Instances of this class are immutable and can be shared safely among
+ * multiple threads.</p>
+ *
+ * @author Dri
+ * @param <T> the type of the model
+ * @see AccessPlan
+ */
+public final class BoundTemplate<T> {
+
+	private final Processor processor;
+	private final AccessPlan plan;
+
+	private BoundTemplate(Processor processor, AccessPlan plan) {
+		this.processor = processor;
+		this.plan = plan;
+	}
+
+	/**
+	 * Binds a compiled template to a model class.
+	 * @param processor the processor of the template
+	 * @param modelType the class of the model
+	 * @return a newly created {@code BoundTemplate}
+	 * @throws IllegalArgumentException if some paths can not be resolved against {@code modelType}
+	 * @see AccessPlan#getMissingBindings()
+	 */
+	public static <T> BoundTemplate<T> compile(Processor processor, Class<T> modelType) {
+		if (processor == null | modelType == null) {
+			throw new NullPointerException();
+		}
+		Processor copy = processor.copy();
+		AccessPlan plan = AccessPlan.newInstance(TemplateAnalysis.analyze(copy), modelType);
+
+		List<Binding> missingBindings = plan.getMissingBindings();
+		if ( !missingBindings.isEmpty() ) {
+			StringBuilder message = new StringBuilder("Paths not found in ").append( modelType.getName() ).append(" :");
+			for (Binding binding : missingBindings) {
+				message.append(' ').append( binding.getPath() );
+				if (binding.getScope().getSection() != null) {
+					message.append(" (in ").append( binding.getScope().getSection().getName() ).append(')');
+				}
+			}
+			throw new IllegalArgumentException( message.toString() );
+		}
+
+		return new BoundTemplate<T>(copy, plan);
+	}
+
+	/**
+	 * Parses a template and binds it to a model class.
+	 * @param template the template
+	 * @param partialLoader the partial loader
+	 * @param modelType the class of the model
+	 * @return a newly created {@code BoundTemplate}
+	 * @throws ParseException if the template is not valid
+	 * @throws IOException if a partial could not be loaded
+	 * @throws IllegalArgumentException if some paths can not be resolved against {@code modelType}
+	 */
+	public static <T> BoundTemplate<T> compile(String template, PartialLoader partialLoader, Class<T> modelType)
+			throws ParseException, IOException {
+		return compile(Parser.parseString(template, partialLoader), modelType);
+	}
+
+	/**
+	 * @return the plan of the variables of the template
+	 */
+	public AccessPlan getAccessPlan() {
+		return plan;
+	}
+
+	public void render(T model, Appendable appendable) throws IOException {
+		render(model, appendable, new RenderOptions());
+	}
+
+	public void render(T model, Appendable appendable, RenderOptions options) throws IOException {
+		if (appendable == null | options == null) {
+			throw new NullPointerException();
+		}
+		Renderer.render(processor.copy(), new SectionStack(model, plan), appendable, options);
+	}
+}
@@ -0,0 +1,31 @@
+package mustache;
+
+/**
+ * The {@code CancellationToken} class lets a thread stop the renderings
+ * using it, for instance when the client of a page went away. A rendering
+ * notices the cancellation within a few hundred instructions, and fails with
+ * a {@link RenderLimitException}.
+ * 
+ * <p>Instances of this class can be shared safely among multiple threads.</p>
+ * 
+ * @author Dri
+ * @see RenderOptions#setCancellationToken(CancellationToken)
+ */
+public final class CancellationToken {
+	
+	private volatile boolean cancelled = false;
+	
+	/**
+	 * Cancels the renderings using this token, and the ones to come.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	/**
+	 * @return whether {@link #cancel()} was called
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
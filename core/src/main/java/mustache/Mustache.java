@@ -2,6 +2,7 @@ package mustache;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 
 import mustache.core.Processor;
 import mustache.parser.ParseException;
@@ -27,6 +28,12 @@ public abstract class Mustache {
 		Renderer.render(processor, this, appendable);
 	}
 	
+	public final void renderFile(File file, Charset charset, Appendable appendable, PartialLoader partialLoader)
+			throws ParseException, IOException {
+		Processor processor = Parser.parseFile(file, charset, partialLoader);
+		Renderer.render(processor, this, appendable);
+	}
+	
 	public final void renderString(String string, Appendable appendable, PartialLoader partialLoader)
 			throws ParseException, IOException {
 		Processor processor = Parser.parseString(string, partialLoader);
@@ -0,0 +1,279 @@
+package mustache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code OutputBuffer} class is a render target made of fixed-size
+ * segments. Unlike a {@link StringBuilder}, it grows without copying what was
+ * already appended, and its contents are written to the final output segment
+ * by segment, without being copied into a {@link String} first.
+ * 
+ * <p>
+ * A buffer is meant to be reused, for instance through an
+ * {@link OutputBufferPool}, so that renderings keep using the same segments.
+ * The {@link CharSequence}s returned by {@link #subSequence(int, int)} are
+ * views of the buffer, valid until it is cleared.
+ * </p>
+ * 
+ * <p>This class is not meant to be used concurrently by several threads.</p>
+ * 
+ * @author Dri
+ * @see Renderer
+ * @see OutputBufferPool
+ */
+public final class OutputBuffer implements Appendable, CharSequence {
+
+	private static final int SEGMENT_SIZE = 4096;
+	
+	// pooled buffers keep this many segments at most
+	static final int RETAINED_SEGMENTS = 64;
+	
+	private final List<char[]> segments = new ArrayList<char[]>();
+	private int length = 0;
+	
+	// encoding buffers, reused by all writes
+	private CharBuffer chars;
+	private ByteBuffer bytes;
+	
+	/**
+	 * Removes all characters, keeping the segments for later use.
+	 */
+	public void clear() {
+		length = 0;
+	}
+	
+	/**
+	 * Clears this buffer and drops its segments beyond the retained ones.
+	 */
+	void trim() {
+		clear();
+		while (segments.size() > RETAINED_SEGMENTS) {
+			segments.remove(segments.size() - 1);
+		}
+	}
+	
+	public OutputBuffer append(CharSequence csq) {
+		if (csq == null) {
+			return append("null", 0, 4);
+		}
+		return append(csq, 0, csq.length());
+	}
+	
+	public OutputBuffer append(CharSequence csq, int start, int end) {
+		if (csq == null) {
+			return append("null", start, end);
+		}
+		if (start < 0 || start > end || end > csq.length()) {
+			throw new IndexOutOfBoundsException("Invalid range : " + start + ", " + end);
+		}
+		
+		while (start < end) {
+			char[] segment = getWritableSegment();
+			int offset = length % SEGMENT_SIZE;
+			int count = Math.min(end - start, SEGMENT_SIZE - offset);
+			getChars(csq, start, start + count, segment, offset);
+			start += count;
+			length += count;
+		}
+		return this;
+	}
+	
+	public OutputBuffer append(char c) {
+		getWritableSegment()[length % SEGMENT_SIZE] = c;
+		length++;
+		return this;
+	}
+	
+	private char[] getWritableSegment() {
+		int index = length / SEGMENT_SIZE;
+		if (index == segments.size()) {
+			segments.add(new char[SEGMENT_SIZE]);
+		}
+		return segments.get(index);
+	}
+	
+	private static void getChars(CharSequence csq, int start, int end, char[] destination, int offset) {
+		if (csq instanceof String) {
+			((String) csq).getChars(start, end, destination, offset);
+		}
+		else if (csq instanceof StringBuilder) {
+			((StringBuilder) csq).getChars(start, end, destination, offset);
+		}
+		else {
+			for (int i = start; i < end; i++) {
+				destination[offset++] = csq.charAt(i);
+			}
+		}
+	}
+	
+	public int length() {
+		return length;
+	}
+	
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Invalid index : " + index);
+		}
+		return segments.get(index / SEGMENT_SIZE)[index % SEGMENT_SIZE];
+	}
+	
+	/**
+	 * Returns a view of a range of this buffer, without copying it.
+	 */
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || start > end || end > length) {
+			throw new IndexOutOfBoundsException("Invalid range : " + start + ", " + end);
+		}
+		return new View(start, end);
+	}
+	
+	@Override
+	public String toString() {
+		return toString(0, length);
+	}
+	
+	private String toString(int start, int end) {
+		char[] chars = new char[end - start];
+		copy(start, end, chars);
+		return new String(chars);
+	}
+	
+	private void copy(int start, int end, char[] destination) {
+		int position = start;
+		while (position < end) {
+			int offset = position % SEGMENT_SIZE;
+			int count = Math.min(end - position, SEGMENT_SIZE - offset);
+			System.arraycopy(segments.get(position / SEGMENT_SIZE), offset, destination, position - start, count);
+			position += count;
+		}
+	}
+	
+	/**
+	 * Writes the contents of this buffer with one write per segment.
+	 * @param writer the output
+	 * @throws IOException if the output failed
+	 */
+	public void writeTo(Writer writer) throws IOException {
+		for (int position = 0; position < length; position += SEGMENT_SIZE) {
+			writer.write(segments.get(position / SEGMENT_SIZE), 0, Math.min(length - position, SEGMENT_SIZE));
+		}
+	}
+	
+	/**
+	 * Encodes and writes the contents of this buffer. Malformed and
+	 * unmappable characters are replaced like an {@link java.io.OutputStreamWriter} does.
+	 * @param stream the output
+	 * @param charset the charset of the output
+	 * @throws IOException if the output failed
+	 */
+	public void writeTo(OutputStream stream, Charset charset) throws IOException {
+		encode(charset, stream, null);
+	}
+	
+	/**
+	 * Encodes and writes the contents of this buffer to a blocking channel.
+	 * Malformed and unmappable characters are replaced like an
+	 * {@link java.io.OutputStreamWriter} does.
+	 * @param channel the output
+	 * @param charset the charset of the output
+	 * @throws IOException if the output failed
+	 * @see RenderStream#writeTo(WritableByteChannel, Charset) for non-blocking channels
+	 */
+	public void writeTo(WritableByteChannel channel, Charset charset) throws IOException {
+		encode(charset, null, channel);
+	}
+	
+	private void encode(Charset charset, OutputStream stream, WritableByteChannel channel) throws IOException {
+		CharsetEncoder encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		if (chars == null) {
+			// a surrogate pair may span two segments
+			chars = CharBuffer.allocate(SEGMENT_SIZE + 1);
+			bytes = ByteBuffer.allocate(SEGMENT_SIZE * 2);
+		}
+		chars.clear();
+		bytes.clear();
+		
+		for (int position = 0; position < length; position += SEGMENT_SIZE) {
+			chars.put(segments.get(position / SEGMENT_SIZE), 0, Math.min(length - position, SEGMENT_SIZE));
+			chars.flip();
+			encode(encoder, false, stream, channel);
+			chars.compact();
+		}
+		
+		chars.flip();
+		encode(encoder, true, stream, channel);
+		while (encoder.flush(bytes) == CoderResult.OVERFLOW) {
+			drain(stream, channel);
+		}
+		drain(stream, channel);
+	}
+	
+	private void encode(CharsetEncoder encoder, boolean endOfInput, OutputStream stream, WritableByteChannel channel)
+			throws IOException {
+		while (encoder.encode(chars, bytes, endOfInput) == CoderResult.OVERFLOW) {
+			drain(stream, channel);
+		}
+	}
+	
+	private void drain(OutputStream stream, WritableByteChannel channel) throws IOException {
+		bytes.flip();
+		if (stream != null) {
+			stream.write(bytes.array(), bytes.arrayOffset(), bytes.remaining());
+		}
+		else {
+			while ( bytes.hasRemaining() ) {
+				channel.write(bytes);
+			}
+		}
+		bytes.clear();
+	}
+	
+	/**
+	 * A range of the buffer.
+	 */
+	private final class View implements CharSequence {
+		private final int start;
+		private final int end;
+		
+		private View(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+		
+		public int length() {
+			return end - start;
+		}
+		
+		public char charAt(int index) {
+			if (index < 0 || index >= length()) {
+				throw new IndexOutOfBoundsException("Invalid index : " + index);
+			}
+			return OutputBuffer.this.charAt(start + index);
+		}
+		
+		public CharSequence subSequence(int subStart, int subEnd) {
+			if (subStart < 0 || subStart > subEnd || subEnd > length()) {
+				throw new IndexOutOfBoundsException("Invalid range : " + subStart + ", " + subEnd);
+			}
+			return new View(start + subStart, start + subEnd);
+		}
+		
+		@Override
+		public String toString() {
+			return OutputBuffer.this.toString(start, end);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package mustache;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The {@code OutputBufferPool} class keeps released {@link OutputBuffer}s for
+ * later renderings, by any thread.
+ * 
+ * <p>
+ * The pool retains at most its capacity in buffers, each of them trimmed to
+ * 64 segments of 4096 characters when
+ * released, so that a page larger than usual does not stay in memory. Buffers
+ * are only referenced by the pool and the renderings using them : unlike
+ * buffers kept by threads, they do not outlive an application whose threads
+ * belong to a container, and {@link #clear()} drops them at once.
+ * </p>
+ * 
+ * <p>This class can be used safely by multiple threads.</p>
+ * 
+ * @author Dri
+ * @see OutputBuffer
+ */
+public final class OutputBufferPool {
+
+	private final BlockingQueue<OutputBuffer> buffers;
+	
+	/**
+	 * Creates an {@code OutputBufferPool}.
+	 * @param capacity the maximum number of buffers kept by the pool
+	 * @throws IllegalArgumentException if {@code capacity} is not positive
+	 */
+	public OutputBufferPool(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity : " + capacity);
+		}
+		buffers = new ArrayBlockingQueue<OutputBuffer>(capacity);
+	}
+	
+	/**
+	 * Returns a released buffer, or a new one.
+	 * @return an empty {@link OutputBuffer}
+	 * @see #release(OutputBuffer)
+	 */
+	public OutputBuffer acquire() {
+		OutputBuffer buffer = buffers.poll();
+		return buffer == null ? new OutputBuffer() : buffer;
+	}
+	
+	/**
+	 * Clears a buffer and keeps it for a later call to {@link #acquire()},
+	 * unless the pool is full. The buffer must not be used afterwards.
+	 * @param buffer the buffer to release
+	 */
+	public void release(OutputBuffer buffer) {
+		if (buffer == null) {
+			throw new NullPointerException();
+		}
+		buffer.trim();
+		buffers.offer(buffer);
+	}
+	
+	/**
+	 * Drops all the buffers kept by the pool.
+	 */
+	public void clear() {
+		buffers.clear();
+	}
+	
+	/**
+	 * @return the number of buffers kept by the pool
+	 */
+	public int size() {
+		return buffers.size();
+	}
+}
@@ -0,0 +1,47 @@
+package mustache;
+
+import java.io.IOException;
+
+/**
+ * Thrown to indicate that a rendering was stopped before its end because it
+ * reached one of the limits of its {@link RenderOptions}, or because it was
+ * interrupted or cancelled. The output may contain the beginning of the
+ * rendering.
+ * 
+ * @author Dri
+ */
+public final class RenderLimitException extends IOException {
+	private static final long serialVersionUID = 6129430516823517014L;
+	
+	/**
+	 * The reasons to stop a rendering.
+	 */
+	public enum Limit {
+		/** @see RenderOptions#setTimeout(long, java.util.concurrent.TimeUnit) */
+		TIMEOUT,
+		/** @see RenderOptions#setMaxInstructions(long) */
+		INSTRUCTIONS,
+		/** @see RenderOptions#setMaxOutputLength(long) */
+		OUTPUT_LENGTH,
+		/** @see RenderOptions#setMaxSectionDepth(int) */
+		SECTION_DEPTH,
+		/** The rendering thread was interrupted. */
+		INTERRUPTED,
+		/** @see RenderOptions#setCancellationToken(CancellationToken) */
+		CANCELLED
+	}
+	
+	private final Limit limit;
+	
+	RenderLimitException(Limit limit, String message) {
+		super(message);
+		this.limit = limit;
+	}
+	
+	/**
+	 * @return the reason why the rendering was stopped
+	 */
+	public Limit getLimit() {
+		return limit;
+	}
+}
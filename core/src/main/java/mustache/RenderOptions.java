@@ -0,0 +1,471 @@
+package mustache;
+
+import java.text.NumberFormat;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import mustache.core.Processor;
+import mustache.core.RecursivePartialException;
+import mustache.rendering.FormatterRegistry;
+import mustache.rendering.SectionCache;
+
+/**
+ * The {@code RenderOptions} class gathers the optional settings of a
+ * {@link Renderer}. Settings are changed in a fluent API fashion, and the
+ * default ones render templates exactly as
+ * {@link Renderer#render(mustache.core.Processor, Object, Appendable)} does.
+ * 
+ * <p>This class is not meant to be modified concurrently by several threads,
+ * though the same options can be used by concurrent renderings.</p>
+ * 
+ * @author Dri
+ */
+public final class RenderOptions {
+
+	private SectionCache sectionCache;
+	private int chunkSize = 8192;
+	private int flushThreshold = 0;
+	private int listFlushThreshold = 0;
+	private Executor executor;
+	private boolean parallelSections = false;
+	private int parallelListThreshold = 0;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private boolean threadSafeData = false;
+	private NumberFormat numberFormat;
+	private FormatterRegistry formatterRegistry;
+	private int maxPartialDepth = Processor.DEFAULT_MAX_PARTIAL_DEPTH;
+	private long timeout = 0;
+	private long maxInstructions = 0;
+	private long maxOutputLength = 0;
+	private int maxSectionDepth = 0;
+	private CancellationToken cancellationToken;
+	private RenderTracer tracer;
+	private String templateName;
+	
+	/**
+	 * @return the cache of the cached sections, {@code null} by default
+	 */
+	public SectionCache getSectionCache() {
+		return sectionCache;
+	}
+	
+	/**
+	 * Sets the cache of the sections marked with the
+	 * {@value mustache.parser.Parser#CACHE_PRAGMA} pragma. Without a cache,
+	 * those sections are rendered like any other section.
+	 * @param sectionCache the cache, or {@code null}
+	 * @return this {@code RenderOptions} object
+	 */
+	public RenderOptions setSectionCache(SectionCache sectionCache) {
+		this.sectionCache = sectionCache;
+		return this;
+	}
+	
+	/**
+	 * @return the minimum size of the chunks of a {@link RenderStream}, 8192 by default
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+	
+	/**
+	 * Sets the minimum size of the chunks of a {@link RenderStream}. Chunks
+	 * end with an instruction, and therefore often exceed this size.
+	 * @param chunkSize the size in characters
+	 * @return this {@code RenderOptions} object
+	 * @throws IllegalArgumentException if {@code chunkSize} is not positive
+	 */
+	public RenderOptions setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid chunk size : " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+		return this;
+	}
+	
+	/**
+	 * @return the number of characters after which the output is flushed, {@code 0} by default
+	 */
+	public int getFlushThreshold() {
+		return flushThreshold;
+	}
+	
+	/**
+	 * Sets the number of characters after which the output is flushed, on top
+	 * of the flush points declared with the
+	 * {@value mustache.parser.Parser#FLUSH_PRAGMA} pragma. The output is only
+	 * flushed if it is {@link java.io.Flushable}.
+	 * @param flushThreshold the number of characters, or {@code 0} to disable automatic flushes
+	 * @return this {@code RenderOptions} object
+	 * @throws IllegalArgumentException if {@code flushThreshold} is negative
+	 */
+	public RenderOptions setFlushThreshold(int flushThreshold) {
+		if (flushThreshold < 0) {
+			throw new IllegalArgumentException("Negative flush threshold : " + flushThreshold);
+		}
+		this.flushThreshold = flushThreshold;
+		return this;
+	}
+	
+	/**
+	 * @return the size of the lists flushing the output before being rendered, {@code 0} by default
+	 */
+	public int getListFlushThreshold() {
+		return listFlushThreshold;
+	}
+	
+	/**
+	 * Sets the size of the lists flushing the output before a section renders
+	 * them, so that the output preceding long lists is not delayed by them.
+	 * @param listFlushThreshold the minimum size of the lists, or {@code 0} to disable
+	 * @return this {@code RenderOptions} object
+	 * @throws IllegalArgumentException if {@code listFlushThreshold} is negative
+	 */
+	public RenderOptions setListFlushThreshold(int listFlushThreshold) {
+		if (listFlushThreshold < 0) {
+			throw new IllegalArgumentException("Negative list flush threshold : " + listFlushThreshold);
+		}
+		this.listFlushThreshold = listFlushThreshold;
+		return this;
+	}
+	
+	/**
+	 * @return the executor of parallel renderings, {@code null} by default
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Sets the executor rendering parts of templates in parallel. Without an
+	 * executor, templates are always rendered by the calling thread.
+	 * @param executor the executor, or {@code null}
+	 * @return this {@code RenderOptions} object
+	 * @see #setParallelSections(boolean)
+	 */
+	public RenderOptions setExecutor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+	
+	/**
+	 * @return whether top-level sections are rendered in parallel, {@code false} by default
+	 */
+	public boolean isParallelSections() {
+		return parallelSections;
+	}
+	
+	/**
+	 * Enables the parallel rendering of top-level sections by the executor.
+	 * Each top-level section is rendered into its own buffer while the calling
+	 * thread goes on with the rest of the template, and the buffers are then
+	 * written in template order. The output is therefore only written once the
+	 * whole template is rendered.
+	 * 
+	 * <p>Sections concurrently read the data, including lambdas, so they are
+	 * only rendered in parallel if the data is declared thread-safe. Only
+	 * sections iterating over a non-empty collection or array are forked :
+	 * conditional sections, inverted sections and sections opened inside other
+	 * sections are rendered by the calling thread, as well as whole templates
+	 * rendered by a {@link RenderStream}.</p>
+	 * 
+	 * @param parallelSections {@code true} to render top-level sections in parallel
+	 * @return this {@code RenderOptions} object
+	 * @see #setExecutor(Executor)
+	 * @see #setThreadSafeData(boolean)
+	 */
+	public RenderOptions setParallelSections(boolean parallelSections) {
+		this.parallelSections = parallelSections;
+		return this;
+	}
+	
+	/**
+	 * @return the size of the lists rendered in parallel, {@code 0} by default
+	 */
+	public int getParallelListThreshold() {
+		return parallelListThreshold;
+	}
+	
+	/**
+	 * Sets the size of the lists rendered in parallel by the executor. Such
+	 * lists are split into chunks of consecutive items, and the output of the
+	 * chunks is written in order once they are all rendered. Only
+	 * {@link java.util.RandomAccess} lists and arrays are split, and only if
+	 * the data is declared thread-safe.
+	 * @param parallelListThreshold the minimum size of the lists, or {@code 0} to disable
+	 * @return this {@code RenderOptions} object
+	 * @throws IllegalArgumentException if {@code parallelListThreshold} is negative
+	 * @see #setExecutor(Executor)
+	 * @see #setThreadSafeData(boolean)
+	 */
+	public RenderOptions setParallelListThreshold(int parallelListThreshold) {
+		if (parallelListThreshold < 0) {
+			throw new IllegalArgumentException("Negative parallel list threshold : " + parallelListThreshold);
+		}
+		this.parallelListThreshold = parallelListThreshold;
+		return this;
+	}
+	
+	/**
+	 * @return the number of chunks lists are split into, the number of
+	 * available processors by default
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+	
+	/**
+	 * Sets the number of chunks lists rendered in parallel are split into. One
+	 * of the chunks is rendered by the calling thread.
+	 * @param parallelism the number of chunks
+	 * @return this {@code RenderOptions} object
+	 * @throws IllegalArgumentException if {@code parallelism} is not positive
+	 */
+	public RenderOptions setParallelism(int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Invalid parallelism : " + parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+	
+	/**
+	 * @return whether the data can be read by several threads, {@code false} by default
+	 */
+	public boolean isThreadSafeData() {
+		return threadSafeData;
+	}
+	
+	/**
+	 * Declares whether the data, including lambdas, can be read concurrently
+	 * by several threads. Sections and lists are never rendered in parallel
+	 * otherwise.
+	 * @param threadSafeData {@code true} if the data is thread-safe
+	 * @return this {@code RenderOptions} object
+	 * @see #setParallelListThreshold(int)
+	 */
+	public RenderOptions setThreadSafeData(boolean threadSafeData) {
+		this.threadSafeData = threadSafeData;
+		return this;
+	}
+	
+	/**
+	 * @return the format of numbers, {@code null} by default
+	 */
+	public NumberFormat getNumberFormat() {
+		return numberFormat;
+	}
+	
+	/**
+	 * Sets the format of the numbers of variables, for instance
+	 * {@code NumberFormat.getInstance(Locale.FRANCE)}. The format is cloned
+	 * once per rendering, and is never used itself. Without a format, numbers
+	 * are written like their {@code toString()} method does.
+	 * @param numberFormat the format, or {@code null}
+	 * @return this {@code RenderOptions} object
+	 */
+	public RenderOptions setNumberFormat(NumberFormat numberFormat) {
+		this.numberFormat = numberFormat;
+		return this;
+	}
+	
+	/**
+	 * @return the formatters of values, {@code null} by default
+	 */
+	public FormatterRegistry getFormatterRegistry() {
+		return formatterRegistry;
+	}
+	
+	/**
+	 * Sets the formatters of the values of variables. A value with a
+	 * formatter is written by it instead of its {@code toString()} method, or
+	 * the number format.
+	 * @param formatterRegistry the formatters, or {@code null}
+	 * @return this {@code RenderOptions} object
+	 */
+	public RenderOptions setFormatterRegistry(FormatterRegistry formatterRegistry) {
+		this.formatterRegistry = formatterRegistry;
+		return this;
+	}
+	
+	/**
+	 * @return the maximum number of nested partials,
+	 * {@value mustache.core.Processor#DEFAULT_MAX_PARTIAL_DEPTH} by default
+	 */
+	public int getMaxPartialDepth() {
+		return maxPartialDepth;
+	}
+	
+	/**
+	 * Sets the maximum number of nested partials. Rendering a template
+	 * entering more nested partials, for instance a recursive partial with
+	 * too deep data, fails with a {@link RecursivePartialException}.
+	 * @param maxPartialDepth the maximum number of nested partials
+	 * @return this {@code RenderOptions} object
+	 * @throws IllegalArgumentException if {@code maxPartialDepth} is negative
+	 */
+	public RenderOptions setMaxPartialDepth(int maxPartialDepth) {
+		if (maxPartialDepth < 0) {
+			throw new IllegalArgumentException("Negative partial depth : " + maxPartialDepth);
+		}
+		this.maxPartialDepth = maxPartialDepth;
+		return this;
+	}
+	
+	/**
+	 * @param unit the unit of the result
+	 * @return the maximum duration of renderings, {@code 0} by default
+	 */
+	public long getTimeout(TimeUnit unit) {
+		return unit.convert(timeout, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Sets the maximum duration of renderings, after which they fail with a
+	 * {@link RenderLimitException}. Like the other limits, the duration is
+	 * checked every few hundred instructions, so a slow lambda or output is
+	 * not interrupted, but the rendering stops right after it.
+	 * 
+	 * <p>Renderings with limits, or a cancellation token, also stop when their
+	 * thread is interrupted.</p>
+	 * 
+	 * @param timeout the maximum duration, or {@code 0} for no limit
+	 * @param unit the unit of {@code timeout}
+	 * @return this {@code RenderOptions} object
+	 * @throws IllegalArgumentException if {@code timeout} is negative
+	 */
+	public RenderOptions setTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("Negative timeout : " + timeout);
+		}
+		this.timeout = unit.toNanos(timeout);
+		return this;
+	}
+	
+	/**
+	 * @return the maximum number of instructions of renderings, {@code 0} by default
+	 */
+	public long getMaxInstructions() {
+		return maxInstructions;
+	}
+	
+	/**
+	 * Sets the maximum number of instructions processed by renderings, each
+	 * iteration of a section counting its instructions again. Sections
+	 * rendered in parallel count their instructions separately.
+	 * @param maxInstructions the maximum number of instructions, or {@code 0} for no limit
+	 * @return this {@code RenderOptions} object
+	 * @throws IllegalArgumentException if {@code maxInstructions} is negative
+	 */
+	public RenderOptions setMaxInstructions(long maxInstructions) {
+		if (maxInstructions < 0) {
+			throw new IllegalArgumentException("Negative instruction count : " + maxInstructions);
+		}
+		this.maxInstructions = maxInstructions;
+		return this;
+	}
+	
+	/**
+	 * @return the maximum number of characters written by renderings, {@code 0} by default
+	 */
+	public long getMaxOutputLength() {
+		return maxOutputLength;
+	}
+	
+	/**
+	 * Sets the maximum number of characters written by renderings.
+	 * @param maxOutputLength the maximum number of characters, or {@code 0} for no limit
+	 * @return this {@code RenderOptions} object
+	 * @throws IllegalArgumentException if {@code maxOutputLength} is negative
+	 */
+	public RenderOptions setMaxOutputLength(long maxOutputLength) {
+		if (maxOutputLength < 0) {
+			throw new IllegalArgumentException("Negative output length : " + maxOutputLength);
+		}
+		this.maxOutputLength = maxOutputLength;
+		return this;
+	}
+	
+	/**
+	 * @return the maximum number of nested sections, {@code 0} by default
+	 */
+	public int getMaxSectionDepth() {
+		return maxSectionDepth;
+	}
+	
+	/**
+	 * Sets the maximum number of sections entered inside each other,
+	 * partials included.
+	 * @param maxSectionDepth the maximum number of nested sections, or {@code 0} for no limit
+	 * @return this {@code RenderOptions} object
+	 * @throws IllegalArgumentException if {@code maxSectionDepth} is negative
+	 */
+	public RenderOptions setMaxSectionDepth(int maxSectionDepth) {
+		if (maxSectionDepth < 0) {
+			throw new IllegalArgumentException("Negative section depth : " + maxSectionDepth);
+		}
+		this.maxSectionDepth = maxSectionDepth;
+		return this;
+	}
+	
+	/**
+	 * @return the token cancelling renderings, {@code null} by default
+	 */
+	public CancellationToken getCancellationToken() {
+		return cancellationToken;
+	}
+	
+	/**
+	 * Sets the token cancelling renderings.
+	 * @param cancellationToken the token, or {@code null}
+	 * @return this {@code RenderOptions} object
+	 * @see CancellationToken#cancel()
+	 */
+	public RenderOptions setCancellationToken(CancellationToken cancellationToken) {
+		this.cancellationToken = cancellationToken;
+		return this;
+	}
+	
+	/**
+	 * @return the tracer of renderings, {@code null} by default
+	 */
+	public RenderTracer getTracer() {
+		return tracer;
+	}
+	
+	/**
+	 * Sets the tracer recording the timeline of a sample of the renderings.
+	 * @param tracer the tracer, or {@code null}
+	 * @return this {@code RenderOptions} object
+	 */
+	public RenderOptions setTracer(RenderTracer tracer) {
+		this.tracer = tracer;
+		return this;
+	}
+	
+	/**
+	 * @return the name of the rendered template, {@code null} by default
+	 */
+	public String getTemplateName() {
+		return templateName;
+	}
+	
+	/**
+	 * Sets the name of the rendered template, which is reported by traces.
+	 * @param templateName the name of the template, or {@code null}
+	 * @return this {@code RenderOptions} object
+	 * @see #setTracer(RenderTracer)
+	 */
+	public RenderOptions setTemplateName(String templateName) {
+		this.templateName = templateName;
+		return this;
+	}
+	
+	/**
+	 * @return whether renderings have limits or can be cancelled
+	 */
+	boolean isLimited() {
+		return timeout > 0 || maxInstructions > 0 || maxOutputLength > 0 || maxSectionDepth > 0
+				|| cancellationToken != null;
+	}
+}
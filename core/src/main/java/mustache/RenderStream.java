@@ -0,0 +1,203 @@
+package mustache;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import mustache.core.Processor;
+
+/**
+ * The {@code RenderStream} class renders a template on demand, one chunk at a
+ * time. Rendering only progresses when the next chunk is requested, which lets
+ * the consumer of the output decide when to render, for instance when a
+ * non-blocking channel becomes writable again.
+ * 
+ * <p>
+ * Chunks are made of the output of whole instructions, and hold at least
+ * {@link RenderOptions#getChunkSize()} characters except for the last one.
+ * Partials are loaded when templates are parsed, so rendering a chunk never
+ * waits for I/O unless the data itself does.
+ * </p>
+ * 
+ * <p>This class is not meant to be used concurrently by several threads.</p>
+ * 
+ * @author Dri
+ * @see Renderer
+ */
+public final class RenderStream {
+
+	private static final int BYTE_BUFFER_SIZE = 8192;
+	
+	private final Renderer renderer;
+	private final ChunkBuffer buffer = new ChunkBuffer();
+	private final int chunkSize;
+	
+	private boolean finished = false;
+	
+	// encoding state, reused by all writes
+	private CharsetEncoder encoder;
+	private CharBuffer pendingChars;
+	private ByteBuffer pendingBytes;
+	private boolean endOfInput = false;
+	private boolean encoded = false;
+	
+	/**
+	 * Creates a {@code RenderStream}.
+	 * @param processor the processor of the template, used by this stream only
+	 * @param data the data to render
+	 * @param options the rendering options
+	 */
+	public RenderStream(Processor processor, Object data, RenderOptions options) {
+		if (processor == null | options == null) {
+			throw new NullPointerException();
+		}
+		this.renderer = Renderer.newInstance(processor, data, buffer, options);
+		this.chunkSize = options.getChunkSize();
+	}
+	
+	/**
+	 * Renders the next chunk of output.
+	 * @return the next chunk, or {@code null} once the whole template is rendered
+	 * @throws IOException if rendering failed
+	 */
+	public String nextChunk() throws IOException {
+		while (!finished && buffer.length() < chunkSize && !buffer.flushed) {
+			finished = !renderer.renderNext();
+		}
+		if (buffer.length() == 0) {
+			return null;
+		}
+		String chunk = buffer.toString();
+		buffer.clear();
+		return chunk;
+	}
+	
+	/**
+	 * Indicates whether the whole output was consumed, either by
+	 * {@link #nextChunk()} or {@link #writeTo(WritableByteChannel, Charset)}.
+	 * @return {@code true} if there is nothing left to render or write
+	 */
+	public boolean isFinished() {
+		if (encoder != null) {
+			return encoded && !pendingBytes.hasRemaining();
+		}
+		return finished && buffer.length() == 0;
+	}
+	
+	/**
+	 * Renders and writes chunks to a channel until the channel stops accepting
+	 * bytes. With a non-blocking channel, this method returns {@code false} as
+	 * soon as the channel is not writable, and rendering resumes when it is
+	 * called again. The same charset must be used by all calls. Malformed and
+	 * unmappable characters are replaced like an {@link java.io.OutputStreamWriter}
+	 * does, and characters are encoded across chunks.
+	 * @param channel the channel to write to
+	 * @param charset the charset of the output
+	 * @return {@code true} once the whole output is written
+	 * @throws IOException if rendering or writing failed
+	 */
+	public boolean writeTo(WritableByteChannel channel, Charset charset) throws IOException {
+		if (encoder == null) {
+			encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			pendingChars = CharBuffer.allocate(0);
+			pendingBytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+			pendingBytes.flip();
+		}
+		else if ( !encoder.charset().equals(charset) ) {
+			throw new IllegalArgumentException("Charset changed : " + charset);
+		}
+		
+		while (true) {
+			if ( pendingBytes.hasRemaining() ) {
+				channel.write(pendingBytes);
+				if ( pendingBytes.hasRemaining() ) {
+					// not writable
+					return false;
+				}
+			}
+			if (encoded) {
+				return true;
+			}
+			
+			pendingBytes.clear();
+			CoderResult result = encoder.encode(pendingChars, pendingBytes, endOfInput);
+			if ( result.isUnderflow() ) {
+				if (endOfInput) {
+					encoded = encoder.flush(pendingBytes).isUnderflow();
+				}
+				else {
+					nextChars();
+				}
+			}
+			pendingBytes.flip();
+		}
+	}
+	
+	/**
+	 * Renders the next chunk after the characters left by the encoder, such as
+	 * the first half of a surrogate pair.
+	 */
+	private void nextChars() throws IOException {
+		String chunk = nextChunk();
+		if (chunk == null) {
+			endOfInput = true;
+		}
+		else if ( pendingChars.hasRemaining() ) {
+			CharBuffer chars = CharBuffer.allocate(pendingChars.remaining() + chunk.length());
+			chars.put(pendingChars).put(chunk).flip();
+			pendingChars = chars;
+		}
+		else {
+			pendingChars = CharBuffer.wrap(chunk);
+		}
+	}
+	
+	/**
+	 * Ends chunks early at flush points.
+	 */
+	private static final class ChunkBuffer implements Appendable, Flushable {
+		private final StringBuilder builder = new StringBuilder();
+		private boolean flushed = false;
+		
+		public Appendable append(CharSequence csq) {
+			builder.append(csq);
+			return this;
+		}
+		
+		public Appendable append(CharSequence csq, int start, int end) {
+			builder.append(csq, start, end);
+			return this;
+		}
+		
+		public Appendable append(char c) {
+			builder.append(c);
+			return this;
+		}
+		
+		public void flush() {
+			flushed = builder.length() > 0;
+		}
+		
+		private int length() {
+			return builder.length();
+		}
+		
+		private void clear() {
+			builder.setLength(0);
+			flushed = false;
+		}
+		
+		@Override
+		public String toString() {
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package mustache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mustache.core.Instruction;
+
+/**
+ * The {@code RenderTracer} class records the timeline of a sample of the
+ * renderings using it : for each instruction, the partial processing it, the
+ * index of the current item of the innermost section, and the time spent
+ * rendering it. It tells apart the time spent reading the data, iterating
+ * sections, or writing to the output.
+ * 
+ * <p>
+ * The events of sampled renderings are kept in a ring buffer, the oldest
+ * events being replaced by the new ones. Renderings that are not sampled are
+ * not slowed down, as well as renderings without a tracer.
+ * </p>
+ * 
+ * <p>This class can be used safely by multiple threads.</p>
+ * 
+ * @author Dri
+ * @see RenderOptions#setTracer(RenderTracer)
+ */
+public final class RenderTracer {
+
+	private final double sampleRate;
+	private final AtomicLong renderings = new AtomicLong();
+	private final AtomicLong traces = new AtomicLong();
+	
+	// the ring buffer of events
+	private final long[] traceIds;
+	private final String[] templates;
+	private final String[] partials;
+	private final Instruction[] instructions;
+	private final int[] iterations;
+	private final long[] startTimes;
+	private final long[] elapsedTimes;
+	private int next = 0;
+	private int size = 0;
+	
+	/**
+	 * Creates a {@code RenderTracer}.
+	 * @param sampleRate the fraction of the renderings to trace, from {@code 0} to {@code 1}
+	 * @param capacity the maximum number of events kept
+	 * @throws IllegalArgumentException if {@code sampleRate} or {@code capacity} is invalid
+	 */
+	public RenderTracer(double sampleRate, int capacity) {
+		if ( !(sampleRate >= 0 && sampleRate <= 1) ) {
+			throw new IllegalArgumentException("Invalid sample rate : " + sampleRate);
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity : " + capacity);
+		}
+		this.sampleRate = sampleRate;
+		this.traceIds = new long[capacity];
+		this.templates = new String[capacity];
+		this.partials = new String[capacity];
+		this.instructions = new Instruction[capacity];
+		this.iterations = new int[capacity];
+		this.startTimes = new long[capacity];
+		this.elapsedTimes = new long[capacity];
+	}
+	
+	/**
+	 * @return the fraction of the renderings traced
+	 */
+	public double getSampleRate() {
+		return sampleRate;
+	}
+	
+	/**
+	 * @return the events kept, from the oldest to the most recent
+	 */
+	public synchronized List<Event> getEvents() {
+		List<Event> events = new ArrayList<Event>(size);
+		int capacity = traceIds.length;
+		for (int i = next - size + capacity; i < next + capacity; i++) {
+			int index = i % capacity;
+			events.add( new Event(traceIds[index], templates[index], partials[index], instructions[index],
+					iterations[index], startTimes[index], elapsedTimes[index]) );
+		}
+		return events;
+	}
+	
+	/**
+	 * Removes all the events.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < instructions.length; i++) {
+			templates[i] = null;
+			partials[i] = null;
+			instructions[i] = null;
+		}
+		next = 0;
+		size = 0;
+	}
+	
+	/**
+	 * Decides whether a rendering is traced. The renderings are sampled
+	 * evenly, for instance one out of four for a rate of {@code 0.25}.
+	 * @param template the name of the template, or {@code null}
+	 * @return the trace of the rendering, or {@code null} if it is not traced
+	 */
+	Trace startTrace(String template) {
+		long rendering = renderings.getAndIncrement();
+		if ((long) ((rendering + 1) * sampleRate) == (long) (rendering * sampleRate)) {
+			return null;
+		}
+		return new Trace(traces.incrementAndGet(), template);
+	}
+	
+	private synchronized void record(long traceId, String template, String partial, Instruction instruction,
+			int iteration, long startTime, long elapsedTime) {
+		traceIds[next] = traceId;
+		templates[next] = template;
+		partials[next] = partial;
+		instructions[next] = instruction;
+		iterations[next] = iteration;
+		startTimes[next] = startTime;
+		elapsedTimes[next] = elapsedTime;
+		next = (next + 1) % traceIds.length;
+		size = Math.min(size + 1, traceIds.length);
+	}
+	
+	/**
+	 * The trace of a sampled rendering, shared by the threads rendering it.
+	 */
+	final class Trace {
+		private final long id;
+		private final String template;
+		private final long startTime = System.nanoTime();
+		
+		private Trace(long id, String template) {
+			this.id = id;
+			this.template = template;
+		}
+		
+		/**
+		 * Records the rendering of an instruction.
+		 * @param start the {@link System#nanoTime()} before rendering it
+		 * @param end the {@link System#nanoTime()} after rendering it
+		 */
+		void record(Instruction instruction, String partial, int iteration, long start, long end) {
+			RenderTracer.this.record(id, template, partial, instruction, iteration, start - startTime, end - start);
+		}
+	}
+	
+	/**
+	 * The {@code Event} class is the rendering of an instruction.
+	 */
+	public static final class Event {
+		private final long traceId;
+		private final String template;
+		private final String partial;
+		private final Instruction instruction;
+		private final int iteration;
+		private final long startTime;
+		private final long elapsedTime;
+		
+		private Event(long traceId, String template, String partial, Instruction instruction, int iteration,
+				long startTime, long elapsedTime) {
+			this.traceId = traceId;
+			this.template = template;
+			this.partial = partial;
+			this.instruction = instruction;
+			this.iteration = iteration;
+			this.startTime = startTime;
+			this.elapsedTime = elapsedTime;
+		}
+		
+		/**
+		 * @return the number of the traced rendering, starting at {@code 1}
+		 */
+		public long getTraceId() {
+			return traceId;
+		}
+		
+		/**
+		 * @return the name of the template, {@code null} if it was not given
+		 * @see RenderOptions#setTemplateName(String)
+		 */
+		public String getTemplate() {
+			return template;
+		}
+		
+		/**
+		 * @return the name of the partial of the instruction, {@code null} outside of partials
+		 */
+		public String getPartial() {
+			return partial;
+		}
+		
+		public Instruction getInstruction() {
+			return instruction;
+		}
+		
+		/**
+		 * @return the index of the current item of the innermost section
+		 */
+		public int getIteration() {
+			return iteration;
+		}
+		
+		/**
+		 * @return the nanoseconds between the start of the rendering and the instruction
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+		
+		/**
+		 * @return the nanoseconds spent rendering the instruction
+		 */
+		public long getElapsedTime() {
+			return elapsedTime;
+		}
+		
+		@Override
+		public String toString() {
+			return "#" + traceId + " " + template + (partial == null ? "" : ">" + partial) + " [" + iteration + "] +"
+					+ startTime + "ns " + elapsedTime + "ns : " + instruction;
+		}
+	}
+}
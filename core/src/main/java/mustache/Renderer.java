@@ -1,15 +1,43 @@
 package mustache;
 
+import java.io.Flushable;
 import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
+import mustache.RenderLimitException.Limit;
+import mustache.RenderTracer.Trace;
 import mustache.core.AppendText;
 import mustache.core.AppendVariable;
 import mustache.core.CloseSection;
+import mustache.core.Flush;
 import mustache.core.Instruction;
 import mustache.core.OpenSection;
 import mustache.core.Processor;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.rendering.Formatter;
+import mustache.rendering.FormatterRegistry;
+import mustache.rendering.Fragment;
+import mustache.rendering.Lambda;
+import mustache.rendering.NumberWriter;
+import mustache.rendering.SectionCache;
 import mustache.rendering.SectionStack;
+import mustache.util.Query;
+import mustache.util.TemplateMonitor;
 
 import org.apache.commons.lang.StringEscapeUtils;
 
@@ -17,48 +45,170 @@ public final class Renderer {
 	private static final Pattern INDENT_PARTIAL_TEXT = Pattern.compile("\\r\\n|\\r|\\n(?!$)");
 
 	public static void render(Processor processor, Object data, Appendable appendable) throws IOException {
-		if (processor == null | appendable == null) {
+		render(processor, data, appendable, new RenderOptions());
+	}
+	
+	public static void render(Processor processor, Object data, Appendable appendable, RenderOptions options)
+			throws IOException {
+		if (processor == null | appendable == null | options == null) {
 			throw new NullPointerException();
 		}
-		new Renderer(processor, data, appendable).render();
+		render(processor, new SectionStack(data), appendable, options);
+	}
+	
+	/**
+	 * Renders a template with a prepared {@link SectionStack}.
+	 */
+	static void render(Processor processor, SectionStack sectionStack, Appendable appendable, RenderOptions options)
+			throws IOException {
+		TemplateMonitor monitor = TemplateMonitor.getActive();
+		long start = monitor == null ? 0 : System.nanoTime();
+		if (options.getFlushThreshold() > 0 && appendable instanceof Flushable) {
+			appendable = new ThresholdFlusher(appendable, options.getFlushThreshold());
+		}
+		Limiter limiter = Limiter.newInstance(options);
+		if (limiter != null) {
+			appendable = limiter.wrap(appendable);
+		}
+		Counter counter = null;
+		if (monitor != null) {
+			counter = new Counter(appendable);
+			appendable = counter;
+		}
+		processor.setMaxPartialDepth( options.getMaxPartialDepth() );
+		Renderer renderer = new Renderer(processor, sectionStack, appendable, options);
+		renderer.limiter = limiter;
+		renderer.trace = startTrace(options);
+		if (options.isParallelSections() && options.getExecutor() != null && options.isThreadSafeData()) {
+			renderer.stitcher = new Stitcher(appendable, options, limiter, renderer.trace);
+		}
+		renderer.render();
+		if (monitor != null) {
+			monitor.templateRendered(options.getTemplateName(), counter.length, renderer.instructions,
+					System.nanoTime() - start);
+		}
 	}
 	
 	private final Processor processor;
 	private final SectionStack sectionStack;
-	private final Appendable appendable;
+	private final SectionCache sectionCache;
+	private final RenderOptions options;
 	
-	private String previousIndentation;
+	private Appendable appendable;
+	private String previousIndentation = "";
+	private LambdaFragment fragment;
+	private Capture capture;
+	private Stitcher stitcher;
+	private Limiter limiter;
+	private Trace trace;
+	private long instructions = 0;
+	private boolean forked = false;
+	private NumberFormat numberFormat;
+	private NumberWriter numberWriter;
+	private final HtmlEscaper escaper = new HtmlEscaper();
 	
-	private Renderer(Processor processor, Object data, Appendable appendable) {
+	private Renderer(Processor processor, SectionStack sectionStack, Appendable appendable, RenderOptions options) {
 		this.processor = processor;
-		sectionStack = new SectionStack(data);
+		this.sectionStack = sectionStack;
 		this.appendable = appendable;
+		this.options = options;
+		this.sectionCache = options.getSectionCache();
 	}
 
+	/**
+	 * Creates a {@code Renderer} driven step by step by a {@link RenderStream}.
+	 */
+	static Renderer newInstance(Processor processor, Object data, Appendable appendable, RenderOptions options) {
+		Limiter limiter = Limiter.newInstance(options);
+		if (limiter != null) {
+			appendable = limiter.wrap(appendable);
+		}
+		Renderer renderer = new Renderer(processor, new SectionStack(data), appendable, options);
+		renderer.limiter = limiter;
+		renderer.trace = startTrace(options);
+		processor.setMaxPartialDepth( options.getMaxPartialDepth() );
+		processor.reset();
+		return renderer;
+	}
+	
+	private static Trace startTrace(RenderOptions options) {
+		RenderTracer tracer = options.getTracer();
+		return tracer == null ? null : tracer.startTrace( options.getTemplateName() );
+	}
+	
 	private void render() throws IOException {
 		processor.reset();
-		
-		while ( processor.hasNext() ) {
-			Instruction instruction = processor.next();
-			
-			if ( AppendText.class.isInstance(instruction) ) {
-				appendText((AppendText) instruction);
-			} else if ( AppendVariable.class.isInstance(instruction) ) {
-				appendVariable((AppendVariable) instruction);
-			} else if ( OpenSection.class.isInstance(instruction) ) {
-				openSection((OpenSection) instruction);
-			} else if ( CloseSection.class.isInstance(instruction) ) {
-				closeSection((CloseSection) instruction);
+		renderAll();
+	}
+	
+	private void renderAll() throws IOException {
+		if (stitcher == null) {
+			while ( renderNext() ) {
+				// renders all instructions
 			}
-			
-			saveIndentation(instruction);
+			return;
+		}
+		try {
+			while ( renderNext() ) {
+				// renders all instructions
+			}
+			stitcher.stitch();
+		}
+		finally {
+			stitcher.cancel();
+		}
+	}
+	
+	/**
+	 * Renders the next instruction.
+	 * @return {@code false} if there was no instruction left to render
+	 */
+	boolean renderNext() throws IOException {
+		if ( !processor.hasNext() ) {
+			return false;
+		}
+		if (limiter != null) {
+			limiter.countInstruction();
+		}
+		instructions++;
+		
+		Instruction instruction = processor.next();
+		if (trace == null) {
+			renderInstruction(instruction);
+		} else {
+			traceInstruction(instruction);
+		}
+		
+		saveIndentation(instruction);
+		return true;
+	}
+	
+	private void traceInstruction(Instruction instruction) throws IOException {
+		String partial = processor.getPartialName();
+		int iteration = sectionStack.getIteration();
+		long start = System.nanoTime();
+		renderInstruction(instruction);
+		trace.record(instruction, partial, iteration, start, System.nanoTime());
+	}
+	
+	private void renderInstruction(Instruction instruction) throws IOException {
+		if ( AppendText.class.isInstance(instruction) ) {
+			appendText((AppendText) instruction);
+		} else if ( AppendVariable.class.isInstance(instruction) ) {
+			appendVariable((AppendVariable) instruction);
+		} else if ( OpenSection.class.isInstance(instruction) ) {
+			openSection((OpenSection) instruction);
+		} else if ( CloseSection.class.isInstance(instruction) ) {
+			closeSection((CloseSection) instruction);
+		} else if ( Flush.class.isInstance(instruction) ) {
+			flush();
 		}
 	}
 
 	private void saveIndentation(Instruction instruction) {
 		if ( AppendText.class.isInstance(instruction) ) {
 			AppendText appendText = (AppendText) instruction;
-			previousIndentation = appendText.isEndOfLine() ? appendText.getIndentation() : "";
+			previousIndentation = appendText.isEndOfLine() && appendText.isIndented() ? appendText.getIndentation() : "";
 		} else {
 			previousIndentation = "";
 		}
@@ -73,22 +223,696 @@ public final class Renderer {
 	}
 
 	private void appendVariable(AppendVariable instruction) throws IOException {
-		String value = sectionStack.getValue( instruction.getName() );
+		Object variable = sectionStack.getVariable( instruction.getQuery() );
+		if (variable instanceof Lambda) {
+			variable = applyLambda((Lambda) variable, null);
+		}
+		appendable.append(previousIndentation);
+		if (variable == null) {
+			return;
+		}
+		
+		Appendable output = appendable;
 		if ( !instruction.isUnescaped() ) {
-			value = StringEscapeUtils.escapeHtml(value);
+			escaper.appendable = appendable;
+			output = escaper;
+		}
+		
+		FormatterRegistry formatters = options.getFormatterRegistry();
+		Formatter<Object> formatter = formatters == null ? null : formatters.getFormatter( variable.getClass() );
+		
+		if (formatter != null) {
+			formatter.format(variable, output);
+		}
+		else if (variable instanceof Number && options.getNumberFormat() != null) {
+			output.append( formatNumber((Number) variable) );
+		}
+		else if ( !getNumberWriter().append(variable, appendable) ) {
+			output.append( variable.toString() );
 		}
-		appendable.append(previousIndentation).append(value);
+	}
+	
+	private NumberWriter getNumberWriter() {
+		if (numberWriter == null) {
+			numberWriter = new NumberWriter();
+		}
+		return numberWriter;
+	}
+	
+	private String formatNumber(Number number) {
+		if (numberFormat == null) {
+			numberFormat = (NumberFormat) options.getNumberFormat().clone();
+		}
+		return numberFormat.format(number);
 	}
 
-	private void openSection(OpenSection instruction) {
-		if ( sectionStack.openSection(instruction) ) {
+	private void openSection(OpenSection instruction) throws IOException {
+		if (stitcher != null && capture == null && sectionStack.getDepth() == 1 && !instruction.isInverted()
+				&& isParallelSection( sectionStack.getVariable(instruction.getQuery()) )) {
+			appendable = stitcher.fork(processor.forkSection(), sectionStack.copy());
+			return;
+		}
+		
+		if (sectionCache != null && instruction.isCached() && !startCapture(instruction)) {
+			return;
+		}
+		
+		Object value = sectionStack.getVariable( instruction.getQuery() );
+		boolean enterSection = false;
+		
+		if ( !instruction.isInverted() && isLongList(value) ) {
+			flush();
+		}
+		
+		if (value instanceof Lambda && !instruction.isInverted()) {
+			appendable.append( applyLambda((Lambda) value, instruction) );
+		}
+		else if ( isParallelList(instruction, value) ) {
+			if (limiter != null) {
+				limiter.checkSectionDepth( sectionStack.getDepth() );
+			}
+			renderList(instruction, value);
+		}
+		else {
+			enterSection = sectionStack.openSection(instruction, value);
+		}
+		
+		if (enterSection) {
+			if (limiter != null) {
+				limiter.checkSectionDepth(sectionStack.getDepth() - 1);
+			}
 			processor.enterSection();
 		}
+		else if (capture != null && capture.section == instruction) {
+			endCapture();
+		}
+	}
+	
+	/**
+	 * Appends the output of a cached section if available, or starts capturing it.
+	 * @return {@code true} if the section needs to be rendered
+	 */
+	private boolean startCapture(OpenSection instruction) throws IOException {
+		Query[] dependencies = instruction.getDependencies();
+		Object[] values = new Object[dependencies.length];
+		for (int i = 0; i < dependencies.length; i++) {
+			values[i] = sectionStack.getVariable(dependencies[i]);
+		}
+		
+		Object key = sectionCache.newKey(instruction, processor.getIndentation(), values);
+		String output = sectionCache.get(key);
+		
+		if (output != null) {
+			appendable.append(output);
+			return false;
+		}
+		
+		capture = new Capture(instruction, key, sectionStack.getDepth(), appendable, capture);
+		appendable = capture.buffer;
+		return true;
+	}
+	
+	private void endCapture() throws IOException {
+		String output = capture.buffer.toString();
+		sectionCache.put(capture.key, output);
+		appendable = capture.appendable;
+		capture = capture.previous;
+		appendable.append(output);
+	}
+	
+	/**
+	 * Applies a lambda to the raw text of a section, or to an empty text for a variable.
+	 * @param section the section being opened, {@code null} for a variable
+	 */
+	private CharSequence applyLambda(Lambda lambda, OpenSection section) throws IOException {
+		if (fragment == null) {
+			fragment = new LambdaFragment();
+		}
+		OpenSection previousSection = fragment.section;
+		fragment.section = section;
+		try {
+			return lambda.apply(section == null ? "" : section.getText(), fragment);
+		}
+		finally {
+			fragment.section = previousSection;
+		}
 	}
 
-	private void closeSection(CloseSection instruction) {
+	private void closeSection(CloseSection instruction) throws IOException {
 		if ( sectionStack.closeSection(instruction) ) {
 			processor.exitSection();
+			if (capture != null && capture.depth == sectionStack.getDepth()) {
+				endCapture();
+			}
+		}
+	}
+	
+	/**
+	 * Only lists are worth the cost of a fork, conditional sections are
+	 * rendered by the calling thread.
+	 */
+	private static boolean isParallelSection(Object value) {
+		if (value instanceof Collection) {
+			return !((Collection<?>) value).isEmpty();
+		}
+		return value instanceof Object[] && ((Object[]) value).length > 0;
+	}
+	
+	private boolean isParallelList(OpenSection instruction, Object value) {
+		int threshold = options.getParallelListThreshold();
+		if (forked || threshold == 0 || instruction.isInverted() || options.getParallelism() < 2
+				|| options.getExecutor() == null || !options.isThreadSafeData()) {
+			return false;
+		}
+		if (value instanceof List && value instanceof RandomAccess) {
+			return ((List<?>) value).size() >= threshold;
+		}
+		return value instanceof Object[] && ((Object[]) value).length >= threshold;
+	}
+	
+	/**
+	 * Renders a list in chunks, all of them by the executor except the first one.
+	 */
+	private void renderList(OpenSection instruction, Object value) throws IOException {
+		List<?> items = value instanceof List ? (List<?>) value : Arrays.asList((Object[]) value);
+		int size = items.size();
+		int chunkCount = Math.min(options.getParallelism(), size);
+		
+		List<Future<String>> chunks = new ArrayList<Future<String>>(chunkCount - 1);
+		try {
+			for (int i = 1; i < chunkCount; i++) {
+				int from = (int) ((long) size * i / chunkCount);
+				int to = (int) ((long) size * (i + 1) / chunkCount);
+				final StringBuilder builder = new StringBuilder();
+				final Renderer renderer = forkList(instruction, items.subList(from, to), builder);
+				if (renderer.limiter != null) {
+					renderer.appendable = renderer.limiter.wrap(builder);
+				}
+				FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+					public String call() throws IOException {
+						renderer.renderAll();
+						return builder.toString();
+					}
+				});
+				chunks.add(task);
+				options.getExecutor().execute(task);
+			}
+			
+			forkList(instruction, items.subList(0, size / chunkCount), appendable).renderAll();
+			for (Future<String> chunk : chunks) {
+				String output = getOutput(chunk);
+				if (limiter != null) {
+					limiter.release( output.length() );
+				}
+				appendable.append(output);
+			}
+		}
+		finally {
+			for (Future<String> chunk : chunks) {
+				chunk.cancel(true);
+			}
+		}
+	}
+	
+	/**
+	 * Creates a {@code Renderer} for some items of a list, inside the section.
+	 */
+	private Renderer forkList(OpenSection instruction, List<?> items, Appendable output) {
+		Processor listProcessor = processor.forkSection();
+		listProcessor.next();
+		listProcessor.enterSection();
+		Renderer renderer = new Renderer(listProcessor, sectionStack.forkSection(instruction, items), output, options);
+		renderer.forked = true;
+		renderer.limiter = limiter == null ? null : limiter.fork();
+		renderer.trace = trace;
+		return renderer;
+	}
+	
+	private static String getOutput(Future<String> future) throws IOException {
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			IOException exception = new IOException("Interrupted while rendering in parallel");
+			exception.initCause(e);
+			throw exception;
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			IOException exception = new IOException( cause.getMessage() );
+			exception.initCause(cause);
+			throw exception;
+		}
+	}
+	
+	private boolean isLongList(Object value) {
+		int threshold = options.getListFlushThreshold();
+		if (threshold == 0) {
+			return false;
+		}
+		if (value instanceof Collection) {
+			return ((Collection<?>) value).size() >= threshold;
+		}
+		return value instanceof Object[] && ((Object[]) value).length >= threshold;
+	}
+	
+	/**
+	 * Flushes the output, unless it is captured for the section cache.
+	 */
+	private void flush() throws IOException {
+		if (capture == null && appendable instanceof Flushable) {
+			((Flushable) appendable).flush();
+		}
+	}
+	
+	/**
+	 * Escapes HTML like {@link StringEscapeUtils#escapeHtml(String)}, and
+	 * appends the text as is when there is nothing to escape.
+	 */
+	private static final class HtmlEscaper implements Appendable {
+		private Appendable appendable;
+		
+		public Appendable append(CharSequence csq) throws IOException {
+			return append(csq == null ? "null" : csq, 0, csq == null ? 4 : csq.length());
+		}
+		
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			if (csq == null) {
+				return append("null", start, end);
+			}
+			for (int i = start; i < end; i++) {
+				if ( needsEscaping(csq.charAt(i)) ) {
+					appendable.append( StringEscapeUtils.escapeHtml(csq.subSequence(start, end).toString()) );
+					return this;
+				}
+			}
+			appendable.append(csq, start, end);
+			return this;
+		}
+		
+		public Appendable append(char c) throws IOException {
+			if ( needsEscaping(c) ) {
+				appendable.append( StringEscapeUtils.escapeHtml(String.valueOf(c)) );
+			} else {
+				appendable.append(c);
+			}
+			return this;
+		}
+		
+		private static boolean needsEscaping(char c) {
+			return c == '&' || c == '<' || c == '>' || c == '"' || c > 0x7F;
+		}
+	}
+	
+	/**
+	 * Flushes an output once enough characters were appended since the last flush.
+	 */
+	private static final class ThresholdFlusher implements Appendable, Flushable {
+		private final Appendable appendable;
+		private final int threshold;
+		private int count = 0;
+		
+		private ThresholdFlusher(Appendable appendable, int threshold) {
+			this.appendable = appendable;
+			this.threshold = threshold;
+		}
+		
+		public Appendable append(CharSequence csq) throws IOException {
+			appendable.append(csq);
+			return appended(csq == null ? 4 : csq.length());
+		}
+		
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			appendable.append(csq, start, end);
+			return appended(end - start);
+		}
+		
+		public Appendable append(char c) throws IOException {
+			appendable.append(c);
+			return appended(1);
+		}
+		
+		private Appendable appended(int length) throws IOException {
+			count += length;
+			if (count >= threshold) {
+				flush();
+			}
+			return this;
+		}
+		
+		public void flush() throws IOException {
+			count = 0;
+			((Flushable) appendable).flush();
+		}
+	}
+	
+	/**
+	 * Counts the characters written to an output.
+	 */
+	private static final class Counter implements Appendable, Flushable {
+		private final Appendable appendable;
+		private long length = 0;
+		
+		private Counter(Appendable appendable) {
+			this.appendable = appendable;
+		}
+		
+		public Appendable append(CharSequence csq) throws IOException {
+			appendable.append(csq);
+			length += csq == null ? 4 : csq.length();
+			return this;
+		}
+		
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			appendable.append(csq, start, end);
+			length += end - start;
+			return this;
+		}
+		
+		public Appendable append(char c) throws IOException {
+			appendable.append(c);
+			length++;
+			return this;
+		}
+		
+		public void flush() throws IOException {
+			if (appendable instanceof Flushable) {
+				((Flushable) appendable).flush();
+			}
+		}
+	}
+	
+	/**
+	 * Renders top-level sections in parallel, and writes their output in order
+	 * along with the output of the rest of the template.
+	 */
+	private static final class Stitcher {
+		private final Appendable appendable;
+		private final RenderOptions options;
+		private final Limiter limiter;
+		private final Trace trace;
+		private final List<Future<String>> sections = new ArrayList<Future<String>>();
+		private final List<StringBuilder> buffers = new ArrayList<StringBuilder>();
+		
+		private Stitcher(Appendable appendable, RenderOptions options, Limiter limiter, Trace trace) {
+			this.appendable = appendable;
+			this.options = options;
+			this.limiter = limiter;
+			this.trace = trace;
+		}
+		
+		/**
+		 * Renders a section in parallel.
+		 * @return the buffer of the output following the section
+		 */
+		private Appendable fork(final Processor sectionProcessor, final SectionStack sectionStack) {
+			final Limiter sectionLimiter = limiter == null ? null : limiter.fork();
+			FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+				public String call() throws IOException {
+					StringBuilder builder = new StringBuilder();
+					Appendable output = sectionLimiter == null ? builder : sectionLimiter.wrap(builder);
+					Renderer renderer = new Renderer(sectionProcessor, sectionStack, output, options);
+					renderer.forked = true;
+					renderer.limiter = sectionLimiter;
+					renderer.trace = trace;
+					renderer.render();
+					return builder.toString();
+				}
+			});
+			sections.add(task);
+			options.getExecutor().execute(task);
+			
+			StringBuilder builder = new StringBuilder();
+			buffers.add(builder);
+			return limiter == null ? builder : limiter.fork().wrap(builder);
+		}
+		
+		private void stitch() throws IOException {
+			// the output preceding the first section is already written
+			for (int i = 0; i < sections.size(); i++) {
+				String output = getOutput( sections.get(i) );
+				StringBuilder buffer = buffers.get(i);
+				if (limiter != null) {
+					limiter.release(output.length() + buffer.length());
+				}
+				appendable.append(output);
+				appendable.append(buffer);
+			}
+		}
+		
+		private void cancel() {
+			for (Future<String> section : sections) {
+				section.cancel(true);
+			}
+		}
+	}
+	
+	/**
+	 * Stops a rendering once it reaches the limits of its options, and counts
+	 * the characters of its output when their number is limited. The output
+	 * buffered by parallel renderings is counted as soon as it is rendered,
+	 * and released when it is written to the output of the rendering.
+	 */
+	private static final class Limiter implements Appendable, Flushable {
+		// the clock, the interruption and the cancellation are checked every 256 instructions
+		private static final int CHECK_MASK = 0xFF;
+		
+		private final RenderOptions options;
+		private final boolean timed;
+		private final long deadline;
+		// shared with the forked limiters
+		private final AtomicLong outputLength;
+		private Appendable appendable;
+		private long instructions = 0;
+		
+		private Limiter(RenderOptions options, boolean timed, long deadline, AtomicLong outputLength) {
+			this.options = options;
+			this.timed = timed;
+			this.deadline = deadline;
+			this.outputLength = outputLength;
+		}
+		
+		/**
+		 * @return a newly created {@code Limiter}, or {@code null} if the rendering has no limits
+		 */
+		private static Limiter newInstance(RenderOptions options) {
+			if ( !options.isLimited() ) {
+				return null;
+			}
+			long timeout = options.getTimeout(TimeUnit.NANOSECONDS);
+			return new Limiter(options, timeout > 0, System.nanoTime() + timeout, new AtomicLong());
+		}
+		
+		/**
+		 * Creates a {@code Limiter} with the same deadline and output length,
+		 * for a part of the rendering done by another thread or buffered.
+		 */
+		private Limiter fork() {
+			return new Limiter(options, timed, deadline, outputLength);
+		}
+		
+		private Appendable wrap(Appendable output) {
+			if (options.getMaxOutputLength() == 0) {
+				return output;
+			}
+			appendable = output;
+			return this;
+		}
+		
+		private void countInstruction() throws RenderLimitException {
+			instructions++;
+			long maxInstructions = options.getMaxInstructions();
+			if (maxInstructions > 0 && instructions > maxInstructions) {
+				throw new RenderLimitException(Limit.INSTRUCTIONS, "More than " + maxInstructions + " instructions");
+			}
+			// also checks the first instruction
+			if ((instructions & CHECK_MASK) == 1) {
+				check();
+			}
+		}
+		
+		private void check() throws RenderLimitException {
+			if (timed && System.nanoTime() - deadline > 0) {
+				long timeout = options.getTimeout(TimeUnit.MILLISECONDS);
+				throw new RenderLimitException(Limit.TIMEOUT, "Rendering longer than " + timeout + "ms");
+			}
+			if ( Thread.currentThread().isInterrupted() ) {
+				throw new RenderLimitException(Limit.INTERRUPTED, "Rendering interrupted");
+			}
+			CancellationToken cancellationToken = options.getCancellationToken();
+			if (cancellationToken != null && cancellationToken.isCancelled()) {
+				throw new RenderLimitException(Limit.CANCELLED, "Rendering cancelled");
+			}
+		}
+		
+		private void checkSectionDepth(int depth) throws RenderLimitException {
+			int maxSectionDepth = options.getMaxSectionDepth();
+			if (maxSectionDepth > 0 && depth > maxSectionDepth) {
+				throw new RenderLimitException(Limit.SECTION_DEPTH, "More than " + maxSectionDepth + " nested sections");
+			}
+		}
+		
+		public Appendable append(CharSequence csq) throws IOException {
+			appending(csq == null ? 4 : csq.length());
+			appendable.append(csq);
+			return this;
+		}
+		
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			appending(end - start);
+			appendable.append(csq, start, end);
+			return this;
+		}
+		
+		public Appendable append(char c) throws IOException {
+			appending(1);
+			appendable.append(c);
+			return this;
+		}
+		
+		private void appending(int length) throws RenderLimitException {
+			long maxOutputLength = options.getMaxOutputLength();
+			if (outputLength.addAndGet(length) > maxOutputLength) {
+				throw new RenderLimitException(Limit.OUTPUT_LENGTH, "More than " + maxOutputLength + " characters");
+			}
+		}
+		
+		/**
+		 * Stops counting buffered characters, before they are written to the
+		 * output through the limiter of the rendering.
+		 */
+		private void release(int length) {
+			if (options.getMaxOutputLength() > 0) {
+				outputLength.addAndGet(-length);
+			}
+		}
+		
+		public void flush() throws IOException {
+			if (appendable instanceof Flushable) {
+				((Flushable) appendable).flush();
+			}
+		}
+	}
+	
+	/**
+	 * The output of a cached section being rendered.
+	 */
+	private static final class Capture {
+		private final OpenSection section;
+		private final Object key;
+		private final int depth;
+		private final Appendable appendable;
+		private final Capture previous;
+		private final StringBuilder buffer = new StringBuilder();
+		
+		private Capture(OpenSection section, Object key, int depth, Appendable appendable, Capture previous) {
+			this.section = section;
+			this.key = key;
+			this.depth = depth;
+			this.appendable = appendable;
+			this.previous = previous;
+		}
+	}
+	
+	/**
+	 * Renders lambda fragments with the section stack of the current rendering.
+	 * The raw text of the section is rendered with its compiled instructions,
+	 * and other templates are parsed once per rendering with the delimiters of
+	 * the section and the partials of the template.
+	 */
+	private final class LambdaFragment implements Fragment {
+		private static final int MAX_PARSED_FRAGMENTS = 64;
+		
+		private OpenSection section;
+		private Map<FragmentKey, Processor> parsedFragments;
+		
+		public String render(String template) throws IOException {
+			if (template.length() == 0) {
+				return template;
+			}
+			Processor fragmentProcessor;
+			if (section != null && template.equals( section.getText() )) {
+				fragmentProcessor = processor.forkSectionContent();
+			} else {
+				fragmentProcessor = parse(template).copy();
+				fragmentProcessor.setMaxPartialDepth(options.getMaxPartialDepth() - processor.getPartialDepth());
+			}
+			StringBuilder builder = new StringBuilder();
+			Renderer renderer = new Renderer(fragmentProcessor, sectionStack, builder, options);
+			renderer.limiter = limiter;
+			renderer.trace = trace;
+			renderer.render();
+			return builder.toString();
+		}
+		
+		private Processor parse(String template) throws IOException {
+			if (parsedFragments == null) {
+				parsedFragments = new LinkedHashMap<FragmentKey, Processor>(16, .75F, true) {
+					private static final long serialVersionUID = -4470291626012519414L;
+					
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<FragmentKey, Processor> eldest) {
+						return size() > MAX_PARSED_FRAGMENTS;
+					}
+				};
+			}
+			FragmentKey key = new FragmentKey(template, section);
+			Processor fragmentProcessor = parsedFragments.get(key);
+			if (fragmentProcessor == null) {
+				try {
+					fragmentProcessor = Parser.parseFragment(template, section, processor.getPartials());
+				} catch (ParseException e) {
+					throw new IllegalArgumentException("Invalid fragment : " + template, e);
+				}
+				parsedFragments.put(key, fragmentProcessor);
+			}
+			return fragmentProcessor;
+		}
+	}
+	
+	/**
+	 * A fragment template, along with the delimiters it is parsed with.
+	 */
+	private static final class FragmentKey {
+		private final String template;
+		private final String startDelimiter;
+		private final String stopDelimiter;
+		
+		private FragmentKey(String template, OpenSection section) {
+			this.template = template;
+			this.startDelimiter = section == null ? null : section.getStartDelimiter();
+			this.stopDelimiter = section == null ? null : section.getStopDelimiter();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if ( !(obj instanceof FragmentKey) ) {
+				return false;
+			}
+			FragmentKey key = (FragmentKey) obj;
+			return template.equals(key.template) && equals(startDelimiter, key.startDelimiter)
+					&& equals(stopDelimiter, key.stopDelimiter);
+		}
+		
+		private static boolean equals(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+		
+		@Override
+		public int hashCode() {
+			int hash = template.hashCode();
+			hash = 31 * hash + (startDelimiter == null ? 0 : startDelimiter.hashCode());
+			return 31 * hash + (stopDelimiter == null ? 0 : stopDelimiter.hashCode());
 		}
 	}
 }
\ No newline at end of file
@@ -5,6 +5,8 @@ import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.text.MessageFormat;
 
+import mustache.util.SymbolTable;
+
 import org.apache.commons.lang.StringEscapeUtils;
 
 /**
@@ -21,11 +23,28 @@ public final class AppendText extends Instruction {
 	
 	private transient String indentation = null;
 
+	/**
+	 * Creates an {@code AppendText}, sharing its text with other instructions
+	 * through the {@link SymbolTable}.
+	 * @param text the text to append
+	 */
 	public AppendText(String text) {
-		if (text == null) {
-			throw new NullPointerException();
-		}
+		this(SymbolTable.intern(text), null);
+	}
+	
+	/**
+	 * Creates an {@code AppendText} without looking its text up in the
+	 * {@link SymbolTable}, for the instructions created while processing
+	 * rather than parsing a template.
+	 * @param text the text to append, already shared if needed
+	 */
+	static AppendText fromSymbol(String text) {
+		return new AppendText(text, null);
+	}
+	
+	private AppendText(String text, String indentation) {
 		this.text = text;
+		this.indentation = indentation;
 	}
 	
 	/**
@@ -54,9 +73,8 @@ public final class AppendText extends Instruction {
 		if ( indentation == null || !isIndentation(indentation) ) {
 			throw new IllegalArgumentException("Invalid indentation : " + indentation);
 		}
-		AppendText instruction = new AppendText(text);
-		instruction.indentation = indentation;
-		return instruction;
+		// the text is already a symbol
+		return new AppendText(text, indentation);
 	}
 	
 	/**
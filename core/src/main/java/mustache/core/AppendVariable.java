@@ -6,6 +6,7 @@ import java.io.Serializable;
 import java.text.MessageFormat;
 
 import mustache.util.Context;
+import mustache.util.Query;
 
 /**
  * This class represents a {@link Mustache} instruction. An {@link AppendVariable}
@@ -19,12 +20,14 @@ public final class AppendVariable extends Instruction {
 	
 	private final String name;
 	private final boolean unescaped;
+	private final transient Query query;
 	
 	private transient String indentation = null;
 	
 	private AppendVariable(String name, boolean unescaped) {
 		this.name = name;
 		this.unescaped = unescaped;
+		this.query = Query.compile(name);
 	}
 	
 	public static AppendVariable newInstance(String name, boolean unescaped) {
@@ -41,6 +44,13 @@ public final class AppendVariable extends Instruction {
 		return name;
 	}
 	
+	/**
+	 * @return the compiled name of the variable
+	 */
+	public Query getQuery() {
+		return query;
+	}
+	
 	/**
 	 * Indicates whether the variable is regular or unescaped
 	 * @return {@code true} if the variable is unescaped
@@ -0,0 +1,21 @@
+package mustache.core;
+
+/**
+ * This class represents a {@link Mustache} instruction. A {@link Flush}
+ * pushes the output rendered so far to its destination, as declared in
+ * templates with a <code>{{%FLUSH}}</code> pragma. Instances of this class are
+ * immutable and can be shared safely among multiple threads.
+ * 
+ * @author Dri
+ */
+public final class Flush extends Instruction {
+	private static final long serialVersionUID = 3512496391187725493L;
+	
+	/**
+	 * @return the {@code Instruction} as a {@link String}
+	 */
+	@Override
+	public String toString() {
+		return getClass().getSimpleName();
+	}
+}
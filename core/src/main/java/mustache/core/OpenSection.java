@@ -6,6 +6,7 @@ import java.io.Serializable;
 import java.text.MessageFormat;
 
 import mustache.util.Context;
+import mustache.util.Query;
 
 
 public class OpenSection extends Instruction {
@@ -13,14 +14,43 @@ public class OpenSection extends Instruction {
 	
 	private final String name;
 	private final boolean inverted;
+	private final transient Query query;
 	
 	private transient int closeIndex = -1;
+	// the raw text is kept as a range of the source shared with nested sections
+	private transient CharSequence source = "";
+	private transient int textStart = 0;
+	private transient int textEnd = 0;
+	private transient String text = "";
+	private transient String startDelimiter = null;
+	private transient String stopDelimiter = null;
+	private transient boolean cached = false;
+	private transient Query[] dependencies = null;
 	
 	public OpenSection(String name, boolean inverted) {
+		this(name, Query.compile(name), inverted);
+	}
+	
+	private OpenSection(String name, Query query, boolean inverted) {
 		this.name = name;
+		this.query = query;
 		this.inverted = inverted;
 	}
 	
+	private OpenSection copy() {
+		OpenSection instruction = new OpenSection(name, query, inverted);
+		instruction.closeIndex = closeIndex;
+		instruction.source = source;
+		instruction.textStart = textStart;
+		instruction.textEnd = textEnd;
+		instruction.text = text;
+		instruction.startDelimiter = startDelimiter;
+		instruction.stopDelimiter = stopDelimiter;
+		instruction.cached = cached;
+		instruction.dependencies = dependencies;
+		return instruction;
+	}
+	
 	public static OpenSection newInstance(String name, boolean inverted) {
 		if ( !Context.isValidQuery(name) ) {
 			throw new IllegalArgumentException("Invalid section name : " + name);
@@ -32,6 +62,10 @@ public class OpenSection extends Instruction {
 		return name;
 	}
 	
+	public Query getQuery() {
+		return query;
+	}
+	
 	public boolean isInverted() {
 		return inverted;
 	}
@@ -47,11 +81,121 @@ public class OpenSection extends Instruction {
 		if (index < 0) {
 			throw new IllegalArgumentException("Negative index : " + index);
 		}
-		OpenSection instruction = new OpenSection(name, inverted);
+		OpenSection instruction = copy();
 		instruction.closeIndex = index;
 		return instruction;
 	}
 	
+	/**
+	 * Returns the raw text of the section, as written in the template. It is
+	 * extracted from the source of the template the first time it is needed,
+	 * that is for the sections whose value is a lambda.
+	 * @return the raw text of the section
+	 */
+	public String getText() {
+		String text = this.text;
+		if (text == null) {
+			text = source.subSequence(textStart, textEnd).toString();
+			// a benign race, strings being immutable
+			this.text = text;
+		}
+		return text;
+	}
+	
+	public OpenSection setText(String text) {
+		return setText(text, 0, text.length());
+	}
+	
+	/**
+	 * Sets the raw text of the section as a range of the template source,
+	 * which the sections of a template share rather than each keeping a copy.
+	 * @param source the source of the template, which must not change afterwards
+	 * @param start the start of the text in {@code source}
+	 * @param end the end of the text in {@code source}
+	 * @return a copy of this {@code OpenSection} with the text
+	 * @throws NullPointerException if {@code source} is {@code null}
+	 * @throws IndexOutOfBoundsException if the range is not within {@code source}
+	 */
+	public OpenSection setText(CharSequence source, int start, int end) {
+		if (source == null) {
+			throw new NullPointerException();
+		}
+		if (start < 0 || start > end || end > source.length()) {
+			throw new IndexOutOfBoundsException("Invalid range : " + start + ", " + end);
+		}
+		OpenSection instruction = copy();
+		instruction.source = source;
+		instruction.textStart = start;
+		instruction.textEnd = end;
+		instruction.text = null;
+		return instruction;
+	}
+	
+	/**
+	 * @return the start delimiter of the tags when the section was opened,
+	 * {@code null} for the default one
+	 */
+	public String getStartDelimiter() {
+		return startDelimiter;
+	}
+	
+	/**
+	 * @return the stop delimiter of the tags when the section was opened,
+	 * {@code null} for the default one
+	 */
+	public String getStopDelimiter() {
+		return stopDelimiter;
+	}
+	
+	/**
+	 * Sets the delimiters of the tags when the section was opened, with which
+	 * the text returned by a lambda is parsed.
+	 * @param start the start delimiter, {@code null} for the default one
+	 * @param stop the stop delimiter, {@code null} for the default one
+	 * @return a copy of this {@code OpenSection} with the delimiters
+	 */
+	public OpenSection setDelimiters(String start, String stop) {
+		OpenSection instruction = copy();
+		instruction.startDelimiter = start;
+		instruction.stopDelimiter = stop;
+		return instruction;
+	}
+	
+	/**
+	 * Indicates whether the output of the section is meant to be cached, which
+	 * templates declare with a <code>{{%CACHE}}</code> pragma before the section.
+	 * @return {@code true} if the section is cached
+	 * @see #getDependencies()
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+	
+	public OpenSection setCached(boolean cached) {
+		OpenSection instruction = copy();
+		instruction.cached = cached;
+		return instruction;
+	}
+	
+	/**
+	 * Returns the queries of a cached section, as resolved when opening it. The
+	 * section's output only depends on their values.
+	 * @return a copy of the queries of a cached section
+	 * @throws IllegalStateException if the section is not cached or not closed
+	 */
+	public Query[] getDependencies() {
+		if (dependencies == null) {
+			throw new IllegalStateException("No dependencies for section : " + name);
+		}
+		return dependencies.clone();
+	}
+	
+	OpenSection setDependencies(Query[] dependencies) {
+		OpenSection instruction = copy();
+		instruction.dependencies = dependencies;
+		return instruction;
+	}
+	
 	/**
 	 * @return the {@code Instruction} as a {@link String}
 	 */
@@ -74,14 +218,23 @@ public class OpenSection extends Instruction {
 		
 		private final String name;
 		private final boolean inverted;
+		private final String text;
+		private final boolean cached;
+		private final String startDelimiter;
+		private final String stopDelimiter;
 		
 		SerializationProxy(OpenSection instruction) {
 			this.name = instruction.name;
 			this.inverted = instruction.inverted;
+			this.text = instruction.getText();
+			this.cached = instruction.cached;
+			this.startDelimiter = instruction.startDelimiter;
+			this.stopDelimiter = instruction.stopDelimiter;
 		}
 		
 		private Object readResolve() {
-			return OpenSection.newInstance(name, inverted);
+			return OpenSection.newInstance(name, inverted).setText(text).setCached(cached)
+					.setDelimiters(startDelimiter, stopDelimiter);
 		}
 	}
 }
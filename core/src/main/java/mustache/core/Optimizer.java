@@ -0,0 +1,89 @@
+package mustache.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code Optimizer} class rewrites the sequence of a {@link Sequencer}
+ * into an equivalent shorter sequence before it is handed to a
+ * {@link Processor}. It performs the following passes at once :
+ * <ul>
+ *  <li>adjacent {@link AppendText}s are merged into a single one</li>
+ *  <li>empty {@link AppendText}s are dropped</li>
+ *  <li>empty inverted sections are dropped since they never output anything</li>
+ * </ul>
+ * Empty normal sections are kept, their value may be a lambda. The indices of
+ * the remaining sections are then computed again.
+ * 
+ * @author Dri
+ * @see Sequencer
+ */
+public final class Optimizer {
+	
+	private Optimizer() {}
+	
+	/**
+	 * Optimizes the sequence of a {@link Sequencer}.
+	 * @param sequencer the {@link Sequencer} to optimize
+	 * @return a newly created {@link Sequencer} with the optimized sequence
+	 * @throws NullPointerException if {@code sequencer} is {@code null}
+	 * @throws IllegalArgumentException if {@code sequencer} is not processable
+	 * @throws SequenceException if the optimized sequence is not coherent
+	 * @see Sequencer#isProcessable()
+	 */
+	public static Sequencer optimize(Sequencer sequencer) throws SequenceException {
+		List<Instruction> sequence;
+		synchronized (sequencer) {
+			if ( !sequencer.isProcessable() ) {
+				throw new IllegalArgumentException("Sequence not processable");
+			}
+			sequence = sequencer.getSequence();
+		}
+		
+		List<Instruction> optimized = new ArrayList<Instruction>( sequence.size() );
+		StringBuilder text = new StringBuilder();
+		
+		for (Instruction instruction : sequence) {
+			if (instruction instanceof AppendText) {
+				text.append( ((AppendText) instruction).getText() );
+				continue;
+			}
+			
+			if ( isEmptyInvertedSection(instruction, optimized, text) ) {
+				optimized.remove(optimized.size() - 1);
+				// the text before the section may be merged with the text after
+				if ( !optimized.isEmpty() && optimized.get(optimized.size() - 1) instanceof AppendText ) {
+					AppendText previous = (AppendText) optimized.remove(optimized.size() - 1);
+					text.append( previous.getText() );
+				}
+				continue;
+			}
+			
+			appendText(optimized, text);
+			optimized.add(instruction);
+		}
+		appendText(optimized, text);
+		
+		if ( optimized.isEmpty() ) {
+			// a processable sequence has at least one instruction
+			optimized.add( new AppendText("") );
+		}
+		
+		return new Sequencer().addAll(optimized);
+	}
+	
+	private static boolean isEmptyInvertedSection(Instruction instruction, List<Instruction> optimized, CharSequence text) {
+		if ( !(instruction instanceof CloseSection) || text.length() > 0 || optimized.isEmpty() ) {
+			return false;
+		}
+		Instruction previous = optimized.get(optimized.size() - 1);
+		return previous instanceof OpenSection && ((OpenSection) previous).isInverted();
+	}
+	
+	private static void appendText(List<Instruction> optimized, StringBuilder text) {
+		if (text.length() > 0) {
+			optimized.add( new AppendText(text.toString()) );
+			text.setLength(0);
+		}
+	}
+}
@@ -4,7 +4,9 @@ import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.io.StreamCorruptedException;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -17,29 +19,54 @@ import java.util.Map;
  * serialized and reused at will but their {@link Instruction}s sequence can not
  * be modified.
  * 
- * <p>This class is not meant for concurrent manipulation by several threads.</p>
+ * <p>
+ * All the partials entered during processing, nested ones included, are
+ * looked up in a single immutable table shared by the {@code Processor}s of
+ * a template, and entering a partial only pushes a frame on a stack, whose
+ * depth is limited by {@link #setMaxPartialDepth(int)}.
+ * </p>
  * 
- * TODO add a partial counter to detect infinite recursive partial nesting
+ * <p>This class is not meant for concurrent manipulation by several threads.</p>
  * 
  * @author Dri
  */
 public final class Processor implements Serializable, Iterator<Instruction> {
 	private static final long serialVersionUID = 289040399110456725L;
+	
+	/**
+	 * The default maximum number of nested partials.
+	 */
+	public static final int DEFAULT_MAX_PARTIAL_DEPTH = 256;
+	
+	// the text appended when entering a partial without indentation
+	private static final AppendText EMPTY_TEXT = AppendText.fromSymbol("");
 
 	private final List<Instruction> sequence;
 	private final Map<String, Processor> partials;
 	
+	private final transient int minPosition;
 	private final transient int maxPosition;
-	private transient int currentPosition = -1;
-	private transient OpenSection tryOpeningSection;
-	private transient CloseSection tryClosingSection;
-	private transient Processor currentPartial;
-	private transient String indentation = "";
+	private final transient String indentation;
+	private transient int maxPartialDepth = DEFAULT_MAX_PARTIAL_DEPTH;
 	
-	private Processor(List<Instruction> sequence) {
+	// frames[0] processes the sequence, the others the partials entered
+	private transient Frame[] frames = new Frame[4];
+	private transient int depth = 0;
+	private transient Frame frame;
+	
+	private Processor(List<Instruction> sequence, Map<String, Processor> partials) {
+		this(sequence, partials, 0, sequence.size() - 1, "");
+	}
+	
+	private Processor(List<Instruction> sequence, Map<String, Processor> partials, int minPosition, int maxPosition,
+			String indentation) {
 		this.sequence = sequence;
-		this.maxPosition = sequence.size() - 1;
-		this.partials = new HashMap<String, Processor>();
+		this.partials = partials;
+		this.minPosition = minPosition;
+		this.maxPosition = maxPosition;
+		this.indentation = indentation;
+		this.frame = frames[0] = new Frame();
+		frame.init(sequence, null, minPosition, maxPosition, indentation);
 	}
 	
 	/**
@@ -64,20 +91,123 @@ public final class Processor implements Serializable, Iterator<Instruction> {
 				throw new IllegalArgumentException("Sequence not instruction");
 			}
 			// TODO match partials map against sequencer partials list
-			Processor processor = new Processor(sequencer.getSequence());
-			processor.partials.putAll(partials);
-			return processor;
+			return new Processor(sequencer.getSequence(), newPartialTable(partials));
+		}
+	}
+	
+	/**
+	 * Merges the partials with the partials they enter, which resolves the
+	 * partials still being parsed when a recursive partial was compiled.
+	 */
+	private static Map<String, Processor> newPartialTable(Map<String, Processor> partials) {
+		Map<String, Processor> table = new HashMap<String, Processor>();
+		Deque<Map<String, Processor>> pending = new ArrayDeque<Map<String, Processor>>();
+		pending.add(partials);
+		while ( !pending.isEmpty() ) {
+			for (Map.Entry<String, Processor> entry : pending.poll().entrySet()) {
+				Processor partial = entry.getValue();
+				if (partial != null && !table.containsKey( entry.getKey() )) {
+					table.put(entry.getKey(), partial);
+					pending.add(partial.partials);
+				}
+			}
+		}
+		return Collections.unmodifiableMap(table);
+	}
+	
+	/**
+	 * Creates a {@code Processor} sharing the sequence and partials of this one,
+	 * but with its own position in the sequence. Copies of a {@code Processor}
+	 * can be used concurrently by several threads, one copy per thread.
+	 * @return a newly created {@code Processor} in its initial state
+	 */
+	public Processor copy() {
+		Processor processor = new Processor(sequence, partials);
+		processor.maxPartialDepth = maxPartialDepth;
+		return processor;
+	}
+	
+	/**
+	 * Sets the maximum number of nested partials, above which entering a
+	 * partial raises a {@link RecursivePartialException}.
+	 * @param maxPartialDepth the maximum number of nested partials
+	 * @throws IllegalArgumentException if {@code maxPartialDepth} is negative
+	 */
+	public void setMaxPartialDepth(int maxPartialDepth) {
+		if (maxPartialDepth < 0) {
+			throw new IllegalArgumentException("Negative partial depth : " + maxPartialDepth);
 		}
+		this.maxPartialDepth = maxPartialDepth;
+	}
+	
+	/**
+	 * Creates a {@code Processor} for the section being opened, that is the
+	 * last {@link OpenSection} returned by {@link #next()}. The new
+	 * {@code Processor} shares the sequence and partials of this one, and
+	 * processes the section until it is closed for good, as if it were a
+	 * whole template. This {@code Processor} is not affected, and skips the
+	 * section unless notified to enter it.
+	 * @return a newly created {@code Processor} in its initial state
+	 * @throws IllegalStateException if no section is being opened
+	 */
+	public Processor forkSection() {
+		if (frame.tryOpeningSection == null) {
+			throw new IllegalStateException("No section being opened.");
+		}
+		Processor processor = new Processor(frame.sequence, partials, frame.currentPosition,
+				frame.tryOpeningSection.getCloseIndex(), frame.indentation);
+		processor.maxPartialDepth = maxPartialDepth - depth;
+		return processor;
+	}
+	
+	/**
+	 * Creates a {@code Processor} for the content of the section being
+	 * opened, like {@link #forkSection()} but without the section's
+	 * {@link OpenSection} and {@link CloseSection}. It renders the section
+	 * once in the current context, as needed when a lambda returns the raw
+	 * text of the section.
+	 * @return a newly created {@code Processor} in its initial state
+	 * @throws IllegalStateException if no section is being opened
+	 */
+	public Processor forkSectionContent() {
+		if (frame.tryOpeningSection == null) {
+			throw new IllegalStateException("No section being opened.");
+		}
+		Processor processor = new Processor(frame.sequence, partials, frame.currentPosition + 1,
+				frame.tryOpeningSection.getCloseIndex() - 1, frame.indentation);
+		processor.maxPartialDepth = maxPartialDepth - depth;
+		return processor;
+	}
+	
+	/**
+	 * @return the unmodifiable table of the partials of the template, nested ones included
+	 */
+	public Map<String, Processor> getPartials() {
+		return partials;
+	}
+	
+	/**
+	 * @return the whole sequence of this {@code Processor}
+	 */
+	List<Instruction> getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * @param name the name of a partial
+	 * @return the {@code Processor} of the partial or {@code null} if it is not loaded
+	 */
+	Processor getPartial(String name) {
+		return partials.get(name);
 	}
 	
 	/**
 	 * Resets the {@code Processor} to its initial state.
 	 */
 	public void reset() {
-		currentPosition = -1;
-		tryOpeningSection = null;
-		tryClosingSection = null;
-		currentPartial = null;
+		depth = 0;
+		frame = frames[0];
+		frame.init(sequence, null, minPosition, maxPosition, indentation);
 	}
 	
 	/**
@@ -86,14 +216,10 @@ public final class Processor implements Serializable, Iterator<Instruction> {
 	 * @see AppendText#opening()
 	 */
 	public void enterSection() {
-		if (currentPartial != null) {
-			currentPartial.enterSection();
-			return;
-		}
-		if (tryOpeningSection == null) {
+		if (frame.tryOpeningSection == null) {
 			throw new IllegalStateException("Unexpected attempt to enter a section.");
 		}
-		tryOpeningSection = null;
+		frame.tryOpeningSection = null;
 	}
 
 	/**
@@ -102,21 +228,44 @@ public final class Processor implements Serializable, Iterator<Instruction> {
 	 * @see AppendText#closing()
 	 */
 	public void exitSection() {
-		if (currentPartial != null) {
-			currentPartial.exitSection();
-			return;
-		}
-		if (tryClosingSection == null) {
+		if (frame.tryClosingSection == null) {
 			throw new IllegalStateException("Unexpected attempt to exit a section.");
 		}
-		tryClosingSection = null;
+		frame.tryClosingSection = null;
+	}
+	
+	/**
+	 * Returns the indentation of the partial currently processed.
+	 * @return the indentation, empty outside of partials
+	 */
+	public String getIndentation() {
+		return frame.indentation;
+	}
+	
+	/**
+	 * @return the number of nested partials currently processed
+	 */
+	public int getPartialDepth() {
+		return depth;
+	}
+	
+	/**
+	 * @return the name of the partial currently processed, {@code null} outside of partials
+	 */
+	public String getPartialName() {
+		return frame.name;
 	}
 	
 	/**
 	 * Indicates whether there is still {@code Instruction}s to process.
 	 */
 	public boolean hasNext() {
-		return currentPosition < maxPosition || (currentPartial != null && currentPartial.hasNext());
+		for (int i = depth; i >= 0; i--) {
+			if ( frames[i].hasNext() ) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -130,55 +279,47 @@ public final class Processor implements Serializable, Iterator<Instruction> {
 			throw new IllegalStateException();
 		}
 		
-		if (currentPartial != null && currentPartial.hasNext()) {
-			return currentPartial.next();
-		}
-		else {
-			currentPartial = null;
+		while ( !frame.hasNext() ) {
+			// the partial is over
+			frame = frames[--depth];
 		}
 		
-		if (tryOpeningSection != null) {
-			// skip section
-			currentPosition = tryOpeningSection.getCloseIndex();
-			tryOpeningSection = null;
-		}
-		else if (tryClosingSection != null) {
-			// re-enter section
-			currentPosition = tryClosingSection.getOpenIndex();
-			tryClosingSection = null;
+		Instruction instruction = frame.next();
+		if (instruction instanceof EnterPartial) {
+			EnterPartial enterPartial = (EnterPartial) instruction;
+			enterPartial(enterPartial);
+			String partialIndentation = enterPartial.getIndentation();
+			return partialIndentation.length() == 0 ? EMPTY_TEXT : AppendText.fromSymbol(partialIndentation);
 		}
-		
-		currentPosition++;
-		return nextInstruction();
+		return instruction;
 	}
 
-	private Instruction nextInstruction() {
-		Instruction instruction = sequence.get(currentPosition);
-		if (instruction instanceof EnterPartial) {
-			EnterPartial enterPartial = (EnterPartial) instruction;
-			initSafePartial(enterPartial);
-			return new AppendText( enterPartial.getIndentation() );
+	private void enterPartial(EnterPartial enterPartial) {
+		Processor partial = partials.get( enterPartial.getName() );
+		if (partial == null) {
+			// not loaded, hence empty
+			return;
 		}
-		if (instruction instanceof AppendText) {
-			return ((AppendText) instruction).indent(indentation);
+		if (depth == maxPartialDepth) {
+			throw new RecursivePartialException(enterPartial.getName(), maxPartialDepth);
 		}
-		if (instruction instanceof OpenSection) {
-			tryOpeningSection = (OpenSection) instruction;
+		
+		if (++depth == frames.length) {
+			Frame[] newFrames = new Frame[depth * 2];
+			System.arraycopy(frames, 0, newFrames, 0, depth);
+			frames = newFrames;
 		}
-		if (instruction instanceof CloseSection) {
-			tryClosingSection = (CloseSection) instruction;
+		if (frames[depth] == null) {
+			frames[depth] = new Frame();
 		}
-		return instruction;
-	}
-
-	private void initSafePartial(EnterPartial partial) {
-		Processor processor = partials.get( partial.getName() );
-		if (processor == null) {
-		    processor = this; // FIXME better management of recursive partials
+		String partialIndentation = enterPartial.getIndentation();
+		if (partialIndentation.length() > 0) {
+			partialIndentation = frame.indentation + partialIndentation;
+		} else {
+			partialIndentation = frame.indentation;
 		}
-		currentPartial = new Processor(processor.sequence);
-		currentPartial.partials.putAll(processor.partials);
-		currentPartial.indentation = indentation + partial.getIndentation();
+		frame = frames[depth];
+		frame.init(partial.sequence, enterPartial.getName(), 0, partial.sequence.size() - 1, partialIndentation);
 	}
 	
 	/**
@@ -189,6 +330,66 @@ public final class Processor implements Serializable, Iterator<Instruction> {
 		throw new UnsupportedOperationException();
 	}
 
+	/**
+	 * The position of the {@code Processor} in the sequence of the template,
+	 * or of an entered partial.
+	 */
+	private static final class Frame {
+		private List<Instruction> sequence;
+		private String name;
+		private int maxPosition;
+		private String indentation;
+		private int currentPosition;
+		private OpenSection tryOpeningSection;
+		private CloseSection tryClosingSection;
+		
+		private void init(List<Instruction> sequence, String name, int minPosition, int maxPosition,
+				String indentation) {
+			this.sequence = sequence;
+			this.name = name;
+			this.maxPosition = maxPosition;
+			this.indentation = indentation;
+			this.currentPosition = minPosition - 1;
+			this.tryOpeningSection = null;
+			this.tryClosingSection = null;
+		}
+		
+		private boolean hasNext() {
+			if (tryClosingSection != null) {
+				// about to re-enter the section
+				return true;
+			}
+			int position = tryOpeningSection == null ? currentPosition : tryOpeningSection.getCloseIndex();
+			return position < maxPosition;
+		}
+		
+		private Instruction next() {
+			if (tryOpeningSection != null) {
+				// skip section
+				currentPosition = tryOpeningSection.getCloseIndex();
+				tryOpeningSection = null;
+			}
+			else if (tryClosingSection != null) {
+				// re-enter section
+				currentPosition = tryClosingSection.getOpenIndex();
+				tryClosingSection = null;
+			}
+			
+			currentPosition++;
+			Instruction instruction = sequence.get(currentPosition);
+			if (instruction instanceof AppendText) {
+				return ((AppendText) instruction).indent(indentation);
+			}
+			if (instruction instanceof OpenSection) {
+				tryOpeningSection = (OpenSection) instruction;
+			}
+			if (instruction instanceof CloseSection) {
+				tryClosingSection = (CloseSection) instruction;
+			}
+			return instruction;
+		}
+	}
+
 	private Object writeReplace() {
 		return new SerializationProxy(this);
 	}
@@ -0,0 +1,34 @@
+package mustache.core;
+
+/**
+ * Thrown to indicate that a {@link Processor} entered more nested partials
+ * than allowed, which usually means that partials enter each other endlessly.
+ * @author Dri
+ * @see Processor#setMaxPartialDepth(int)
+ */
+public class RecursivePartialException extends RuntimeException {
+	private static final long serialVersionUID = -310942832890471151L;
+	
+	private final String partial;
+	private final int depth;
+	
+	RecursivePartialException(String partial, int depth) {
+		super("Partial " + partial + " nested deeper than " + depth + " partials");
+		this.partial = partial;
+		this.depth = depth;
+	}
+	
+	/**
+	 * @return the name of the partial that could not be entered
+	 */
+	public String getPartial() {
+		return partial;
+	}
+	
+	/**
+	 * @return the maximum number of nested partials
+	 */
+	public int getDepth() {
+		return depth;
+	}
+}
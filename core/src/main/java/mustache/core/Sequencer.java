@@ -5,9 +5,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import mustache.util.Query;
+
 
 /**
  * The {@code Sequencer} class manipulates a sequence of {@link Instruction}s
@@ -42,6 +46,9 @@ public final class Sequencer {
 		if (instruction instanceof OpenSection) {
 			pushSection((OpenSection) instruction);
 		}
+		if (instruction instanceof EnterPartial) {
+			partials.add( ((EnterPartial) instruction).getName() );
+		}
 		if (instruction instanceof CloseSection) {
 			sequence.add(popSection((CloseSection) instruction));
 		} else {
@@ -50,7 +57,32 @@ public final class Sequencer {
 		return this;
 	}
 	
-	// todo appendText, appendVariable, openSection, closeSection, enterPartial
+	/**
+	 * Adds a {@link CloseSection} in the sequence and keeps the raw text of the
+	 * section in the matching {@link OpenSection}, as a range of the source.
+	 * @param instruction the {@link CloseSection} to add
+	 * @param source the source of the template
+	 * @param start the start of the raw text of the section in {@code source}
+	 * @param end the end of the raw text of the section in {@code source}
+	 * @return this {@code Sequencer} object
+	 * @throws SequenceException for a misplaced {@link CloseSection}
+	 * @throws NullPointerException if {@code instruction} or {@code source} is {@code null}
+	 * @see OpenSection#setText(CharSequence, int, int)
+	 */
+	public Sequencer closeSection(CloseSection instruction, CharSequence source, int start, int end)
+			throws SequenceException {
+		if (instruction == null | source == null) {
+			throw new NullPointerException();
+		}
+		CloseSection closeSection = popSection(instruction);
+		int index = closeSection.getOpenIndex();
+		OpenSection openSection = (OpenSection) sequence.get(index);
+		sequence.set(index, openSection.setText(source, start, end));
+		sequence.add(closeSection);
+		return this;
+	}
+	
+	// todo appendText, appendVariable, openSection, enterPartial
 
 	private void pushSection(OpenSection instruction) {
 		String name = instruction.getName();
@@ -76,12 +108,43 @@ public final class Sequencer {
 		return instruction.setOpenIndex( sectionsIndices.pop() );
 	}
 	
-	private void replaceOpenSection() {
+	private void replaceOpenSection() throws SequenceException {
 		int index = sectionsIndices.peek();
 		OpenSection openSection = ((OpenSection) sequence.get(index));
 		openSection = openSection.setCloseIndex( sequence.size() );
+		if ( openSection.isCached() ) {
+			openSection = openSection.setDependencies( getDependencies(index) );
+		}
 		sequence.set(index, openSection);
 	}
+	
+	private Query[] getDependencies(int openIndex) throws SequenceException {
+		OpenSection openSection = (OpenSection) sequence.get(openIndex);
+		Map<String, Query> dependencies = new LinkedHashMap<String, Query>();
+		dependencies.put(openSection.getName(), openSection.getQuery());
+		
+		for (int i = openIndex + 1; i < sequence.size(); i++) {
+			Instruction instruction = sequence.get(i);
+			// inside the section, the current item is covered by the value of the section
+			if (instruction instanceof AppendVariable) {
+				AppendVariable variable = (AppendVariable) instruction;
+				if ( !variable.getQuery().isSelf() ) {
+					dependencies.put(variable.getName(), variable.getQuery());
+				}
+			}
+			else if (instruction instanceof OpenSection) {
+				OpenSection section = (OpenSection) instruction;
+				if ( !section.getQuery().isSelf() ) {
+					dependencies.put(section.getName(), section.getQuery());
+				}
+			}
+			else if (instruction instanceof EnterPartial) {
+				throw new SequenceException("Cached section " + openSection.getName() + " cannot enter partials");
+			}
+		}
+		
+		return dependencies.values().toArray( new Query[dependencies.size()] );
+	}
 
 	/**
 	 * Adds legal {@link Instruction}s in the sequence.
@@ -95,12 +158,7 @@ public final class Sequencer {
 			throw new NullPointerException();
 		}
 		
-		Sequencer proxy = new Sequencer();
-		proxy.sequence.addAll(this.sequence);
-		proxy.partials.addAll(this.partials);
-		proxy.sections.addAll(this.sections);
-		proxy.sectionsIndices.addAll(this.sectionsIndices);
-		
+		Sequencer proxy = copy();
 		for (Instruction instruction : processables) {
 			proxy.add(instruction);
 		}
@@ -113,6 +171,83 @@ public final class Sequencer {
 		return this;
 	}
 	
+	/**
+	 * Replaces a range of the sequence by other {@link Instruction}s, opening
+	 * and closing their own sections, without going through the rest of the
+	 * sequence again. The indices of the sections following the range are
+	 * shifted, and the names of the partials entered by the replaced
+	 * {@link Instruction}s are kept.
+	 * @param from the start of the range, inclusive
+	 * @param to the end of the range, exclusive
+	 * @param instructions the {@link Instruction}s replacing the range, their
+	 * section indices being computed again
+	 * @return this {@code Sequencer} object
+	 * @throws SequenceException if {@code instructions} leave sections open or
+	 * close sections they did not open
+	 * @throws IllegalStateException if sections are currently open
+	 * @throws IndexOutOfBoundsException if the range is not within the sequence
+	 * @throws NullPointerException if {@code instructions} is {@code null}
+	 */
+	public Sequencer splice(int from, int to, List<Instruction> instructions) throws SequenceException {
+		if (instructions == null) {
+			throw new NullPointerException();
+		}
+		if ( !sections.isEmpty() ) {
+			throw new IllegalStateException("Sections currently open : " + sections);
+		}
+		if (from < 0 || from > to || to > sequence.size()) {
+			throw new IndexOutOfBoundsException("Invalid range : " + from + ", " + to);
+		}
+		
+		Sequencer inserted = new Sequencer().addAll(instructions);
+		if ( !inserted.sections.isEmpty() ) {
+			throw new SequenceException("Sections not closed : " + inserted.sections);
+		}
+		
+		int shift = inserted.sequence.size() - (to - from);
+		List<Instruction> spliced = new ArrayList<Instruction>(sequence.size() + shift);
+		spliced.addAll( sequence.subList(0, from) );
+		for (Instruction instruction : inserted.sequence) {
+			spliced.add( shiftIndex(instruction, from) );
+		}
+		for (Instruction instruction : sequence.subList(to, sequence.size())) {
+			spliced.add( shiftIndex(instruction, shift) );
+		}
+		
+		sequence = spliced;
+		partials.addAll(inserted.partials);
+		return this;
+	}
+	
+	private static Instruction shiftIndex(Instruction instruction, int shift) {
+		if (shift == 0) {
+			return instruction;
+		}
+		if (instruction instanceof OpenSection) {
+			OpenSection openSection = (OpenSection) instruction;
+			return openSection.setCloseIndex(openSection.getCloseIndex() + shift);
+		}
+		if (instruction instanceof CloseSection) {
+			CloseSection closeSection = (CloseSection) instruction;
+			return closeSection.setOpenIndex(closeSection.getOpenIndex() + shift);
+		}
+		return instruction;
+	}
+	
+	/**
+	 * Creates a copy of this {@code Sequencer}, which can be modified
+	 * independently of this one.
+	 * @return a newly created {@code Sequencer}
+	 */
+	public Sequencer copy() {
+		Sequencer copy = new Sequencer();
+		copy.sequence.addAll(sequence);
+		copy.partials.addAll(partials);
+		copy.sections.addAll(sections);
+		copy.sectionsIndices.addAll(sectionsIndices);
+		return copy;
+	}
+	
 	/**
 	 * Indicates whether the sequence is instruction in its current state. To be
 	 * instruction, a sequence needs at least one instruction and no currently
@@ -125,6 +260,9 @@ public final class Sequencer {
 		return sequence.size() > 0 && sections.size() == 0;
 	}
 
+	/**
+	 * @return the names of the partials entered by the sequence
+	 */
 	public List<String> getPartials() {
 		return new ArrayList<String>(partials);
 	}
@@ -146,6 +284,7 @@ public final class Sequencer {
 		sequence.clear();
 		sections.clear();
 		sectionsIndices.clear();
+		partials.clear();
 		return this;
 	}
 }
\ No newline at end of file
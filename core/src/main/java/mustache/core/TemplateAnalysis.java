@@ -0,0 +1,249 @@
+package mustache.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mustache.util.Query;
+
+/**
+ * The {@code TemplateAnalysis} class reports the variables read by a compiled
+ * template, grouped by section scope. Each section opens a {@link Scope}
+ * nested in the scope of the enclosing section, the template itself being the
+ * root scope. The name of a section is read in the enclosing scope.
+ * 
+ * <p>
+ * Partials are analyzed in place, as if their instructions were part of the
+ * template, so that the variables they read belong to the scope entering
+ * them. A partial entering itself, directly or not, is only analyzed once.
+ * Templates rendered by lambdas are unknown until rendering and are not part
+ * of the analysis.
+ * </p>
+ * 
+ * <p>Instances of this class are immutable and can be shared safely among
+ * multiple threads.</p>
+ * 
+ * @author Dri
+ * @see Processor
+ */
+public final class TemplateAnalysis {
+
+	private final Scope rootScope;
+	private final Set<String> paths;
+	private final Set<String> partials;
+	
+	private TemplateAnalysis(Scope rootScope, Set<String> paths, Set<String> partials) {
+		this.rootScope = rootScope;
+		this.paths = Collections.unmodifiableSet(paths);
+		this.partials = Collections.unmodifiableSet(partials);
+	}
+	
+	/**
+	 * Analyzes a compiled template.
+	 * @param processor the {@link Processor} of the template
+	 * @return a newly created {@code TemplateAnalysis}
+	 * @throws NullPointerException if {@code processor} is {@code null}
+	 */
+	public static TemplateAnalysis analyze(Processor processor) {
+		if (processor == null) {
+			throw new NullPointerException();
+		}
+		Analyzer analyzer = new Analyzer(processor);
+		Scope rootScope = new Scope(null, null);
+		analyzer.analyze(processor, 0, processor.getSequence().size(), rootScope);
+		return new TemplateAnalysis(rootScope, analyzer.paths, analyzer.partials);
+	}
+	
+	/**
+	 * @return the scope of the template itself
+	 */
+	public Scope getRootScope() {
+		return rootScope;
+	}
+	
+	/**
+	 * @return the paths read by the template in all scopes, in template order
+	 */
+	public Set<String> getPaths() {
+		return paths;
+	}
+	
+	/**
+	 * @return the names of the partials entered by the template, nested ones included
+	 */
+	public Set<String> getPartials() {
+		return partials;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		rootScope.appendTo(builder, "");
+		return builder.toString();
+	}
+	
+	/**
+	 * The {@code Scope} class holds the variables read inside a section, its
+	 * nested sections excluded.
+	 */
+	public static final class Scope {
+		private final OpenSection section;
+		private final Scope parent;
+		private final Set<String> paths = new LinkedHashSet<String>();
+		private final List<Query> queries = new ArrayList<Query>();
+		private final List<Scope> scopes = new ArrayList<Scope>();
+		private final Map<OpenSection, Scope> scopesBySection = new IdentityHashMap<OpenSection, Scope>();
+		
+		private Scope(OpenSection section, Scope parent) {
+			this.section = section;
+			this.parent = parent;
+		}
+		
+		/**
+		 * @return the section opening the scope, {@code null} for the root scope
+		 */
+		public OpenSection getSection() {
+			return section;
+		}
+		
+		/**
+		 * @return the enclosing scope, {@code null} for the root scope
+		 */
+		public Scope getParent() {
+			return parent;
+		}
+		
+		/**
+		 * @return the number of enclosing scopes
+		 */
+		public int getDepth() {
+			return parent == null ? 0 : parent.getDepth() + 1;
+		}
+		
+		/**
+		 * @return the paths read in the scope, including the names of the
+		 * nested sections, in template order
+		 */
+		public Set<String> getPaths() {
+			return Collections.unmodifiableSet(paths);
+		}
+		
+		/**
+		 * Returns the compiled queries read in the scope, which are the very
+		 * instances used by the instructions of the template. A path read by
+		 * several instructions has as many queries.
+		 * @return the queries read in the scope
+		 */
+		public List<Query> getQueries() {
+			return Collections.unmodifiableList(queries);
+		}
+		
+		/**
+		 * @return the scopes of the nested sections, in template order
+		 */
+		public List<Scope> getScopes() {
+			return Collections.unmodifiableList(scopes);
+		}
+		
+		/**
+		 * Returns the scope of a nested section. A section of a partial
+		 * entered several times in this scope has a single nested scope.
+		 * @param section the instruction opening the nested section
+		 * @return the scope of the section, or {@code null} if it is not
+		 * nested in this scope
+		 */
+		public Scope getScope(OpenSection section) {
+			return scopesBySection.get(section);
+		}
+		
+		private void read(Query query) {
+			paths.add( query.toString() );
+			queries.add(query);
+		}
+		
+		private Scope openScope(OpenSection openSection) {
+			Scope scope = scopesBySection.get(openSection);
+			if (scope == null) {
+				scope = new Scope(openSection, this);
+				scopes.add(scope);
+				scopesBySection.put(openSection, scope);
+			}
+			return scope;
+		}
+		
+		private void appendTo(StringBuilder builder, String indentation) {
+			builder.append(indentation).append(section == null ? "/" : section.toString()).append(' ').append(paths);
+			for (Scope scope : scopes) {
+				builder.append('\n');
+				scope.appendTo(builder, indentation + "  ");
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return section == null ? "Scope[/]" : "Scope[" + section.getName() + "]";
+		}
+	}
+	
+	/**
+	 * Walks the sequences of a template and its partials.
+	 */
+	private static final class Analyzer {
+		// the partials of the template, nested ones included
+		private final Processor template;
+		private final Set<String> paths = new LinkedHashSet<String>();
+		private final Set<String> partials = new LinkedHashSet<String>();
+		private final Deque<Processor> enteredPartials = new ArrayDeque<Processor>();
+		
+		private Analyzer(Processor template) {
+			this.template = template;
+		}
+		
+		private void analyze(Processor processor, int start, int end, Scope scope) {
+			List<Instruction> sequence = processor.getSequence();
+			int index = start;
+			
+			while (index < end) {
+				Instruction instruction = sequence.get(index);
+				
+				if (instruction instanceof AppendVariable) {
+					read(scope, ((AppendVariable) instruction).getQuery());
+				}
+				else if (instruction instanceof OpenSection) {
+					OpenSection openSection = (OpenSection) instruction;
+					read(scope, openSection.getQuery());
+					analyze(processor, index + 1, openSection.getCloseIndex(), scope.openScope(openSection));
+					index = openSection.getCloseIndex();
+				}
+				else if (instruction instanceof EnterPartial) {
+					enterPartial((EnterPartial) instruction, scope);
+				}
+				
+				index++;
+			}
+		}
+		
+		private void read(Scope scope, Query query) {
+			scope.read(query);
+			paths.add( query.toString() );
+		}
+		
+		private void enterPartial(EnterPartial enterPartial, Scope scope) {
+			partials.add( enterPartial.getName() );
+			Processor partial = template.getPartial( enterPartial.getName() );
+			if (partial == null || enteredPartials.contains(partial)) {
+				// not loaded, or recursive partial
+				return;
+			}
+			enteredPartials.push(partial);
+			analyze(partial, 0, partial.getSequence().size(), scope);
+			enteredPartials.pop();
+		}
+	}
+}
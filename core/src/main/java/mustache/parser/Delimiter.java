@@ -1,14 +1,9 @@
 package mustache.parser;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import mustache.core.EnterPartial;
 import mustache.core.Instruction;
 
 final class Delimiter {
-	private static final Pattern CHANGE_DELIMITER_PATTERN = Pattern.compile("^\\=\\s*([^= ]+)\\s*([^= ]+)\\s*\\=$");
-	
 	static final String DEFAULT_START = "{{";
 	static final String DEFAULT_STOP = "}}";
 	
@@ -26,16 +21,34 @@ final class Delimiter {
 	private boolean isUnescapedTag;
 	
 	private String textTrailingBlanks = "";
-	private String tagLineStart = "";
-	private String tagLineEnd = "";
+	// the text around the last tag is read in place rather than copied
+	private String tagStartLine = "";
+	private int tagStart;
+	private String tagEndLine = "";
+	private int tagEnd;
 	
 	boolean isInsideTag() {
 		return insideTag | insideUnescapedTag;
 	}
 	
+	String getStart() {
+		return start;
+	}
+	
+	String getStop() {
+		return stop;
+	}
+	
 	int tagStartLength() {
 		return insideTag ? start.length() : UNESCAPED_START.length();
 	}
+	
+	/**
+	 * @return the position following the last tag in its line
+	 */
+	int getTagEnd() {
+		return tagEnd;
+	}
 
 	Instruction getProcessable() throws ParseException {
 		
@@ -53,20 +66,50 @@ final class Delimiter {
 	}
 
 	private EnterPartial createIndentedPartial(EnterPartial partial) {
-		boolean startBlank = tagLineStart.trim().length() == 0;
-		String indentation = startBlank ? tagLineStart : "";
+		boolean startBlank = isTagLineStartBlank();
+		String indentation = startBlank ? getTagLineStart() : "";
 		textTrailingBlanks = "";
 		return EnterPartial.newIndentedInstance(partial.getName(), indentation);
 	}
 
 	private void calculateTextTrailingBlanks(Tag tag) {
-		boolean startBlank = tagLineStart.trim().length() == 0;
+		boolean startBlank = isTagLineStartBlank();
 		if ( !tag.canBeStandalone() ) {
-			textTrailingBlanks = startBlank ? tagLineStart : "";
+			textTrailingBlanks = startBlank ? getTagLineStart() : "";
 			return;
 		}
-		boolean endBlank = tagLineEnd.trim().length() == 0;
-		textTrailingBlanks = startBlank & endBlank ? "" : tagLineStart;
+		boolean endBlank = isTagLineEndBlank();
+		// only blank text is kept, see getTextTrailingBlanks()
+		textTrailingBlanks = startBlank & !endBlank ? getTagLineStart() : "";
+	}
+	
+	private String getTagLineStart() {
+		return tagStartLine.substring(0, tagStart);
+	}
+	
+	private boolean isTagLineStartBlank() {
+		return isBlank(tagStartLine, 0, tagStart);
+	}
+	
+	private boolean isTagLineEndBlank() {
+		return isBlank(tagEndLine, Math.min(tagEnd, tagEndLine.length()), tagEndLine.length());
+	}
+	
+	private static boolean isBlank(String line, int start, int end) {
+		for (int i = start; i < end; i++) {
+			// same as String.trim()
+			if (line.charAt(i) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the name of the last tag's pragma or {@code null} if it is not a pragma
+	 */
+	String getPragma() {
+		return actualTag.getPragma();
 	}
 
 	String getTextTrailingBlanks() {
@@ -92,15 +135,43 @@ final class Delimiter {
 		}
 	}
 	
+	/**
+	 * Reads the new bounds of a <code>{{=start stop=}}</code> tag, separated by
+	 * whitespace and containing no equal sign.
+	 */
 	private void changeDelimiter(String content) throws ParseException {
-		Matcher matcher = CHANGE_DELIMITER_PATTERN.matcher(content);
-		if ( !matcher.matches() ) {
+		int end = content.length() - 1;
+		if (end < 1 || content.charAt(end) != '=') {
 			throw new ParseException("Invalid tag content : " + content);
 		}
-		setBounds(matcher.group(1), matcher.group(2));
+		
+		String[] bounds = new String[2];
+		int count = 0;
+		int position = 1;
+		
+		while (position < end) {
+			char c = content.charAt(position);
+			if ( Tag.isWhitespace(c) ) {
+				position++;
+				continue;
+			}
+			int boundStart = position;
+			while ( position < end && !Tag.isWhitespace(content.charAt(position)) ) {
+				if (content.charAt(position) == '=' || count == bounds.length) {
+					throw new ParseException("Invalid tag content : " + content);
+				}
+				position++;
+			}
+			bounds[count++] = content.substring(boundStart, position);
+		}
+		
+		if (count < bounds.length) {
+			throw new ParseException("Invalid tag content : " + content);
+		}
+		setBounds(bounds[0], bounds[1]);
 	}
 
-	private void setBounds(String start, String stop) throws ParseException {
+	void setBounds(String start, String stop) throws ParseException {
 		if (UNESCAPED_START.equals(start) || UNESCAPED_STOP.equals(stop)) {
 			throw new ParseException("Normal tags cannot override escape tags");
 		}
@@ -123,11 +194,12 @@ final class Delimiter {
 		int tagPosition = line.indexOf(stop, position);
 		
 		if (tagPosition >= 0) {
-			currentTag.append( line.substring(position, tagPosition) );
+			currentTag.append(line, position, tagPosition);
 			insideTag = false;
 			isUnescapedTag = false;
 			int tagEndPosition = tagPosition + stop.length();
-			tagLineEnd = line.substring(tagEndPosition);
+			tagEnd = tagEndPosition;
+			tagEndLine = line;
 			createTag();
 			if ( isStandalone() ) {
 				return line.length();
@@ -135,16 +207,16 @@ final class Delimiter {
 			return tagEndPosition;
 		}
 		
-		currentTag.append( line.substring(position) );
+		currentTag.append(line, position, line.length());
 		return line.length();
 	}
 
 	private boolean isStandalone() {
-		if (actualTag.canBeStandalone() && tagLineStart.trim().length() == 0 && tagLineEnd.trim().length() == 0) {
+		if ( actualTag.canBeStandalone() && isTagLineStartBlank() && isTagLineEndBlank() ) {
 			if ( !actualTag.isPartial() ) {
-				tagLineStart = "";
+				tagStart = 0;
 			}
-			tagLineEnd = "";
+			tagEndLine = "";
 			return true;
 		}
 		return false;
@@ -154,53 +226,59 @@ final class Delimiter {
 		int unescapedTagPosition = line.indexOf(Delimiter.UNESCAPED_STOP, position);
 		
 		if (unescapedTagPosition >= 0) {
-			currentTag.append( line.substring(position, unescapedTagPosition) );
+			currentTag.append(line, position, unescapedTagPosition);
 			insideUnescapedTag = false;
 			isUnescapedTag = true;
 			int tagEndPosition = unescapedTagPosition + Delimiter.UNESCAPED_STOP.length();
-			tagLineEnd = line.substring(tagEndPosition);
+			tagEnd = tagEndPosition;
+			tagEndLine = line;
 			createTag();
 			return tagEndPosition;
 		}
 
-		currentTag.append( line.substring(position) );
+		currentTag.append(line, position, line.length());
 		return line.length();
 	}
 	
+	/**
+	 * Searches both the normal and unescaped tag starts in a single pass, only
+	 * comparing the delimiters at the positions of their first characters.
+	 */
 	private int searchTag(String line, int position) {
-		tagLineEnd = "";
+		tagEndLine = "";
 		
-		int tagPosition = line.indexOf(start, position);
-		int unescapedTagPosition = line.indexOf(Delimiter.UNESCAPED_START, position);
+		char startChar = start.charAt(0);
+		char unescapedStartChar = UNESCAPED_START.charAt(0);
 		
-		if (tagPosition >= 0 | unescapedTagPosition >= 0) {
-			int actualTagPosition = openTag(tagPosition, unescapedTagPosition);
-			this.tagLineStart = line.substring(0, actualTagPosition);
-			return actualTagPosition;
+		for (int i = position; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c != startChar & c != unescapedStartChar) {
+				continue;
+			}
+			
+			boolean normal = c == startChar && line.startsWith(start, i);
+			boolean unescaped = c == unescapedStartChar && line.startsWith(UNESCAPED_START, i);
+			
+			if (normal | unescaped) {
+				openTag(normal, unescaped);
+				tagStartLine = line;
+				tagStart = i;
+				return i;
+			}
 		}
 		
 		return line.length();
 	}
 
-	private int openTag(int tagPosition, int unescapedTagPosition) {
-		if ( foundAndBefore(tagPosition, unescapedTagPosition) ) {
-			insideTag = true;
-			return tagPosition;
+	private void openTag(boolean normal, boolean unescaped) {
+		if (normal & unescaped) {
+			// found both tag starts at the same position
+			insideTag = normalPrecedesUnescaped;
+			insideUnescapedTag = !normalPrecedesUnescaped;
 		}
-		
-		if ( foundAndBefore(unescapedTagPosition, tagPosition) ) {
-			insideUnescapedTag = true;
-			return unescapedTagPosition;
+		else {
+			insideTag = normal;
+			insideUnescapedTag = unescaped;
 		}
-		
-		// found both tag start at the same position
-		insideTag = normalPrecedesUnescaped;
-		insideUnescapedTag = !normalPrecedesUnescaped;
-		
-		return insideTag ? tagPosition : unescapedTagPosition;
-	}
-	
-	private boolean foundAndBefore(int a, int b) {
-		return a < 0 ? false : b < 0 | a < b;
 	}
 }
\ No newline at end of file
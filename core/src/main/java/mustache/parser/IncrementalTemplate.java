@@ -0,0 +1,292 @@
+package mustache.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mustache.core.Instruction;
+import mustache.core.Optimizer;
+import mustache.core.Processor;
+import mustache.core.SequenceException;
+import mustache.core.Sequencer;
+
+/**
+ * The {@code IncrementalTemplate} class keeps the source of a template along
+ * with its parsed instructions, so that an edit of the source only re-parses
+ * the lines around it.
+ * 
+ * <p>
+ * The source is split into segments at the beginning of lines parsed outside of
+ * any tag or section. An edit is parsed again from the segment preceding it,
+ * until the parser reaches the beginning of a segment past the edit with the
+ * same state, delimiters included. The following segments are then reused as
+ * is, and partials are never loaded twice. Edits inside a top-level section
+ * therefore re-parse the whole section.
+ * </p>
+ * 
+ * <p>
+ * Each segment keeps its own text and optimized instructions, with section
+ * indices relative to the segment. The instructions parsed again are spliced
+ * into the sequence of the previous version, so that the cost of an edit does
+ * not depend on the size of the template, only on the segments it spans. Texts
+ * are therefore not merged across segments.
+ * </p>
+ * 
+ * <p>Instances of this class are immutable and can be shared safely among
+ * multiple threads, though the {@link Processor}s they create can not.</p>
+ * 
+ * @author Dri
+ * @see Parser
+ */
+public final class IncrementalTemplate {
+
+	private final PartialLoader partialLoader;
+	private final List<Segment> segments;
+	private final int[] textStarts;
+	private final int[] instructionStarts;
+	private final Map<String, Processor> partials;
+	private final Sequencer sequencer;
+	private volatile String source;
+	
+	private IncrementalTemplate(PartialLoader partialLoader, List<Segment> segments, Map<String, Processor> partials,
+			Sequencer sequencer) throws ParseException {
+		if ( !sequencer.isProcessable() ) {
+			throw new ParseException("Invalid template");
+		}
+		this.partialLoader = partialLoader;
+		this.segments = Collections.unmodifiableList(segments);
+		this.partials = Collections.unmodifiableMap(partials);
+		this.sequencer = sequencer;
+		
+		textStarts = new int[segments.size() + 1];
+		instructionStarts = new int[segments.size() + 1];
+		for (int i = 0; i < segments.size(); i++) {
+			Segment segment = segments.get(i);
+			textStarts[i + 1] = textStarts[i] + segment.text.length();
+			instructionStarts[i + 1] = instructionStarts[i] + segment.instructions.size();
+		}
+	}
+	
+	/**
+	 * Parses a template.
+	 * @param source the source of the template
+	 * @param partialLoader the partial loader
+	 * @return a newly created {@code IncrementalTemplate}
+	 * @throws ParseException if the template is not valid
+	 * @throws IOException if a partial could not be loaded
+	 */
+	public static IncrementalTemplate parse(String source, PartialLoader partialLoader) throws ParseException, IOException {
+		if (source == null) {
+			throw new NullPointerException();
+		}
+		Map<String, Processor> partials = new HashMap<String, Processor>();
+		Parser parser = Parser.fromCheckpoint(Parser.Checkpoint.INITIAL, partialLoader, partials);
+		List<Segment> segments = new ArrayList<Segment>();
+		parseSegments(new StringBuilder(source), 0, parser, segments, Collections.<Segment>emptyList(), 0);
+		
+		try {
+			Sequencer sequencer = new Sequencer();
+			for (Segment segment : segments) {
+				sequencer.addAll(segment.instructions);
+			}
+			return new IncrementalTemplate(partialLoader, segments, partials, sequencer);
+		}
+		catch (SequenceException e) {
+			throw new ParseException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Applies a text edit to the source of the template.
+	 * @param offset the position of the edit in the source
+	 * @param removedLength the number of characters removed at {@code offset}
+	 * @param insertedText the text inserted at {@code offset}
+	 * @return a newly created {@code IncrementalTemplate} for the edited source
+	 * @throws ParseException if the edited template is not valid
+	 * @throws IOException if a partial could not be loaded
+	 * @throws IndexOutOfBoundsException if the edit is out of the source
+	 */
+	public IncrementalTemplate edit(int offset, int removedLength, String insertedText) throws ParseException, IOException {
+		if (insertedText == null) {
+			throw new NullPointerException();
+		}
+		int length = textStarts[segments.size()];
+		if (offset < 0 || removedLength < 0 || offset + removedLength > length) {
+			throw new IndexOutOfBoundsException("Invalid edit : " + offset + ", " + removedLength);
+		}
+		
+		// the line before the edit may end with a carriage return followed by an inserted line feed
+		int first = findSegment(offset);
+		int last = findSegment(offset + removedLength);
+		
+		StringBuilder text = new StringBuilder();
+		for (int i = first; i <= last; i++) {
+			text.append(segments.get(i).text);
+		}
+		int start = textStarts[first];
+		text.replace(offset - start, offset + removedLength - start, insertedText);
+		
+		Map<String, Processor> editedPartials = new HashMap<String, Processor>(partials);
+		Parser parser = Parser.fromCheckpoint(segments.get(first).checkpoint, partialLoader, editedPartials);
+		
+		List<Segment> parsedSegments = new ArrayList<Segment>();
+		int editEnd = offset + insertedText.length() - start;
+		int reused = parseSegments(text, editEnd, parser, parsedSegments, segments, last + 1);
+		
+		List<Instruction> instructions = new ArrayList<Instruction>();
+		for (Segment segment : parsedSegments) {
+			instructions.addAll(segment.instructions);
+		}
+		
+		List<Segment> editedSegments = new ArrayList<Segment>(segments.size() - (reused - first) + parsedSegments.size());
+		editedSegments.addAll( segments.subList(0, first) );
+		editedSegments.addAll(parsedSegments);
+		editedSegments.addAll( segments.subList(reused, segments.size()) );
+		
+		try {
+			Sequencer editedSequencer = sequencer.copy();
+			editedSequencer.splice(instructionStarts[first], instructionStarts[reused], instructions);
+			return new IncrementalTemplate(partialLoader, editedSegments, editedPartials, editedSequencer);
+		}
+		catch (SequenceException e) {
+			throw new ParseException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Finds the first segment ending at or after a position of the source.
+	 */
+	private int findSegment(int position) {
+		int low = 0;
+		int high = segments.size() - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (textStarts[middle + 1] < position) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Parses a text into segments, pulling the following segments of the
+	 * previous version of the source when a line goes past the text, until a
+	 * previous segment can be reused.
+	 * @return the index of the first reused segment
+	 */
+	private static int parseSegments(StringBuilder text, int editEnd, Parser parser, List<Segment> segments,
+			List<Segment> previousSegments, int next) throws ParseException, IOException {
+		try {
+			Parser.Checkpoint checkpoint = parser.getCheckpoint();
+			int segmentStart = 0;
+			int position = 0;
+			
+			while (position < text.length() || next < previousSegments.size()) {
+				if ( position == text.length() ) {
+					text.append(previousSegments.get(next++).text);
+				}
+				int lineEnd = LineIterator.getLineEnd(text, position);
+				while (lineEnd == text.length() && next < previousSegments.size() && text.charAt(lineEnd - 1) != '\n') {
+					text.append(previousSegments.get(next++).text);
+					lineEnd = LineIterator.getLineEnd(text, position);
+				}
+				parser.parseLine( text.substring(position, lineEnd) );
+				position = lineEnd;
+				
+				boolean end = position == text.length() && next == previousSegments.size();
+				if ( end || !parser.isAtCheckpoint() ) {
+					continue;
+				}
+				
+				List<Instruction> instructions = parser.flushInstructions(false);
+				segments.add( new Segment(text.substring(segmentStart, position), checkpoint, instructions) );
+				checkpoint = parser.getCheckpoint();
+				segmentStart = position;
+				
+				// the text only ends where a previous segment starts
+				if ( position >= editEnd && position == text.length() && next < previousSegments.size()
+						&& previousSegments.get(next).checkpoint.equals(checkpoint) ) {
+					return next;
+				}
+			}
+			
+			List<Instruction> instructions = parser.flushInstructions(true);
+			segments.add( new Segment(text.substring(segmentStart, position), checkpoint, instructions) );
+			return previousSegments.size();
+		}
+		catch (SequenceException e) {
+			throw new ParseException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * @return the source of the template
+	 */
+	public String getSource() {
+		String source = this.source;
+		if (source == null) {
+			StringBuilder text = new StringBuilder( textStarts[segments.size()] );
+			for (Segment segment : segments) {
+				text.append(segment.text);
+			}
+			source = text.toString();
+			this.source = source;
+		}
+		return source;
+	}
+	
+	/**
+	 * @return the number of segments the source is split into
+	 */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+	
+	/**
+	 * Returns the instructions of a segment, shared with the following
+	 * versions of the template as long as the segment is reused.
+	 * @param index the index of the segment
+	 * @return the optimized instructions of the segment
+	 */
+	List<Instruction> getSegmentInstructions(int index) {
+		return segments.get(index).instructions;
+	}
+	
+	/**
+	 * Creates a {@link Processor} for the template.
+	 * @return a newly created {@link Processor}
+	 */
+	public Processor newProcessor() {
+		return Processor.newInstance(sequencer, partials);
+	}
+	
+	/**
+	 * The instructions parsed from consecutive lines of the source.
+	 */
+	private static final class Segment {
+		private final String text;
+		private final Parser.Checkpoint checkpoint;
+		private final List<Instruction> instructions;
+		
+		private Segment(String text, Parser.Checkpoint checkpoint, List<Instruction> instructions)
+				throws SequenceException {
+			this.text = text;
+			this.checkpoint = checkpoint;
+			this.instructions = optimize(instructions);
+		}
+		
+		private static List<Instruction> optimize(List<Instruction> instructions) throws SequenceException {
+			Sequencer sequencer = new Sequencer().addAll(instructions);
+			if ( !sequencer.isProcessable() ) {
+				// empty, or rejected once spliced
+				return instructions;
+			}
+			return Optimizer.optimize(sequencer).getSequence();
+		}
+	}
+}
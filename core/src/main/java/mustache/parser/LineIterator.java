@@ -22,6 +22,10 @@ public class LineIterator {
 		this.readable = readable;
 	}
 	
+	private LineIterator() {
+		this.readable = null;
+	}
+	
 	public static LineIterator fromReadable(Readable readable) {
 		if (readable == null) {
 			throw new NullPointerException();
@@ -32,6 +36,40 @@ public class LineIterator {
 		return new LineIterator(readable);
 	}
 	
+	/**
+	 * Creates a {@code LineIterator} scanning characters in place, without
+	 * copying them to an intermediate buffer.
+	 * @param chars the characters to split into lines
+	 * @return a newly created {@code LineIterator}
+	 */
+	public static LineIterator fromCharSequence(CharSequence chars) {
+		if (chars == null) {
+			throw new NullPointerException();
+		}
+		return new CharSequenceLineIterator(chars);
+	}
+	
+	/**
+	 * Returns the end of a line, including its line terminator which is either
+	 * {@code "\n"}, {@code "\r\n"} or {@code "\r"}.
+	 * @param chars the characters
+	 * @param start the start of the line
+	 * @return the end of the line, exclusive
+	 */
+	static int getLineEnd(CharSequence chars, int start) {
+		int length = chars.length();
+		for (int i = start; i < length; i++) {
+			char c = chars.charAt(i);
+			if (c == '\n') {
+				return i + 1;
+			}
+			if (c == '\r') {
+				return i + 1 < length && chars.charAt(i + 1) == '\n' ? i + 2 : i + 1;
+			}
+		}
+		return length;
+	}
+	
 	public boolean hasNext() throws IOException {
 		if ( lines.isEmpty() ) {
 			read();
@@ -106,6 +144,30 @@ public class LineIterator {
 		return position;
 	}
 	
+	private static class CharSequenceLineIterator extends LineIterator {
+		private final CharSequence chars;
+		private int position = 0;
+		
+		private CharSequenceLineIterator(CharSequence chars) {
+			this.chars = chars;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return position < chars.length();
+		}
+		
+		@Override
+		public String next() {
+			if ( !hasNext() ) {
+				throw new IllegalStateException();
+			}
+			int start = position;
+			position = getLineEnd(chars, start);
+			return chars.subSequence(start, position).toString();
+		}
+	}
+	
 	private static class LineReader extends LineIterator {
 		private Reader reader;
 		
@@ -1,69 +1,249 @@
 package mustache.parser;
 
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import mustache.core.AppendText;
+import mustache.core.CloseSection;
 import mustache.core.EnterPartial;
+import mustache.core.Flush;
 import mustache.core.Instruction;
+import mustache.core.OpenSection;
+import mustache.core.Optimizer;
 import mustache.core.Processor;
 import mustache.core.SequenceException;
 import mustache.core.Sequencer;
+import mustache.util.TemplateMonitor;
 
 import org.apache.commons.io.IOUtils;
 
 public final class Parser {
 	
+	/**
+	 * The pragma caching the output of the next section, as in <code>{{%CACHE}}</code>.
+	 * @see OpenSection#isCached()
+	 */
+	public static final String CACHE_PRAGMA = "CACHE";
+	
+	/**
+	 * The pragma flushing the output rendered so far, as in <code>{{%FLUSH}}</code>.
+	 * @see Flush
+	 */
+	public static final String FLUSH_PRAGMA = "FLUSH";
+	
+	// files smaller than this are read rather than memory-mapped
+	private static final int MAPPING_THRESHOLD = 64 * 1024;
+	
 	public static Processor parseReadable(Readable readable, PartialLoader partialLoader) throws ParseException, IOException {
 		return new Parser(readable, partialLoader).parse();
 	}
 	
+	/**
+	 * Parses a template loaded by name, the name being reported to the {@link TemplateMonitor}.
+	 */
+	static Processor parseTemplate(String name, Readable readable, PartialLoader partialLoader)
+			throws ParseException, IOException {
+		Parser parser = new Parser(readable, partialLoader);
+		parser.name = name;
+		return parser.parse();
+	}
+	
 	public static Processor parseString(String string, PartialLoader partialLoader) throws ParseException, IOException {
-		Reader reader = new StringReader(string);
-		return parseReadable(reader, partialLoader);
+		return parseCharSequence(string, partialLoader);
 	}
 	
-	public static Processor parseFile(File file, PartialLoader partialLoader) throws ParseException, IOException {
-		Reader reader = null;
-		try {
-			reader = new FileReader(file);
-			return parseReadable(reader, partialLoader);
-		} finally {
-			IOUtils.closeQuietly(reader);
+	/**
+	 * Parses the text returned by a lambda for a section, with the delimiters
+	 * of the section and the partials already loaded for its template.
+	 * @param text the text to parse
+	 * @param section the section, or {@code null} for the default delimiters
+	 * @param partials the partials of the template
+	 * @return a newly created {@link Processor}
+	 * @throws IllegalStateException if the text enters a partial not loaded for the template
+	 */
+	public static Processor parseFragment(String text, OpenSection section, Map<String, Processor> partials)
+			throws ParseException, IOException {
+		Parser parser = new Parser(LineIterator.fromCharSequence(text), null, new HashMap<String, Processor>(partials));
+		if (section != null && section.getStartDelimiter() != null) {
+			parser.delimiter.setBounds(section.getStartDelimiter(), section.getStopDelimiter());
 		}
+		return parser.parse();
+	}
+	
+	/**
+	 * Parses a template from characters scanned in place.
+	 * @param chars the template
+	 * @param partialLoader the partial loader
+	 * @return a newly created {@link Processor}
+	 */
+	public static Processor parseCharSequence(CharSequence chars, PartialLoader partialLoader) throws ParseException, IOException {
+		LineIterator reader = LineIterator.fromCharSequence(chars);
+		return new Parser(reader, partialLoader, new HashMap<String, Processor>()).parse();
+	}
+	
+	/**
+	 * Parses a template file with the platform's default charset, replacing
+	 * malformed input like a {@link java.io.FileReader}.
+	 * @see #parseFile(File, Charset, PartialLoader)
+	 */
+	public static Processor parseFile(File file, PartialLoader partialLoader) throws ParseException, IOException {
+		CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		return parseCharSequence(readFile(file, decoder), partialLoader);
 	}
 	
 	public static Processor parseFile(String path, PartialLoader partialLoader) throws ParseException, IOException {
 		return parseFile(new File(path), partialLoader);
 	}
 	
+	/**
+	 * Parses a template file. The file is decoded at once, memory-mapped if it
+	 * is large enough, and the resulting characters are scanned in place.
+	 * @param file the template file
+	 * @param charset the charset of the file
+	 * @param partialLoader the partial loader
+	 * @return a newly created {@link Processor}
+	 * @throws java.nio.charset.CharacterCodingException if the file is not valid for {@code charset}
+	 */
+	public static Processor parseFile(File file, Charset charset, PartialLoader partialLoader) throws ParseException, IOException {
+		return parseCharSequence(readFile(file, charset.newDecoder()), partialLoader);
+	}
+	
+	/**
+	 * @see #parseFile(File, Charset, PartialLoader)
+	 */
+	public static Processor parseFile(String path, Charset charset, PartialLoader partialLoader) throws ParseException, IOException {
+		return parseFile(new File(path), charset, partialLoader);
+	}
+	
+	private static CharBuffer readFile(File file, CharsetDecoder decoder) throws IOException {
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("File too large : " + file);
+			}
+			
+			ByteBuffer bytes;
+			if (size < MAPPING_THRESHOLD) {
+				bytes = ByteBuffer.allocate((int) size);
+				while ( bytes.hasRemaining() && channel.read(bytes) >= 0 ) {
+					// reads the whole file
+				}
+				bytes.flip();
+			} else {
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			
+			return decoder.decode(bytes);
+		} finally {
+			IOUtils.closeQuietly(stream);
+		}
+	}
+	
 	private final LineIterator reader;
 	private final PartialLoader partialLoader;
 	private final Delimiter delimiter = new Delimiter();
 	private final Sequencer sequencer = new Sequencer();
 	private final Map<String, Processor> partials;
+	// the name of the template, if loaded by name
+	private String name;
 	
 	private Parser(Readable readable, PartialLoader partialLoader) {
-		this.reader = LineIterator.fromReadable(readable);
+		this(LineIterator.fromReadable(readable), partialLoader, new HashMap<String, Processor>());
+	}
+	
+	private Parser(LineIterator reader, PartialLoader partialLoader, Map<String, Processor> partials) {
+		this.reader = reader;
 		this.partialLoader = partialLoader;
-		this.partials = new HashMap<String, Processor>();
+		this.partials = partials;
+	}
+	
+	/**
+	 * Creates a {@code Parser} fed line by line from a {@link Checkpoint}
+	 * rather than reading a template on its own.
+	 * @param checkpoint the state to resume parsing from
+	 * @param partialLoader the partial loader
+	 * @param partials the partials already loaded, updated with new ones
+	 * @return a newly created {@code Parser}
+	 * @see #parseLine(String)
+	 */
+	static Parser fromCheckpoint(Checkpoint checkpoint, PartialLoader partialLoader, Map<String, Processor> partials)
+			throws ParseException {
+		Parser parser = new Parser(null, partialLoader, partials);
+		parser.delimiter.setBounds(checkpoint.start, checkpoint.stop);
+		parser.cacheNextSection = checkpoint.cacheNextSection;
+		return parser;
+	}
+	
+	/**
+	 * Indicates whether the parser is between two lines outside of any tag or
+	 * section, in which case parsing can be resumed from its {@link Checkpoint}.
+	 */
+	boolean isAtCheckpoint() {
+		return !insideTag && !delimiter.isInsideTag() && rawTextStarts.isEmpty();
+	}
+	
+	Checkpoint getCheckpoint() {
+		return new Checkpoint(delimiter.getStart(), delimiter.getStop(), cacheNextSection);
+	}
+	
+	/**
+	 * Returns the {@link Instruction}s parsed since the previous checkpoint.
+	 * @param last whether the template was parsed entirely
+	 * @throws IllegalStateException if the parser is not at a checkpoint
+	 */
+	List<Instruction> flushInstructions(boolean last) throws ParseException, SequenceException {
+		if (last) {
+			addLastToken();
+		} else {
+			appendCurrentText();
+		}
+		if ( !isAtCheckpoint() ) {
+			if (last) {
+				throw new ParseException("Invalid template");
+			}
+			throw new IllegalStateException("Not at a checkpoint");
+		}
+		List<Instruction> instructions = sequencer.getSequence();
+		sequencer.clear();
+		return instructions;
 	}
 	
 	private Processor parse() throws ParseException, IOException {
+		TemplateMonitor monitor = TemplateMonitor.getActive();
+		long start = monitor == null ? 0 : System.nanoTime();
+		int loadedPartials = partials.size();
+		int length = 0;
 		try {
 			while (reader.hasNext()) {
-				parseLine(reader.next());
+				String line = reader.next();
+				length += line.length();
+				parseLine(line);
 			}
 			addLastToken();
 			if ( !sequencer.isProcessable() ) {
 				throw new ParseException("Invalid template");
 			}
-			return Processor.newInstance(sequencer, partials);
+			Processor processor = Processor.newInstance(Optimizer.optimize(sequencer), partials);
+			if (monitor != null) {
+				monitor.templateParsed(name, length, partials.size() - loadedPartials, System.nanoTime() - start);
+			}
+			return processor;
 		}
 		catch (SequenceException e) {
 			throw new ParseException(e.getMessage(), e);
@@ -82,8 +262,16 @@ public final class Parser {
 	
 	private StringBuilder currentText = new StringBuilder();
 	private boolean insideTag = false;
+	private boolean cacheNextSection = false;
+	
+	// raw text of the lines read since the outermost open section, shared by its nested sections
+	private SourceText rawText = new SourceText();
+	private final Deque<Integer> rawTextStarts = new ArrayDeque<Integer>();
+	private int rawLineOffset;
+	private int rawTagStart;
 	
-	private void parseLine(String line) throws SequenceException, ParseException, IOException {
+	void parseLine(String line) throws SequenceException, ParseException, IOException {
+		appendRawText(line);
 		int position = 0;
 		
 		while (position < line.length()) {
@@ -95,6 +283,7 @@ public final class Parser {
 			}
 			else if (!insideTag && delimiter.isInsideTag()) {
 				updateCurrentText(line, start, position);
+				rawTagStart = rawLineOffset + position;
 				position += delimiter.tagStartLength();
 			}
 			else if (!insideTag && !delimiter.isInsideTag()) {
@@ -108,27 +297,169 @@ public final class Parser {
 	private void addProcessable() throws ParseException, SequenceException, IOException {
 		Instruction processable = delimiter.getProcessable();
 		appendCurrentText();
-		if (processable != null) {
+		if (delimiter.getPragma() != null) {
+			applyPragma( delimiter.getPragma() );
+		}
+		if (processable instanceof OpenSection) {
+			processable = ((OpenSection) processable).setDelimiters(delimiter.getStart(), delimiter.getStop());
+		}
+		if (processable instanceof OpenSection && cacheNextSection) {
+			processable = ((OpenSection) processable).setCached(true);
+			cacheNextSection = false;
+		}
+		if (processable instanceof CloseSection) {
+			closeSection((CloseSection) processable);
+		}
+		else if (processable != null) {
 			sequencer.add(processable);
 		}
+		if (processable instanceof OpenSection) {
+			rawTextStarts.push(rawLineOffset + delimiter.getTagEnd());
+		}
 		if (processable instanceof EnterPartial) {
 			loadPartial((EnterPartial) processable);
 		}
 	}
 
+	private void applyPragma(String pragma) throws ParseException, SequenceException {
+		if ( CACHE_PRAGMA.equals(pragma) ) {
+			cacheNextSection = true;
+		}
+		else if ( FLUSH_PRAGMA.equals(pragma) ) {
+			sequencer.add( new Flush() );
+		}
+		else {
+			throw new ParseException("Unknown pragma : " + pragma);
+		}
+	}
+	
+	private void appendRawText(String line) {
+		if ( rawTextStarts.isEmpty() ) {
+			if ( rawText.isFrozen() ) {
+				rawText = new SourceText();
+			} else {
+				rawText.clear();
+			}
+		}
+		rawLineOffset = rawText.length();
+		rawText.append(line);
+	}
+	
+	private void closeSection(CloseSection instruction) throws SequenceException {
+		if ( rawTextStarts.isEmpty() ) {
+			// misplaced section close, reported by the sequencer
+			sequencer.closeSection(instruction, "", 0, 0);
+			return;
+		}
+		sequencer.closeSection(instruction, rawText, rawTextStarts.pop(), rawTagStart);
+		if ( rawTextStarts.isEmpty() ) {
+			rawText.freeze();
+		}
+	}
+	
+	/**
+	 * The raw text of the lines of an outermost section, appended while the
+	 * section is parsed and frozen into a single string once it is closed.
+	 * The sections it contains keep ranges of this text, which only grows when
+	 * another section is opened on the same line.
+	 */
+	private static final class SourceText implements CharSequence {
+		private StringBuilder builder = new StringBuilder();
+		private String text;
+		
+		private void append(String line) {
+			if (text != null) {
+				builder = new StringBuilder(text);
+				text = null;
+			}
+			builder.append(line);
+		}
+		
+		private void clear() {
+			builder.setLength(0);
+		}
+		
+		private boolean isFrozen() {
+			return text != null;
+		}
+		
+		private void freeze() {
+			if (text == null) {
+				text = builder.toString();
+				builder = null;
+			}
+		}
+		
+		public int length() {
+			return text == null ? builder.length() : text.length();
+		}
+		
+		public char charAt(int index) {
+			return text == null ? builder.charAt(index) : text.charAt(index);
+		}
+		
+		public CharSequence subSequence(int start, int end) {
+			return text == null ? builder.subSequence(start, end) : text.substring(start, end);
+		}
+		
+		@Override
+		public String toString() {
+			return text == null ? builder.toString() : text;
+		}
+	}
+
+	/**
+	 * The state of a {@code Parser} between two lines, outside of any tag or
+	 * section. Instances of this class are immutable.
+	 */
+	static final class Checkpoint {
+		static final Checkpoint INITIAL = new Checkpoint(Delimiter.DEFAULT_START, Delimiter.DEFAULT_STOP, false);
+		
+		private final String start;
+		private final String stop;
+		private final boolean cacheNextSection;
+		
+		private Checkpoint(String start, String stop, boolean cacheNextSection) {
+			this.start = start;
+			this.stop = stop;
+			this.cacheNextSection = cacheNextSection;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if ( !(obj instanceof Checkpoint) ) {
+				return false;
+			}
+			Checkpoint checkpoint = (Checkpoint) obj;
+			return start.equals(checkpoint.start) && stop.equals(checkpoint.stop)
+					&& cacheNextSection == checkpoint.cacheNextSection;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * (31 * start.hashCode() + stop.hashCode()) + (cacheNextSection ? 1 : 0);
+		}
+	}
+
 	private void loadPartial(EnterPartial partial) throws ParseException, IOException {
 		String name = partial.getName();
-		if (partialLoader == null) {
-			throw new IllegalStateException("Templates expects to load a partial : " + partial);
-		}
 		if ( partials.containsKey(name) ) {
 			return;
 		}
+		if (partialLoader == null) {
+			throw new IllegalStateException("Templates expects to load a partial : " + partial);
+		}
 		partials.put(name, null);
+		TemplateMonitor monitor = TemplateMonitor.getActive();
+		long start = monitor == null ? 0 : System.nanoTime();
 		Readable readable = partialLoader.loadPartial(name);
 		Parser parser = new Parser(readable, partialLoader);
+		parser.name = name;
 		parser.partials.putAll(partials);
         partials.put(name, parser.parse());
+		if (monitor != null) {
+			monitor.partialLoaded(name, System.nanoTime() - start);
+		}
 	}
 
 	private void appendCurrentText() throws SequenceException {
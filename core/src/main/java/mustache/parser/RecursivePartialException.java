@@ -1,5 +0,0 @@
-package mustache.parser;
-
-public class RecursivePartialException extends Exception {
-	private static final long serialVersionUID = -310942832890471151L;
-}
@@ -1,31 +1,25 @@
 package mustache.parser;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import mustache.core.AppendVariable;
 import mustache.core.CloseSection;
 import mustache.core.EnterPartial;
 import mustache.core.Instruction;
 import mustache.core.OpenSection;
 import mustache.util.Context;
+import mustache.util.SymbolTable;
 
 final class Tag {
-	private static final String TAG_CONTENT_REGEX = "^(&|#|\\^|/|\\>|\\=|\\!)?\\s*(.*?)$"; // TODO check non greedy pattern
-	private static final Pattern TAG_CONTENT_PATTERN = Pattern.compile(TAG_CONTENT_REGEX, Pattern.DOTALL);
-	
 	private final Type type;
 	private final String content;
 	
 	static Tag newTag(String string) throws ParseException, ChangeDelimiterException {
-		Matcher matcher = TAG_CONTENT_PATTERN.matcher(string);
+		Type type = string.length() > 0 ? Type.fromToken( string.charAt(0) ) : Type.VARIABLE;
 		
-		if ( !matcher.matches() ) {
-			throw new ParseException("Invalid tag content : " + string);
+		int contentStart = type == Type.VARIABLE ? 0 : 1;
+		while ( contentStart < string.length() && isWhitespace(string.charAt(contentStart)) ) {
+			contentStart++;
 		}
-		
-		Type type = Type.fromToken( matcher.group(1) );
-		String content = matcher.group(2);
+		String content = string.substring(contentStart);
 		
 		if ( hasInterpolation(type) ) {
 			checkInterpolation(content);
@@ -46,8 +40,15 @@ final class Tag {
 		return new Tag(Type.UNESCAPED_VARIABLE, content);
 	}
 
+	/**
+	 * @return {@code true} for the whitespace characters of regular expressions
+	 */
+	static boolean isWhitespace(char c) {
+		return c == ' ' | c == '\t' | c == '\n' | c == '\u000B' | c == '\f' | c == '\r';
+	}
+
 	private static boolean hasInterpolation(Type type) {
-		return type != Type.PARTIAL & type != Type.DELIMITER & type != Type.COMMENT;
+		return type != Type.PARTIAL & type != Type.DELIMITER & type != Type.COMMENT & type != Type.PRAGMA;
 	}
 
 	private static void checkInterpolation(String content) throws ParseException {
@@ -69,75 +70,92 @@ final class Tag {
 		return type == Type.PARTIAL;
 	}
 	
+	String getPragma() {
+		return type == Type.PRAGMA ? content : null;
+	}
+	
 	Instruction toInstruction() {
-		return type.toInstruction(content);
+		return type.toInstruction( SymbolTable.intern(content) );
 	}
 	
 	private enum Type {
-		VARIABLE("") {
+		VARIABLE('\0') {
 			@Override
 			protected Instruction toInstruction(String content) {
 				return AppendVariable.newInstance(content, false);
 			}
 		},
-		UNESCAPED_VARIABLE("&") {
+		UNESCAPED_VARIABLE('&') {
 			@Override
 			protected Instruction toInstruction(String content) {
 				return AppendVariable.newInstance(content, true);
 			}
 		},
-		SECTION("#") {
+		SECTION('#') {
 			@Override
 			protected Instruction toInstruction(String content) {
 				return OpenSection.newInstance(content, false);
 			}
 		},
-		INVERTED_SECTION("^") {
+		INVERTED_SECTION('^') {
 			@Override
 			protected Instruction toInstruction(String content) {
 				return OpenSection.newInstance(content, true);
 			}
 		},
-		SECTION_END("/") {
+		SECTION_END('/') {
 			@Override
 			protected Instruction toInstruction(String content) {
 				return CloseSection.newInstance(content);
 			}
 		},
-		PARTIAL(">") {
+		PARTIAL('>') {
 			@Override
 			protected Instruction toInstruction(String content) {
 				return EnterPartial.newInstance(content);
 			}
 		},
-		DELIMITER("=") {
+		DELIMITER('=') {
 			@Override
 			protected Instruction toInstruction(String content) {
 				return null;
 			}
 		},
-		COMMENT("!") {
+		COMMENT('!') {
+			@Override
+			protected Instruction toInstruction(String content) {
+				return null;
+			}
+		},
+		PRAGMA('%') {
 			@Override
 			protected Instruction toInstruction(String content) {
 				return null;
 			}
 		};
 		
-		private final String token;
+		// types indexed by token, null for variables
+		private static final Type[] TOKENS = new Type[128];
+		
+		static {
+			for (Type type : values()) {
+				if (type != VARIABLE) {
+					TOKENS[type.token] = type;
+				}
+			}
+		}
+		
+		private final char token;
 		
-		private Type(String token) {
+		private Type(char token) {
 			this.token = token;
 		}
 		
 		protected abstract Instruction toInstruction(String content);
 		
-		private static Type fromToken(String token) {
-			for (Type type : values()) {
-				if (type.token.equals(token)) {
-					return type;
-				}
-			}
-			return VARIABLE;
+		private static Type fromToken(char token) {
+			Type type = token < TOKENS.length ? TOKENS[token] : null;
+			return type != null ? type : VARIABLE;
 		}
 	}
 }
\ No newline at end of file
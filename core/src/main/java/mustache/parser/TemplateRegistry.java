@@ -0,0 +1,265 @@
+package mustache.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import mustache.core.Processor;
+import mustache.util.TemplateMonitor;
+
+/**
+ * The {@code TemplateRegistry} class compiles templates loaded by name and
+ * keeps them for later use. When several threads ask for a missing template,
+ * only one of them parses it while the others wait for the result.
+ * 
+ * <p>
+ * Templates expire after a time to live, or when they are invalidated. An
+ * expired template is compiled again by the first thread asking for it, and
+ * meanwhile the other threads keep getting the expired template. The new
+ * template can also be compiled in the background by an {@link Executor}. If
+ * compiling fails, the expired template is still returned and the failed
+ * attempt is kept like a compiled template, so that the next attempt only
+ * happens once it expires or is invalidated in turn.
+ * </p>
+ * 
+ * <p>This class can be used safely by multiple threads, and does not lock.
+ * Each call to {@link #get(String)} returns a {@link Processor} for the
+ * calling thread only.</p>
+ * 
+ * @author Dri
+ * @see Processor#copy()
+ */
+public final class TemplateRegistry {
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final PartialLoader loader;
+	private final long timeToLive;
+	private final Executor executor;
+	
+	/**
+	 * Creates a {@code TemplateRegistry} keeping templates until they are
+	 * invalidated.
+	 * @param loader the loader of both templates and partials
+	 */
+	public TemplateRegistry(PartialLoader loader) {
+		this(loader, 0, TimeUnit.NANOSECONDS, null);
+	}
+	
+	/**
+	 * Creates a {@code TemplateRegistry}.
+	 * @param loader the loader of both templates and partials
+	 * @param timeToLive the time to live of the templates, {@code 0} for no expiration
+	 * @param unit the unit of {@code timeToLive}
+	 * @param executor the executor compiling expired templates, or {@code null}
+	 * to compile them in the first thread asking for them
+	 * @throws IllegalArgumentException if {@code timeToLive} is negative
+	 */
+	public TemplateRegistry(PartialLoader loader, long timeToLive, TimeUnit unit, Executor executor) {
+		if (loader == null | unit == null) {
+			throw new NullPointerException();
+		}
+		if (timeToLive < 0) {
+			throw new IllegalArgumentException("Negative time to live : " + timeToLive);
+		}
+		this.loader = loader;
+		this.timeToLive = unit.toNanos(timeToLive);
+		this.executor = executor;
+	}
+	
+	/**
+	 * Returns a compiled template, compiling it if needed.
+	 * @param name the name of the template
+	 * @return a {@link Processor} for the calling thread
+	 * @throws ParseException if the template is not valid
+	 * @throws IOException if the template could not be loaded
+	 */
+	public Processor get(String name) throws ParseException, IOException {
+		if (name == null) {
+			throw new NullPointerException();
+		}
+		
+		TemplateMonitor monitor = TemplateMonitor.getActive();
+		Entry entry = entries.get(name);
+		
+		if (monitor != null) {
+			if (entry == null) {
+				monitor.cacheMiss(name);
+			} else {
+				monitor.cacheHit(name);
+			}
+		}
+		
+		if (entry == null) {
+			Entry newEntry = new Entry(name, null);
+			entry = entries.putIfAbsent(name, newEntry);
+			if (entry == null) {
+				entry = newEntry;
+				entry.task.run();
+			}
+		}
+		else if ( entry.isExpired() ) {
+			entry = revalidate(name, entry);
+		}
+		
+		return entry.getProcessor().copy();
+	}
+	
+	private Entry revalidate(String name, Entry entry) {
+		Entry newEntry = new Entry(name, entry.getLatestProcessor());
+		if ( !entries.replace(name, entry, newEntry) ) {
+			// another thread is already compiling it
+			Entry current = entries.get(name);
+			return current != null ? current : entry;
+		}
+		TemplateMonitor monitor = TemplateMonitor.getActive();
+		if (monitor != null) {
+			monitor.cacheEviction(name);
+		}
+		if (executor != null && newEntry.stale != null) {
+			executor.execute(newEntry.task);
+		} else {
+			newEntry.task.run();
+		}
+		return newEntry;
+	}
+	
+	/**
+	 * Invalidates a template, compiling it again the next time it is needed.
+	 * The invalidated template is still used until then.
+	 * @param name the name of the template
+	 */
+	public void invalidate(String name) {
+		Entry entry = entries.get(name);
+		if (entry != null) {
+			entry.invalidated = true;
+		}
+	}
+	
+	/**
+	 * Removes a template, which is then compiled from scratch the next time it
+	 * is needed.
+	 * @param name the name of the template
+	 */
+	public void remove(String name) {
+		Entry entry = entries.remove(name);
+		TemplateMonitor monitor = TemplateMonitor.getActive();
+		if (entry != null && monitor != null) {
+			monitor.cacheEviction(name);
+		}
+	}
+	
+	/**
+	 * Removes all templates.
+	 */
+	public void clear() {
+		if (TemplateMonitor.getActive() == null) {
+			entries.clear();
+			return;
+		}
+		for (String name : entries.keySet()) {
+			remove(name);
+		}
+	}
+	
+	/**
+	 * @return the number of templates, including the ones being compiled
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	private final class Entry {
+		private final String name;
+		private final FutureTask<Processor> task;
+		private final Processor stale;
+		private final long creation = System.nanoTime();
+		private volatile boolean invalidated = false;
+		
+		private Entry(final String name, Processor stale) {
+			this.name = name;
+			this.stale = stale;
+			this.task = new FutureTask<Processor>(new Callable<Processor>() {
+				public Processor call() throws ParseException, IOException {
+					Readable readable = loader.loadPartial(name);
+					try {
+						return Parser.parseTemplate(name, readable, loader);
+					} finally {
+						if (readable instanceof Closeable) {
+							((Closeable) readable).close();
+						}
+					}
+				}
+			});
+		}
+		
+		private boolean isExpired() {
+			// a failed attempt lives as long, instead of compiling the template on each call
+			return invalidated || timeToLive > 0 && System.nanoTime() - creation > timeToLive;
+		}
+		
+		/**
+		 * @return the latest processor available without waiting, or {@code null}
+		 */
+		private Processor getLatestProcessor() {
+			if ( task.isDone() ) {
+				try {
+					return task.get();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				catch (ExecutionException e) {
+					// falls back to the stale processor
+				}
+			}
+			return stale;
+		}
+		
+		private Processor getProcessor() throws ParseException, IOException {
+			if (stale != null && !task.isDone()) {
+				return stale;
+			}
+			try {
+				return task.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				IOException exception = new IOException("Interrupted while compiling template : " + name);
+				exception.initCause(e);
+				throw exception;
+			}
+			catch (ExecutionException e) {
+				if (stale != null) {
+					// the next attempt happens when this entry expires
+					return stale;
+				}
+				entries.remove(name, this);
+				throw unwrap(e.getCause());
+			}
+		}
+	}
+	
+	private static IOException unwrap(Throwable cause) throws ParseException {
+		if (cause instanceof ParseException) {
+			throw (ParseException) cause;
+		}
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		IOException exception = new IOException( cause.getMessage() );
+		exception.initCause(cause);
+		return exception;
+	}
+}
@@ -0,0 +1,457 @@
+package mustache.rendering;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mustache.core.OpenSection;
+import mustache.core.TemplateAnalysis;
+import mustache.core.TemplateAnalysis.Scope;
+import mustache.util.Accessor;
+import mustache.util.Interpolation;
+import mustache.util.Query;
+
+/**
+ * The {@code AccessPlan} class resolves the variables read by a template
+ * against the type of the data it is rendered with. Each scope of a
+ * {@link TemplateAnalysis} is given the declared type of its items, starting
+ * with the model type for the root scope and following the element types of
+ * collections and arrays for sections. Each path read in a scope is then
+ * bound to the scope where its base variable is found, and to the
+ * {@link Accessor}s of its variables.
+ * 
+ * <h4>Resolution</h4>
+ * 
+ * <p>
+ * Paths are resolved like {@link SectionStack} does at runtime, but against
+ * declared types rather than actual objects. A path is :
+ * <ul>
+ *  <li>{@link Binding.Kind#STATIC} if all its variables are members of
+ *  declared classes</li>
+ *  <li>{@link Binding.Kind#DYNAMIC} if it depends on a {@link Map}, an
+ *  interface or {@link Object}, whose variables are only known at runtime</li>
+ *  <li>{@link Binding.Kind#MISSING} if the declared types can not have its
+ *  variables, in which case it always renders as an empty value</li>
+ * </ul>
+ * Members added by subclasses of the declared types are ignored.
+ * </p>
+ * 
+ * <p>Instances of this class are immutable and can be shared safely among
+ * multiple threads.</p>
+ * 
+ * @author Dri
+ * @see TemplateAnalysis
+ * @see Interpolation
+ */
+public final class AccessPlan {
+
+	private static final Class<?>[] BASIC_CLASSES = {String.class, Boolean.class, Number.class, Character.class};
+	
+	private final TemplateAnalysis analysis;
+	private final Class<?> modelType;
+	private final Map<Scope, ScopePlan> plans = new IdentityHashMap<Scope, ScopePlan>();
+	private final List<Binding> missingBindings = new ArrayList<Binding>();
+	
+	private AccessPlan(TemplateAnalysis analysis, Class<?> modelType) {
+		this.analysis = analysis;
+		this.modelType = modelType;
+	}
+	
+	/**
+	 * Resolves the variables of a template against a model type.
+	 * @param analysis the analysis of the template
+	 * @param modelType the declared type of the data the template is rendered with
+	 * @return a newly created {@code AccessPlan}
+	 * @throws NullPointerException if {@code analysis} or {@code modelType} is {@code null}
+	 */
+	public static AccessPlan newInstance(TemplateAnalysis analysis, Class<?> modelType) {
+		if (analysis == null | modelType == null) {
+			throw new NullPointerException();
+		}
+		AccessPlan plan = new AccessPlan(analysis, modelType);
+		plan.resolve(analysis.getRootScope(), null, modelType, ItemKind.of(modelType));
+		return plan;
+	}
+	
+	private void resolve(Scope scope, ScopePlan parent, Type itemType, ItemKind itemKind) {
+		ScopePlan plan = new ScopePlan(parent, itemType, itemKind);
+		plans.put(scope, plan);
+		
+		for (Query query : scope.getQueries()) {
+			Binding binding = plan.bindingsByPath.get( query.toString() );
+			if (binding == null) {
+				binding = bind(scope, plan, query);
+				plan.bindingsByPath.put(query.toString(), binding);
+				if (binding.kind == Binding.Kind.MISSING) {
+					missingBindings.add(binding);
+				}
+			}
+			plan.bindingsByQuery.put(query, binding);
+		}
+		
+		for (Scope nestedScope : scope.getScopes()) {
+			OpenSection section = nestedScope.getSection();
+			Binding binding = plan.bindingsByPath.get( section.getName() );
+			
+			if ( section.isInverted() ) {
+				resolve(nestedScope, plan, null, ItemKind.EMPTY);
+			}
+			else if (binding.kind != Binding.Kind.STATIC) {
+				resolve(nestedScope, plan, null, ItemKind.DYNAMIC);
+			}
+			else {
+				Class<?> type = getRawType(binding.type);
+				if ( Lambda.class.isAssignableFrom(type) ) {
+					// never entered, its text is rendered by the lambda
+					resolve(nestedScope, plan, null, ItemKind.DYNAMIC);
+				}
+				else {
+					Type elementType = getElementType(binding.type);
+					resolve(nestedScope, plan, elementType, ItemKind.of(elementType));
+				}
+			}
+		}
+	}
+	
+	private static Binding bind(Scope scope, ScopePlan plan, Query query) {
+		String path = query.toString();
+		int depth = 0;
+		
+		if ( query.isSelf() ) {
+			for (ScopePlan p = plan; p != null; p = p.parent, depth++) {
+				if (p.itemKind != ItemKind.EMPTY) {
+					Type type = p.itemType == null ? Object.class : p.itemType;
+					return new Binding(scope, path, Binding.Kind.STATIC, depth, type, new Accessor[0], Object.class);
+				}
+			}
+			return new Binding(scope, path, Binding.Kind.MISSING, -1, null, null, null);
+		}
+		
+		String[] names = Interpolation.split(path);
+		
+		for (ScopePlan p = plan; p != null; p = p.parent, depth++) {
+			if (p.itemKind == ItemKind.DYNAMIC) {
+				return new Binding(scope, path, Binding.Kind.DYNAMIC, -1, null, null, null);
+			}
+			if (p.itemKind != ItemKind.STATIC) {
+				continue;
+			}
+			Class<?> itemClass = getRawType(p.itemType);
+			Accessor base = Accessor.forVariable(itemClass, names[0]);
+			if (base != null) {
+				return bind(scope, path, names, depth, base, itemClass);
+			}
+		}
+		
+		return new Binding(scope, path, Binding.Kind.MISSING, -1, null, null, null);
+	}
+	
+	private static Binding bind(Scope scope, String path, String[] names, int depth, Accessor base, Class<?> itemClass) {
+		Accessor[] accessors = new Accessor[names.length];
+		accessors[0] = base;
+		Type type = base.getType();
+		
+		for (int i = 1; i < names.length; i++) {
+			Class<?> rawType = getRawType(type);
+			if ( rawType.isArray() || Collection.class.isAssignableFrom(rawType) ) {
+				return new Binding(scope, path, Binding.Kind.MISSING, -1, null, null, null);
+			}
+			if ( isDynamic(rawType) ) {
+				return new Binding(scope, path, Binding.Kind.DYNAMIC, -1, null, null, null);
+			}
+			accessors[i] = Accessor.forVariable(rawType, names[i]);
+			if (accessors[i] == null) {
+				return new Binding(scope, path, Binding.Kind.MISSING, -1, null, null, null);
+			}
+			type = accessors[i].getType();
+		}
+		
+		return new Binding(scope, path, Binding.Kind.STATIC, depth, type, accessors, itemClass);
+	}
+	
+	/**
+	 * @return the analysis of the template
+	 */
+	public TemplateAnalysis getAnalysis() {
+		return analysis;
+	}
+	
+	/**
+	 * @return the declared type of the data the template is rendered with
+	 */
+	public Class<?> getModelType() {
+		return modelType;
+	}
+	
+	/**
+	 * Returns the binding of a query read in a scope.
+	 * @param scope a scope of the analysis
+	 * @param query one of the queries read in the scope
+	 * @return the binding of the query, or {@code null} if the query is not
+	 * read in the scope
+	 * @see Scope#getQueries()
+	 */
+	public Binding getBinding(Scope scope, Query query) {
+		ScopePlan plan = plans.get(scope);
+		return plan == null ? null : plan.bindingsByQuery.get(query);
+	}
+	
+	/**
+	 * Returns the binding of a path read in a scope.
+	 * @param scope a scope of the analysis
+	 * @param path one of the paths read in the scope
+	 * @return the binding of the path, or {@code null} if the path is not
+	 * read in the scope
+	 * @see Scope#getPaths()
+	 */
+	public Binding getBinding(Scope scope, String path) {
+		ScopePlan plan = plans.get(scope);
+		return plan == null ? null : plan.bindingsByPath.get(path);
+	}
+	
+	/**
+	 * Returns the declared type of the items of a scope, that is the model
+	 * type for the root scope and the type of the items a section iterates
+	 * over otherwise.
+	 * @param scope a scope of the analysis
+	 * @return the declared type, or {@code null} if it is unknown
+	 */
+	public Type getItemType(Scope scope) {
+		ScopePlan plan = plans.get(scope);
+		return plan == null ? null : plan.itemType;
+	}
+	
+	/**
+	 * @return the bindings of the paths that can not be resolved, one per path and scope
+	 */
+	public List<Binding> getMissingBindings() {
+		return Collections.unmodifiableList(missingBindings);
+	}
+	
+	private static boolean isDynamic(Class<?> type) {
+		return type == Object.class || type.isInterface() || Map.class.isAssignableFrom(type);
+	}
+	
+	private static Class<?> getRawType(Type type) {
+		if (type instanceof Class) {
+			return box((Class<?>) type);
+		}
+		if (type instanceof ParameterizedType) {
+			return getRawType( ((ParameterizedType) type).getRawType() );
+		}
+		if (type instanceof GenericArrayType) {
+			Class<?> componentType = getRawType( ((GenericArrayType) type).getGenericComponentType() );
+			return Array.newInstance(componentType, 0).getClass();
+		}
+		if (type instanceof WildcardType) {
+			return getRawType( ((WildcardType) type).getUpperBounds()[0] );
+		}
+		if (type instanceof TypeVariable) {
+			return getRawType( ((TypeVariable<?>) type).getBounds()[0] );
+		}
+		return Object.class;
+	}
+	
+	private static Class<?> box(Class<?> type) {
+		if ( !type.isPrimitive() ) {
+			return type;
+		}
+		if (type == boolean.class) {
+			return Boolean.class;
+		}
+		if (type == char.class) {
+			return Character.class;
+		}
+		// the other primitive types are numbers
+		return Number.class;
+	}
+	
+	/**
+	 * Returns the type of the items a section iterates over, or the type
+	 * itself for a single item.
+	 */
+	private static Type getElementType(Type type) {
+		if (type instanceof GenericArrayType) {
+			return ((GenericArrayType) type).getGenericComponentType();
+		}
+		Class<?> rawType = getRawType(type);
+		if ( rawType.isArray() ) {
+			return rawType.getComponentType();
+		}
+		if ( !Collection.class.isAssignableFrom(rawType) ) {
+			return type;
+		}
+		if (type instanceof ParameterizedType) {
+			Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+			if (arguments.length == 1) {
+				return arguments[0];
+			}
+		}
+		return Object.class;
+	}
+	
+	/**
+	 * The kind of the items of a scope.
+	 */
+	private enum ItemKind {
+		/** items with variables resolved against their declared class */
+		STATIC,
+		/** items with variables only known at runtime */
+		DYNAMIC,
+		/** items with no variable, such as strings and numbers */
+		BASIC,
+		/** no item at all, as in inverted sections */
+		EMPTY;
+		
+		private static ItemKind of(Type type) {
+			Class<?> rawType = getRawType(type);
+			if ( rawType.isArray() || Collection.class.isAssignableFrom(rawType) ) {
+				return BASIC;
+			}
+			for (Class<?> basicClass : BASIC_CLASSES) {
+				if ( basicClass.isAssignableFrom(rawType) ) {
+					return BASIC;
+				}
+			}
+			return isDynamic(rawType) ? DYNAMIC : STATIC;
+		}
+	}
+	
+	private static final class ScopePlan {
+		private final ScopePlan parent;
+		private final Type itemType;
+		private final ItemKind itemKind;
+		private final Map<Query, Binding> bindingsByQuery = new IdentityHashMap<Query, Binding>();
+		private final Map<String, Binding> bindingsByPath = new HashMap<String, Binding>();
+		
+		private ScopePlan(ScopePlan parent, Type itemType, ItemKind itemKind) {
+			this.parent = parent;
+			this.itemType = itemType;
+			this.itemKind = itemKind;
+		}
+	}
+	
+	/**
+	 * The {@code Binding} class holds the resolution of a path read in a scope.
+	 */
+	public static final class Binding {
+		
+		/**
+		 * The kinds of resolution of a path.
+		 */
+		public enum Kind {
+			/** resolved against declared classes */
+			STATIC,
+			/** only known at runtime */
+			DYNAMIC,
+			/** never resolved */
+			MISSING
+		}
+		
+		private final Scope scope;
+		private final String path;
+		private final Kind kind;
+		private final int depth;
+		private final Type type;
+		private final Accessor[] accessors;
+		private final Class<?> itemClass;
+		
+		private Binding(Scope scope, String path, Kind kind, int depth, Type type, Accessor[] accessors, Class<?> itemClass) {
+			this.scope = scope;
+			this.path = path;
+			this.kind = kind;
+			this.depth = depth;
+			this.type = type;
+			this.accessors = accessors;
+			this.itemClass = itemClass;
+		}
+		
+		/**
+		 * @return the scope the path is read in
+		 */
+		public Scope getScope() {
+			return scope;
+		}
+		
+		/**
+		 * @return the path
+		 */
+		public String getPath() {
+			return path;
+		}
+		
+		/**
+		 * @return the kind of resolution of the path
+		 */
+		public Kind getKind() {
+			return kind;
+		}
+		
+		/**
+		 * Returns the number of scopes between the scope the path is read in
+		 * and the scope its base variable is found in.
+		 * @return the depth of the base variable, {@code -1} unless the path is {@link Kind#STATIC}
+		 */
+		public int getDepth() {
+			return depth;
+		}
+		
+		/**
+		 * @return the declared type of the value, {@code null} unless the path is {@link Kind#STATIC}
+		 */
+		public Type getType() {
+			return type;
+		}
+		
+		/**
+		 * Indicates whether the item of the scope found at {@link #getDepth()}
+		 * is an instance of the class the path was resolved against.
+		 * @param item the item of the scope
+		 * @return {@code true} if {@link #get(Object)} can read the value
+		 * @throws IllegalStateException unless the path is {@link Kind#STATIC}
+		 */
+		public boolean accepts(Object item) {
+			if (kind != Kind.STATIC) {
+				throw new IllegalStateException("Not bound : " + path);
+			}
+			return itemClass.isInstance(item);
+		}
+		
+		/**
+		 * Reads the value of the path.
+		 * @param item the item of the scope found at {@link #getDepth()}
+		 * @return the value, or {@code null} if it failed
+		 * @throws IllegalStateException unless the path is {@link Kind#STATIC}
+		 * @see #accepts(Object)
+		 */
+		public Object get(Object item) {
+			if (kind != Kind.STATIC) {
+				throw new IllegalStateException("Not bound : " + path);
+			}
+			Object value = item;
+			for (Accessor accessor : accessors) {
+				if (value == null) {
+					return null;
+				}
+				value = accessor.get(value);
+			}
+			return value;
+		}
+		
+		@Override
+		public String toString() {
+			String scopeName = scope.getSection() == null ? "" : " in section " + scope.getSection().getName();
+			return kind + " " + path + scopeName + (kind == Kind.STATIC ? " at depth " + depth : "");
+		}
+	}
+}
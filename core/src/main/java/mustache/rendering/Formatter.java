@@ -0,0 +1,26 @@
+package mustache.rendering;
+
+import java.io.IOException;
+
+/**
+ * A {@code Formatter} writes the values of variables of a given type in place
+ * of their {@code toString()} method. It writes directly to the output, which
+ * escapes the characters written for escaped variables.
+ * 
+ * <p>Formatters are shared by concurrent renderings, and must therefore be
+ * safe for use by multiple threads.</p>
+ * 
+ * @author Dri
+ * @param <T> the type of the values
+ * @see FormatterRegistry
+ */
+public interface Formatter<T> {
+	
+	/**
+	 * Writes a value.
+	 * @param value the value, never {@code null}
+	 * @param output the output of the rendering
+	 * @throws IOException if the output failed
+	 */
+	void format(T value, Appendable output) throws IOException;
+}
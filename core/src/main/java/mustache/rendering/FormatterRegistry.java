@@ -0,0 +1,139 @@
+package mustache.rendering;
+
+import java.io.IOException;
+import java.text.Format;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@code FormatterRegistry} class holds the {@link Formatter}s of the
+ * values of variables, keyed by type. A value is written by the formatter of
+ * its class, or else of its closest superclass, or else of the first of its
+ * interfaces found breadth first. Values without formatter are written as
+ * usual.
+ * 
+ * <p>
+ * The formatter of a class is resolved once, the first time a value of this
+ * class is written, so that finding a formatter is a single {@link java.util.Map}
+ * probe afterwards, even for classes without formatter.
+ * </p>
+ * 
+ * <p>This class can be used safely by multiple threads, though formatters are
+ * meant to be registered before rendering.</p>
+ * 
+ * @author Dri
+ * @see mustache.RenderOptions#setFormatterRegistry(FormatterRegistry)
+ */
+public final class FormatterRegistry {
+
+	private static final Formatter<Object> NO_FORMATTER = new Formatter<Object>() {
+		public void format(Object value, Appendable output) {
+			throw new UnsupportedOperationException();
+		}
+	};
+	
+	private final ConcurrentMap<Class<?>, Formatter<?>> formatters = new ConcurrentHashMap<Class<?>, Formatter<?>>();
+	private final ConcurrentMap<Class<?>, Formatter<?>> resolvedFormatters = new ConcurrentHashMap<Class<?>, Formatter<?>>();
+	
+	/**
+	 * Registers the formatter of a type, replacing the previous one if any.
+	 * @param type the type of the values, which can be an interface
+	 * @param formatter the formatter
+	 * @return this {@code FormatterRegistry} object
+	 */
+	public <T> FormatterRegistry register(Class<T> type, Formatter<? super T> formatter) {
+		if (type == null | formatter == null) {
+			throw new NullPointerException();
+		}
+		formatters.put(type, formatter);
+		resolvedFormatters.clear();
+		return this;
+	}
+	
+	/**
+	 * Registers a {@link Format}, such as a {@link java.text.DateFormat}, as
+	 * the formatter of a type. Since formats are not thread-safe, each thread
+	 * uses its own clone of the format.
+	 * @param type the type of the values, which can be an interface
+	 * @param format the format
+	 * @return this {@code FormatterRegistry} object
+	 */
+	public <T> FormatterRegistry register(Class<T> type, Format format) {
+		if (format == null) {
+			throw new NullPointerException();
+		}
+		return register(type, new FormatFormatter(format));
+	}
+	
+	/**
+	 * Returns the formatter of the values of a class.
+	 * @param type the class of the values
+	 * @return the formatter, or {@code null} if there is none
+	 */
+	public Formatter<Object> getFormatter(Class<?> type) {
+		Formatter<?> formatter = resolvedFormatters.get(type);
+		if (formatter == null) {
+			formatter = resolve(type);
+			resolvedFormatters.put(type, formatter);
+		}
+		return formatter == NO_FORMATTER ? null : cast(formatter);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Formatter<Object> cast(Formatter<?> formatter) {
+		// formatters are registered for supertypes of the classes they are resolved for
+		return (Formatter<Object>) formatter;
+	}
+	
+	private Formatter<?> resolve(Class<?> type) {
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			Formatter<?> formatter = formatters.get(c);
+			if (formatter != null) {
+				return formatter;
+			}
+		}
+		
+		Deque<Class<?>> interfaces = new ArrayDeque<Class<?>>();
+		for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+			for (Class<?> i : c.getInterfaces()) {
+				interfaces.add(i);
+			}
+		}
+		while ( !interfaces.isEmpty() ) {
+			Class<?> i = interfaces.poll();
+			Formatter<?> formatter = formatters.get(i);
+			if (formatter != null) {
+				return formatter;
+			}
+			for (Class<?> superInterface : i.getInterfaces()) {
+				interfaces.add(superInterface);
+			}
+		}
+		
+		return NO_FORMATTER;
+	}
+	
+	/**
+	 * Formats values with thread-local clones of a {@link Format}.
+	 */
+	private static final class FormatFormatter implements Formatter<Object> {
+		private final ThreadLocal<Format> formats;
+		
+		private FormatFormatter(final Format format) {
+			this.formats = new ThreadLocal<Format>() {
+				@Override
+				protected Format initialValue() {
+					synchronized (format) {
+						return (Format) format.clone();
+					}
+				}
+			};
+		}
+		
+		public void format(Object value, Appendable output) throws IOException {
+			output.append( formats.get().format(value) );
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package mustache.rendering;
+
+import java.io.IOException;
+
+/**
+ * A {@code Fragment} renders templates within the context of a {@link Lambda}
+ * call. It is only valid during the call it was given to.
+ * 
+ * @author Dri
+ * @see Lambda#apply(String, Fragment)
+ */
+public interface Fragment {
+	
+	/**
+	 * Renders a template in the current context.
+	 * @param template the template to render
+	 * @return the rendered template
+	 * @throws IOException if the rendering failed
+	 * @throws IllegalArgumentException if the template is not valid
+	 */
+	String render(String template) throws IOException;
+}
@@ -0,0 +1,28 @@
+package mustache.rendering;
+
+import java.io.IOException;
+
+/**
+ * A {@code Lambda} is a functional variable. When a section's variable is a
+ * {@code Lambda}, the section is not rendered : the {@code Lambda} receives
+ * its raw text instead and the returned text is appended to the output as is.
+ * When a regular variable is a {@code Lambda}, it receives an empty text and
+ * the returned text is escaped like any other value.
+ * 
+ * <p>The {@link Fragment} lets the {@code Lambda} render the raw text, or any
+ * other template, in the current context.</p>
+ * 
+ * @author Dri
+ * @see MemoizedLambda
+ */
+public interface Lambda {
+	
+	/**
+	 * Applies the {@code Lambda} to the raw text of a section.
+	 * @param text the raw text of the section
+	 * @param fragment the means to render templates in the current context
+	 * @return the text to append
+	 * @throws IOException if the rendering of a fragment failed
+	 */
+	CharSequence apply(String text, Fragment fragment) throws IOException;
+}
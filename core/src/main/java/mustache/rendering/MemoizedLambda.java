@@ -0,0 +1,69 @@
+package mustache.rendering;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The {@code MemoizedLambda} class is a {@link Lambda} transforming the
+ * rendered text of its sections, for instance formatting markdown or looking
+ * up translations. Transformations are cached by input, so that an expensive
+ * one happens once per distinct rendered text as long as it remains among the
+ * most recently used ones.
+ * 
+ * <p>Transformations must only depend on their input. Instances of this class
+ * can be shared safely among multiple threads.</p>
+ * 
+ * @author Dri
+ */
+public abstract class MemoizedLambda implements Lambda {
+	
+	private final Map<String, String> cache;
+	
+	/**
+	 * @param maxSize the maximum number of transformations to cache
+	 * @throws IllegalArgumentException if {@code maxSize} is not positive
+	 */
+	protected MemoizedLambda(final int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Invalid size : " + maxSize);
+		}
+		this.cache = new LinkedHashMap<String, String>(16, .75F, true) {
+			private static final long serialVersionUID = 3431046214290183127L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * Renders the section and transforms the result unless it is cached.
+	 */
+	public final CharSequence apply(String text, Fragment fragment) throws IOException {
+		String input = fragment.render(text);
+		String output;
+		
+		synchronized (cache) {
+			output = cache.get(input);
+		}
+		
+		if (output == null) {
+			output = transform(input).toString();
+			synchronized (cache) {
+				cache.put(input, output);
+			}
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * Transforms the rendered text of a section.
+	 * @param input the rendered text
+	 * @return the transformed text
+	 * @throws IOException if the transformation failed
+	 */
+	protected abstract CharSequence transform(String input) throws IOException;
+}
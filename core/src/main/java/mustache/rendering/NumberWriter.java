@@ -0,0 +1,199 @@
+package mustache.rendering;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.CharBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code NumberWriter} class writes numbers to an output without creating
+ * intermediate {@link String}s. The output is the same as the one of their
+ * {@code toString()} methods.
+ * 
+ * <p>
+ * Numbers of the standard library, as well as booleans, never contain
+ * characters with a special meaning in HTML, and are therefore written as is
+ * by {@link #append(Object, Appendable)}.
+ * </p>
+ * 
+ * <p>
+ * The digits of a number are formatted into a buffer owned by the writer, and
+ * then appended to the output with a single call, so a renderer keeps its own
+ * writer. The static methods use a new writer on each call.
+ * </p>
+ * 
+ * <p>This class is not meant to be used concurrently by several threads.</p>
+ * 
+ * @author Dri
+ */
+public final class NumberWriter {
+
+	// doubles and floats below are written without exponent by toString()
+	private static final double PLAIN_LIMIT = 1e7;
+	
+	// the sign and the 19 digits of Long.MIN_VALUE
+	private static final int MAX_LENGTH = 20;
+	
+	private final char[] digits = new char[MAX_LENGTH];
+	private final CharBuffer buffer = CharBuffer.wrap(digits);
+	
+	/**
+	 * Creates a {@code NumberWriter}.
+	 */
+	public NumberWriter() {}
+	
+	/**
+	 * Writes a value that never needs escaping.
+	 * @param value the value
+	 * @param appendable the output
+	 * @return {@code false} if the value was not written, because it is not a
+	 * number of the standard library nor a boolean
+	 * @throws IOException if the output failed
+	 */
+	public boolean append(Object value, Appendable appendable) throws IOException {
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			appendLong(((Number) value).intValue(), appendable);
+		}
+		else if (value instanceof Long) {
+			appendLong((Long) value, appendable);
+		}
+		else if (value instanceof Double) {
+			appendDouble((Double) value, appendable);
+		}
+		else if (value instanceof Float) {
+			appendFloat((Float) value, appendable);
+		}
+		else if (value instanceof Boolean || value instanceof BigInteger || value instanceof BigDecimal
+				|| value instanceof AtomicInteger || value instanceof AtomicLong) {
+			appendable.append( value.toString() );
+		}
+		else {
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes an integer like {@link Long#toString(long)}.
+	 * @param value the integer
+	 * @param appendable the output
+	 * @throws IOException if the output failed
+	 */
+	public void appendLong(long value, Appendable appendable) throws IOException {
+		appendable.append(buffer, formatLong(value, MAX_LENGTH), MAX_LENGTH);
+	}
+	
+	/**
+	 * Formats an integer at the end of the digits.
+	 * @return the start of the formatted integer
+	 */
+	private int formatLong(long value, int end) {
+		// digits are computed on the negative value, in order to handle Long.MIN_VALUE
+		long remaining = value < 0 ? value : -value;
+		int start = end;
+		do {
+			long quotient = remaining / 10;
+			digits[--start] = (char) ('0' + quotient * 10 - remaining);
+			remaining = quotient;
+		} while (remaining < 0);
+		
+		if (value < 0) {
+			digits[--start] = '-';
+		}
+		return start;
+	}
+	
+	/**
+	 * Writes a double like {@link Double#toString(double)}. Only integral
+	 * values written without exponent are written without creating a
+	 * {@link String}.
+	 * @param value the double
+	 * @param appendable the output
+	 * @throws IOException if the output failed
+	 */
+	public void appendDouble(double value, Appendable appendable) throws IOException {
+		if ( isPlainIntegral(value) ) {
+			appendPlainIntegral((long) value, appendable);
+		} else {
+			appendable.append( Double.toString(value) );
+		}
+	}
+	
+	/**
+	 * Writes a float like {@link Float#toString(float)}. Only integral values
+	 * written without exponent are written without creating a {@link String}.
+	 * @param value the float
+	 * @param appendable the output
+	 * @throws IOException if the output failed
+	 */
+	public void appendFloat(float value, Appendable appendable) throws IOException {
+		if ( isPlainIntegral(value) ) {
+			appendPlainIntegral((long) value, appendable);
+		} else {
+			appendable.append( Float.toString(value) );
+		}
+	}
+	
+	private void appendPlainIntegral(long value, Appendable appendable) throws IOException {
+		// below PLAIN_LIMIT, the integer and its decimal part fit in the digits
+		digits[MAX_LENGTH - 2] = '.';
+		digits[MAX_LENGTH - 1] = '0';
+		appendable.append(buffer, formatLong(value, MAX_LENGTH - 2), MAX_LENGTH);
+	}
+	
+	private static boolean isPlainIntegral(double value) {
+		return value == (long) value && Math.abs(value) < PLAIN_LIMIT && !isNegativeZero(value);
+	}
+	
+	private static boolean isNegativeZero(double value) {
+		return value == 0 && 1 / value < 0;
+	}
+	
+	/**
+	 * Writes a value that never needs escaping.
+	 * @param value the value
+	 * @param appendable the output
+	 * @return {@code false} if the value was not written, because it is not a
+	 * number of the standard library nor a boolean
+	 * @throws IOException if the output failed
+	 * @see #append(Object, Appendable)
+	 */
+	public static boolean write(Object value, Appendable appendable) throws IOException {
+		return new NumberWriter().append(value, appendable);
+	}
+	
+	/**
+	 * Writes an integer like {@link Long#toString(long)}.
+	 * @param value the integer
+	 * @param appendable the output
+	 * @throws IOException if the output failed
+	 * @see #appendLong(long, Appendable)
+	 */
+	public static void writeLong(long value, Appendable appendable) throws IOException {
+		new NumberWriter().appendLong(value, appendable);
+	}
+	
+	/**
+	 * Writes a double like {@link Double#toString(double)}.
+	 * @param value the double
+	 * @param appendable the output
+	 * @throws IOException if the output failed
+	 * @see #appendDouble(double, Appendable)
+	 */
+	public static void writeDouble(double value, Appendable appendable) throws IOException {
+		new NumberWriter().appendDouble(value, appendable);
+	}
+	
+	/**
+	 * Writes a float like {@link Float#toString(float)}.
+	 * @param value the float
+	 * @param appendable the output
+	 * @throws IOException if the output failed
+	 * @see #appendFloat(float, Appendable)
+	 */
+	public static void writeFloat(float value, Appendable appendable) throws IOException {
+		new NumberWriter().appendFloat(value, appendable);
+	}
+}
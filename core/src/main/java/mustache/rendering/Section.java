@@ -10,11 +10,16 @@ import java.util.List;
 import java.util.Queue;
 
 import mustache.util.Context;
+import mustache.util.Interpolation;
+import mustache.util.Query;
 
 final class Section {
 	
+	private static final Query SELF = Query.compile(Context.SELF);
+	
 	private final String name;
 	private final Queue<Context> contexts = new LinkedList<Context>();
+	private int size = 0;
 	
 	private Section(String name) {
 		this.name = name;
@@ -24,31 +29,42 @@ final class Section {
 		Context context = Context.newInstance(root);
 		Section section = new Section(null);
 		section.contexts.add(context);
+		section.size = 1;
 		return section;
 	}
 	
 	static Section nestedSection(String name, List<Context> contexts) {
 		Section section = new Section(name);
 		section.contexts.addAll(contexts);
+		section.size = contexts.size();
 		return section;
 	}
-
-	boolean hasBaseVariable(String query) {
-	    if ( contexts.isEmpty() ) {
-	        return false;
-	    }
-		return contexts.element().hasBaseVariable(query);
+	
+	/**
+	 * @return the index of the current item of the section
+	 */
+	int getIndex() {
+		return size - contexts.size();
 	}
 
-	Object getVariable(String query) {
-        if ( contexts.isEmpty() ) {
-            return null;
-        }
-		return contexts.element().interpolate(query);
+	/**
+	 * @return the current item of the section, {@code null} if there is none
+	 */
+	Object getItem() {
+		if ( contexts.isEmpty() ) {
+			return null;
+		}
+		return contexts.element().lookup(SELF);
+	}
+	
+	Object lookup(Query query) {
+		if ( contexts.isEmpty() ) {
+			return Interpolation.UNDEFINED;
+		}
+		return contexts.element().lookup(query);
 	}
 
-	Section open(String query, boolean inverted) {
-		Object value = getVariable(query);
+	static Section open(String query, Object value, boolean inverted) {
 		List<Context> contexts = Context.newInstances( coerce(value) );
 		if (contexts.isEmpty() ^ inverted) {
 			return null;
@@ -56,7 +72,7 @@ final class Section {
 		return nestedSection(query, contexts);
 	}
 	
-	private List<?> coerce(Object value) {
+	private static List<?> coerce(Object value) {
 		// FIXME check if empty lists actually work
 		if (value == null) {
 			return Collections.emptyList();
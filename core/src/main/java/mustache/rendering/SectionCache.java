@@ -0,0 +1,158 @@
+package mustache.rendering;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import mustache.core.OpenSection;
+
+/**
+ * The {@code SectionCache} class holds the output of cached sections. Entries
+ * are keyed by section, partial indentation and the values of the section's
+ * dependencies. They expire after a fixed time to live, and the least recently
+ * used ones are evicted once the cache is full.
+ * 
+ * <p>
+ * Values are compared with {@link Object#equals(Object)}, cached sections are
+ * therefore expected to read immutable data, or data whose equality reflects
+ * its contents. Instances of this class can be shared safely among multiple
+ * threads.
+ * </p>
+ * 
+ * <p>
+ * The keys hold strong references to the values they were created with, which
+ * stay reachable as long as their output is cached, expired or not, until it
+ * is evicted or {@link #clear()}ed. Sections depending on large values, such
+ * as the whole model of a request, should rather depend on smaller ones, and
+ * the size of the cache should account for the values it retains.
+ * </p>
+ * 
+ * @author Dri
+ * @see OpenSection#isCached()
+ */
+public final class SectionCache {
+
+	private final Map<Key, Output> outputs;
+	private final long timeToLive;
+	
+	/**
+	 * Creates a {@code SectionCache}.
+	 * @param maxSize the maximum number of outputs to cache, each of them holding
+	 * strong references to the values of its section's dependencies
+	 * @param timeToLive the time to live of the outputs
+	 * @param unit the unit of {@code timeToLive}
+	 * @throws IllegalArgumentException if {@code maxSize} or {@code timeToLive} is not positive
+	 */
+	public SectionCache(final int maxSize, long timeToLive, TimeUnit unit) {
+		if (maxSize <= 0 || timeToLive <= 0) {
+			throw new IllegalArgumentException("Invalid size or time to live : " + maxSize + ", " + timeToLive);
+		}
+		this.timeToLive = unit.toNanos(timeToLive);
+		this.outputs = new LinkedHashMap<Key, Output>(16, .75F, true) {
+			private static final long serialVersionUID = -2968730722373766021L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Output> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * Creates the key of a section's output.
+	 * @param section the cached section
+	 * @param indentation the indentation of the partial containing the section
+	 * @param values the values of the section's dependencies
+	 * @return a newly created key
+	 * @see OpenSection#getDependencies()
+	 */
+	public Object newKey(OpenSection section, String indentation, Object[] values) {
+		return new Key(section, indentation, values);
+	}
+	
+	/**
+	 * @param key the key of the output
+	 * @return the cached output or {@code null} if it is missing or expired
+	 */
+	public String get(Object key) {
+		synchronized (outputs) {
+			Output output = outputs.get(key);
+			if (output == null) {
+				return null;
+			}
+			if (System.nanoTime() - output.expiration > 0) {
+				outputs.remove(key);
+				return null;
+			}
+			return output.text;
+		}
+	}
+	
+	/**
+	 * @param key the key of the output
+	 * @param output the output of the section
+	 */
+	public void put(Object key, String output) {
+		Output cachedOutput = new Output(output, System.nanoTime() + timeToLive);
+		synchronized (outputs) {
+			outputs.put((Key) key, cachedOutput);
+		}
+	}
+	
+	/**
+	 * @return the number of cached outputs, including expired ones
+	 */
+	public int size() {
+		synchronized (outputs) {
+			return outputs.size();
+		}
+	}
+	
+	/**
+	 * Removes all the cached outputs.
+	 */
+	public void clear() {
+		synchronized (outputs) {
+			outputs.clear();
+		}
+	}
+	
+	private static final class Output {
+		private final String text;
+		private final long expiration;
+		
+		private Output(String text, long expiration) {
+			this.text = text;
+			this.expiration = expiration;
+		}
+	}
+	
+	private static final class Key {
+		private final OpenSection section;
+		private final String indentation;
+		private final Object[] values;
+		private final int hashCode;
+		
+		private Key(OpenSection section, String indentation, Object[] values) {
+			this.section = section;
+			this.indentation = indentation;
+			this.values = values;
+			this.hashCode = 31 * (31 * System.identityHashCode(section) + indentation.hashCode()) + Arrays.hashCode(values);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if ( !(obj instanceof Key) ) {
+				return false;
+			}
+			Key key = (Key) obj;
+			return section == key.section && indentation.equals(key.indentation) && Arrays.equals(values, key.values);
+		}
+	}
+}
@@ -1,58 +1,178 @@
 package mustache.rendering;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 
 import mustache.core.CloseSection;
 import mustache.core.OpenSection;
+import mustache.core.TemplateAnalysis.Scope;
+import mustache.rendering.AccessPlan.Binding;
+import mustache.util.Interpolation;
+import mustache.util.Query;
 
 public class SectionStack {
 	
 	private final Deque<Section> sections;
+	private final AccessPlan plan;
+	// the scopes of the sections, or null for sections the plan does not know
+	private final List<Scope> scopes;
 	
 	public SectionStack(Object root) {
+		this(root, null);
+	}
+	
+	/**
+	 * Creates a {@code SectionStack} looking up variables with an
+	 * {@link AccessPlan}. Queries bound by the plan are read from the item of
+	 * their scope directly, without searching the stack. Other queries, and
+	 * items not matching their declared type, are looked up as usual.
+	 * @param root the data
+	 * @param plan the plan of the template, or {@code null}
+	 */
+	public SectionStack(Object root, AccessPlan plan) {
 		this.sections = new ArrayDeque<Section>();
 		this.sections.push( Section.rootSection(root) );
+		this.plan = plan;
+		this.scopes = plan == null ? null : new ArrayList<Scope>();
+		if (plan != null) {
+			this.scopes.add( plan.getAnalysis().getRootScope() );
+		}
+	}
+	
+	private SectionStack(SectionStack stack) {
+		this.sections = new ArrayDeque<Section>(stack.sections);
+		this.plan = stack.plan;
+		this.scopes = stack.scopes == null ? null : new ArrayList<Scope>(stack.scopes);
+	}
+	
+	/**
+	 * Creates a {@code SectionStack} sharing the sections of this one. It
+	 * can be used by another thread, provided that this stack is not modified
+	 * meanwhile.
+	 * @return a newly created {@code SectionStack}
+	 */
+	public SectionStack copy() {
+		return new SectionStack(this);
+	}
+	
+	/**
+	 * Creates a {@code SectionStack} sharing the sections of this one, with a
+	 * section opened over some items of a list. Several threads can render
+	 * parts of a list this way, provided that this stack is not modified
+	 * meanwhile.
+	 * @param instruction the section to open
+	 * @param items the items of the section
+	 * @return a newly created {@code SectionStack}, or {@code null} if there is no item
+	 */
+	public SectionStack forkSection(OpenSection instruction, List<?> items) {
+		if ( instruction.isInverted() ) {
+			throw new IllegalArgumentException("Inverted section : " + instruction.getName());
+		}
+		SectionStack stack = new SectionStack(this);
+		return stack.openSection(instruction, items) ? stack : null;
 	}
 	
-	private Section findSection(String query, boolean inverted) {
+	private Object lookup(Query query) {
+		if (plan != null) {
+			Binding binding = getBinding(query);
+			if (binding != null) {
+				Object item = getItem( binding.getDepth() );
+				if ( binding.accepts(item) ) {
+					return binding.get(item);
+				}
+			}
+		}
 		for (Section section : sections) {
-			if (section.hasBaseVariable(query)) {
-				return section;
+			Object value = section.lookup(query);
+			if (value != Interpolation.UNDEFINED) {
+				return value;
 			}
 		}
-		return inverted ? sections.element() : null;
+		return Interpolation.UNDEFINED;
 	}
 	
-	public String getValue(String query) {
-		Section section = findSection(query, false);
-		if (section == null) {
-			return "";
+	private Binding getBinding(Query query) {
+		Scope scope = scopes.get(scopes.size() - 1);
+		if (scope == null) {
+			return null;
+		}
+		Binding binding = plan.getBinding(scope, query);
+		return binding == null || binding.getKind() != Binding.Kind.STATIC ? null : binding;
+	}
+	
+	private Object getItem(int depth) {
+		Iterator<Section> iterator = sections.iterator();
+		for (int i = 0; i < depth; i++) {
+			iterator.next();
 		}
-		Object value = section.getVariable(query);
+		return iterator.next().getItem();
+	}
+	
+	public String getValue(String query) {
+		return getValue( Query.compile(query) );
+	}
+	
+	public String getValue(Query query) {
+		Object value = getVariable(query);
 		return value == null ? "" : value.toString();
 	}
+	
+	/**
+	 * @param query the compiled query
+	 * @return the value of the variable or {@code null} if there is none
+	 */
+	public Object getVariable(Query query) {
+		Object value = lookup(query);
+		return value == Interpolation.UNDEFINED ? null : value;
+	}
 
-	private boolean openSection(String query, boolean inverted) {
-		Section section = findSection(query, inverted);
-		if (section == null) {
-			return false;
-		}
-		Section newSection = section.open(query, inverted);
+	public boolean openSection(OpenSection instruction) {
+		return openSection(instruction, getVariable( instruction.getQuery() ));
+	}
+	
+	/**
+	 * Opens a section with an already looked up value.
+	 * @param instruction the section to open
+	 * @param value the value of the section's variable
+	 * @return {@code true} if the section needs to be entered
+	 * @see #getVariable(Query)
+	 */
+	public boolean openSection(OpenSection instruction, Object value) {
+		Section newSection = Section.open(instruction.getName(), value, instruction.isInverted());
 		if (newSection != null) {
 			sections.push(newSection);
+			if (scopes != null) {
+				Scope scope = scopes.get(scopes.size() - 1);
+				scopes.add(scope == null ? null : scope.getScope(instruction));
+			}
 		}
 		return newSection != null;
 	}
 
-	public boolean openSection(OpenSection instruction) {
-		return openSection(instruction.getName(), instruction.isInverted());
+	/**
+	 * @return the number of sections in the stack, including the root section
+	 */
+	public int getDepth() {
+		return sections.size();
+	}
+	
+	/**
+	 * @return the index of the current item of the innermost section, {@code 0} outside of sections
+	 */
+	public int getIteration() {
+		return sections.element().getIndex();
 	}
 	
 	public boolean closeSection(CloseSection instruction) {
 		boolean close = sections.element().close(instruction.getName());
 		if (close) {
 			sections.pop();
+			if (scopes != null) {
+				scopes.remove(scopes.size() - 1);
+			}
 		}
 		return close;
 	}
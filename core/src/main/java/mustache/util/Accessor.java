@@ -0,0 +1,173 @@
+package mustache.util;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+
+/**
+ * The {@code Accessor} class reads a variable of objects through a field or a
+ * no-arg method resolved once by an {@link AccessorTable}. Reading a variable
+ * does not involve any member lookup, and failures result in {@code null}
+ * values as in {@link Interpolation}.
+ * 
+ * <p>Instances of this class are immutable and can be shared safely among
+ * multiple threads.</p>
+ * 
+ * @author Dri
+ * @see AccessorTable
+ */
+public abstract class Accessor {
+
+	Accessor() {}
+	
+	/**
+	 * Returns the {@code Accessor} of a variable of a class, resolved as in
+	 * {@link Interpolation}.
+	 * @param type the class
+	 * @param name the name of the variable
+	 * @return the cached {@code Accessor} or {@code null} if the class has no such variable
+	 */
+	public static Accessor forVariable(Class<?> type, String name) {
+		if (type == null | name == null) {
+			throw new NullPointerException();
+		}
+		return AccessorTable.forClass(type).get(name);
+	}
+	
+	/**
+	 * Creates an {@code Accessor} for a field.
+	 * @param field the field
+	 * @return a newly created {@code Accessor} or {@code null} if the field is not accessible
+	 */
+	static Accessor forField(Field field) {
+		return makeAccessible(field) ? new FieldAccessor(field) : null;
+	}
+	
+	/**
+	 * Creates an {@code Accessor} for a no-arg method.
+	 * @param method the method
+	 * @return a newly created {@code Accessor} or {@code null} if the method is not accessible
+	 */
+	static Accessor forMethod(Method method) {
+		if ( Modifier.isPublic(method.getModifiers()) ) {
+			Method publicMethod = findPublicMethod(method.getDeclaringClass(), method.getName());
+			if (publicMethod != null) {
+				return new MethodAccessor(publicMethod);
+			}
+		}
+		return makeAccessible(method) ? new MethodAccessor(method) : null;
+	}
+	
+	/**
+	 * Finds the declaration of a public no-arg method by a public class or
+	 * interface, such as {@code Map.Entry.getKey()} for the entries of a
+	 * {@code HashMap}, which can be invoked without making it accessible.
+	 */
+	private static Method findPublicMethod(Class<?> type, String name) {
+		if (type == null) {
+			return null;
+		}
+		if ( Modifier.isPublic(type.getModifiers()) ) {
+			try {
+				Method method = type.getMethod(name);
+				if ( Modifier.isPublic(method.getDeclaringClass().getModifiers()) ) {
+					return method;
+				}
+			}
+			catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+		Method method = findPublicMethod(type.getSuperclass(), name);
+		for (int i = 0; method == null && i < type.getInterfaces().length; i++) {
+			method = findPublicMethod(type.getInterfaces()[i], name);
+		}
+		return method;
+	}
+	
+	private static <T extends AccessibleObject & Member> boolean makeAccessible(T member) {
+		if ( Modifier.isPublic(member.getModifiers()) && Modifier.isPublic(member.getDeclaringClass().getModifiers()) ) {
+			return true;
+		}
+		try {
+			member.setAccessible(true);
+			return true;
+		}
+		catch (RuntimeException e) {
+			// denied by a security manager or a module boundary
+			return false;
+		}
+	}
+	
+	/**
+	 * Reads the variable of an object.
+	 * @param object the object, an instance of the class the accessor was created for
+	 * @return the value of the variable or {@code null} if it failed
+	 */
+	public abstract Object get(Object object);
+	
+	/**
+	 * @return the declared type of the variable
+	 */
+	public abstract Type getType();
+	
+	private static final class FieldAccessor extends Accessor {
+		private final Field field;
+		
+		private FieldAccessor(Field field) {
+			this.field = field;
+		}
+		
+		@Override
+		public Object get(Object object) {
+			try {
+				return field.get(object);
+			}
+			catch (IllegalAccessException e) {
+				return null;
+			}
+		}
+		
+		@Override
+		public Type getType() {
+			return field.getGenericType();
+		}
+		
+		@Override
+		public String toString() {
+			return field.toString();
+		}
+	}
+	
+	private static final class MethodAccessor extends Accessor {
+		private final Method method;
+		
+		private MethodAccessor(Method method) {
+			this.method = method;
+		}
+		
+		@Override
+		public Object get(Object object) {
+			try {
+				return method.invoke(object);
+			}
+			catch (IllegalAccessException e) {}
+			catch (InvocationTargetException e) {}
+			return null;
+		}
+		
+		@Override
+		public Type getType() {
+			return method.getGenericReturnType();
+		}
+		
+		@Override
+		public String toString() {
+			return method.toString();
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package mustache.util;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The {@code AccessorTable} class holds the {@link Accessor}s of the variables
+ * of a class. The type hierarchy of a class is walked only once, the first time
+ * an object of this class is interpolated, so that looking up a variable is a
+ * single {@link Map} probe afterwards, even for a missing one.
+ * 
+ * <h4>Resolution</h4>
+ * 
+ * <p>
+ * Variables are resolved in the following order, the first match wins :
+ * <ol>
+ *  <li>fields and no-arg methods, from the class up to its topmost superclass,
+ *  fields first for a given class</li>
+ *  <li>public no-arg methods, including the ones inherited from interfaces</li>
+ *  <li>JavaBean getters, {@code getName()} and {@code isName()} for {@code name}</li>
+ * </ol>
+ * Methods returning {@code void} are not variables, neither are the members of
+ * {@link Object}. Record components are resolved through their accessor methods.
+ * </p>
+ * 
+ * <p>
+ * Tables are immutable and can be shared safely among multiple threads. They
+ * are cached with weak references to their classes and soft references to
+ * themselves, since they reference the members of their classes : the classes
+ * of an application, along with their class loader, can be unloaded once the
+ * application is stopped, even when this library is loaded by a parent class
+ * loader, and a table is created again if it was reclaimed meanwhile.
+ * </p>
+ * 
+ * @author Dri
+ * @see Interpolation
+ */
+final class AccessorTable {
+	// the cache is split to limit contention between rendering threads
+	private static final int STRIPES = 16;
+	
+	private static final Stripe[] TABLES = new Stripe[STRIPES];
+	
+	static {
+		for (int i = 0; i < STRIPES; i++) {
+			TABLES[i] = new Stripe();
+		}
+	}
+	
+	private final Map<String, Accessor> accessors;
+	
+	private AccessorTable(Map<String, Accessor> accessors) {
+		this.accessors = accessors;
+	}
+	
+	/**
+	 * Returns the {@code AccessorTable} of a class, creating it if needed.
+	 * @param type the class
+	 * @return the cached {@code AccessorTable}
+	 */
+	static AccessorTable forClass(Class<?> type) {
+		Stripe stripe = TABLES[System.identityHashCode(type) & (STRIPES - 1)];
+		synchronized (stripe) {
+			SoftReference<AccessorTable> reference = stripe.tables.get(type);
+			AccessorTable table = reference == null ? null : reference.get();
+			if (table != null) {
+				return table;
+			}
+		}
+		
+		// created outside of the lock, a concurrent thread may create an equivalent table
+		AccessorTable table = new AccessorTable( createAccessors(type) );
+		synchronized (stripe) {
+			stripe.tables.put(type, new SoftReference<AccessorTable>(table));
+		}
+		return table;
+	}
+	
+	/**
+	 * @param name the name of the variable
+	 * @return the {@link Accessor} of the variable or {@code null} if the class has no such variable
+	 */
+	Accessor get(String name) {
+		return accessors.get(name);
+	}
+	
+	private static Map<String, Accessor> createAccessors(Class<?> type) {
+		Map<String, Accessor> accessors = new HashMap<String, Accessor>();
+		Map<String, Method> getters = new HashMap<String, Method>();
+		
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if ( !field.isSynthetic() ) {
+					addAccessor(accessors, field.getName(), Accessor.forField(field));
+				}
+			}
+			for (Method method : c.getDeclaredMethods()) {
+				addMethod(accessors, getters, method);
+			}
+		}
+		
+		for (Method method : type.getMethods()) {
+			if (method.getDeclaringClass() != Object.class) {
+				addMethod(accessors, getters, method);
+			}
+		}
+		
+		for (Map.Entry<String, Method> getter : getters.entrySet()) {
+			addAccessor(accessors, getter.getKey(), Accessor.forMethod( getter.getValue() ));
+		}
+		
+		return Collections.unmodifiableMap(accessors);
+	}
+	
+	private static void addMethod(Map<String, Accessor> accessors, Map<String, Method> getters, Method method) {
+		if (method.getParameterTypes().length > 0 || method.getReturnType() == void.class) {
+			return;
+		}
+		if ( method.isSynthetic() || method.isBridge() ) {
+			return;
+		}
+		
+		String name = method.getName();
+		String property = getPropertyName(method);
+		
+		if ( !accessors.containsKey(name) ) {
+			addAccessor(accessors, name, Accessor.forMethod(method));
+		}
+		if (property != null && !getters.containsKey(property)) {
+			getters.put(property, method);
+		}
+	}
+	
+	private static void addAccessor(Map<String, Accessor> accessors, String name, Accessor accessor) {
+		if (accessor != null && !accessors.containsKey(name)) {
+			accessors.put(name, accessor);
+		}
+	}
+	
+	private static String getPropertyName(Method method) {
+		String name = method.getName();
+		Class<?> returnType = method.getReturnType();
+		
+		if ( name.startsWith("get") ) {
+			return decapitalize(name, 3);
+		}
+		if (name.startsWith("is") && (returnType == boolean.class || returnType == Boolean.class)) {
+			return decapitalize(name, 2);
+		}
+		return null;
+	}
+	
+	private static String decapitalize(String name, int prefixLength) {
+		if (name.length() == prefixLength || !Character.isUpperCase( name.charAt(prefixLength) )) {
+			return null;
+		}
+		String property = name.substring(prefixLength);
+		// keeps acronyms such as getURL() as is, like java.beans.Introspector
+		if (property.length() > 1 && Character.isUpperCase( property.charAt(1) )) {
+			return property;
+		}
+		return Character.toLowerCase( property.charAt(0) ) + property.substring(1);
+	}
+	
+	private static final class Stripe {
+		private final Map<Class<?>, SoftReference<AccessorTable>> tables =
+				new WeakHashMap<Class<?>, SoftReference<AccessorTable>>();
+	}
+}
@@ -2,6 +2,7 @@ package mustache.util;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The {@code Context} class is a wrapper providing a facility for Mustache
@@ -52,6 +53,9 @@ public class Context {
 	 * @return a newly created {@code Context}
 	 */
 	public static Context newInstance(Object data) {
+		if (data instanceof Map) {
+			return new MapContext((Map<?, ?>) data);
+		}
 		return isBasic(data) ? new BasicContext(data) : new Context(data);
 	}
 	
@@ -120,6 +124,23 @@ public class Context {
 		return Interpolation.hasBaseVariable(query, data);
 	}
 	
+	/**
+	 * This method looks up a compiled query within the context. Unlike
+	 * {@link #hasBaseVariable(String)} followed by {@link #interpolate(String)},
+	 * it resolves each variable of the query only once.
+	 * 
+	 * @param query the compiled context query
+	 * @return {@link Interpolation#UNDEFINED} if there is no base variable
+	 * matching the query, the interpolated value or {@code null} otherwise
+	 * @see Interpolation#lookup(Query, Object)
+	 */
+	public Object lookup(Query query) {
+		if ( query.isSelf() ) {
+			return data;
+		}
+		return Interpolation.lookup(query, data);
+	}
+	
 	private static final Class<?>[] BASIC_CLASSES = {String.class, Boolean.class, Number.class, Character.class};
 	
 	private static boolean isBasic(Object data) {
@@ -170,5 +191,46 @@ public class Context {
 			Interpolation.checkQuery(query);
 			return false;
 		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Object lookup(Query query) {
+			return query.isSelf() ? super.data : Interpolation.UNDEFINED;
+		}
+	}
+	
+	/**
+	 * The {@code MapContext} class is a specialized {@link Context} for {@link Map}s.
+	 * It looks up base variables with a single {@link Map#get(Object)} in the common
+	 * case of a non-null value.
+	 */
+	static class MapContext extends Context {
+		private final Map<?, ?> map;
+		
+		private MapContext(Map<?, ?> map) {
+			super(map);
+			this.map = map;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Object lookup(Query query) {
+			if ( query.isSelf() ) {
+				return map;
+			}
+			
+			String[] names = query.getNames();
+			Object value = Interpolation.getMapVariable(names[0], map);
+			
+			if (value == Interpolation.UNDEFINED) {
+				return Interpolation.UNDEFINED;
+			}
+			
+			return Interpolation.lookup(names, 1, value);
+		}
 	}
 }
\ No newline at end of file
@@ -1,11 +1,7 @@
 package mustache.util;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 /**
  * This is a utility class for {@link Mustache} interpolation. It works with
@@ -16,7 +12,8 @@ import java.util.regex.Pattern;
  * <p>
  * Dot-separated variable names look like {@code dog.body.tail} where dog
  * would be a property of the root object. Variables can be object fields,
- * no-arg methods and {@link Map} keys. If interpolation fails at some point,
+ * no-arg methods, JavaBean getters and {@link Map} keys, inherited members
+ * included as described in {@link AccessorTable}. If interpolation fails at some point,
  * {@code null} is returned. The {@code Interpolation} itself does
  * <i>not</i> coerce {@code null} or falsey values into empty strings. This
  * feature is only needed for actual {@link Mustache} rendering.
@@ -34,7 +31,7 @@ public final class Interpolation {
 	 */
 	public static final String SEPARATOR = ".";
 	
-	private static final Pattern SEPARATOR_PATTERN = Pattern.compile( Pattern.quote(SEPARATOR) );
+	private static final char SEPARATOR_CHAR = '.';
 
 	/**
 	 * The regex for valid interpolation queries. The fact that variable interpolation might
@@ -42,7 +39,34 @@ public final class Interpolation {
 	 */
 	public static final String QUERY_REGEX = "^[a-z_][a-z0-9_]*(\\.[a-z_][a-z0-9_]*)*$";
 	
-	private static final Pattern QUERY_PATTERN = Pattern.compile(QUERY_REGEX, Pattern.CASE_INSENSITIVE);
+	// ASCII table of the characters matched by QUERY_REGEX, case insensitively
+	private static final byte NAME_START = 1;
+	private static final byte NAME_PART = 2;
+	private static final byte[] NAME_CHARS = new byte[128];
+	
+	static {
+		for (char c = 'a'; c <= 'z'; c++) {
+			NAME_CHARS[c] = NAME_START | NAME_PART;
+			NAME_CHARS[Character.toUpperCase(c)] = NAME_START | NAME_PART;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			NAME_CHARS[c] = NAME_PART;
+		}
+		NAME_CHARS['_'] = NAME_START | NAME_PART;
+	}
+	
+	/**
+	 * The value returned by lookups when a base variable is not defined, as
+	 * opposed to a variable defined with a {@code null} value.
+	 * 
+	 * @see #lookup(Query, Object)
+	 */
+	public static final Object UNDEFINED = new Object() {
+		@Override
+		public String toString() {
+			return "UNDEFINED";
+		}
+	};
 	
 	private Interpolation() {}
 	
@@ -63,7 +87,45 @@ public final class Interpolation {
 	 * @return {@code true} if the query is valid
 	 */
 	public static boolean isValidQuery(String query) {
-		return query != null ? QUERY_PATTERN.matcher(query).matches() : false;
+		if (query == null) {
+			return false;
+		}
+		byte expected = NAME_START;
+		for (int i = 0; i < query.length(); i++) {
+			char c = query.charAt(i);
+			if (c == SEPARATOR_CHAR && expected == NAME_PART) {
+				expected = NAME_START;
+			}
+			else if (c < NAME_CHARS.length && (NAME_CHARS[c] & expected) != 0) {
+				expected = NAME_PART;
+			}
+			else {
+				return false;
+			}
+		}
+		return expected == NAME_PART;
+	}
+	
+	/**
+	 * Splits a valid query into its variable names.
+	 * @param query the query, not {@link Context#SELF}
+	 * @return the variable names of the query
+	 * @see #isValidQuery(String)
+	 */
+	public static String[] split(String query) {
+		int count = 1;
+		for (int i = query.indexOf(SEPARATOR_CHAR); i >= 0; i = query.indexOf(SEPARATOR_CHAR, i + 1)) {
+			count++;
+		}
+		String[] names = new String[count];
+		int start = 0;
+		for (int n = 0; n < count - 1; n++) {
+			int end = query.indexOf(SEPARATOR_CHAR, start);
+			names[n] = query.substring(start, end);
+			start = end + 1;
+		}
+		names[count - 1] = query.substring(start);
+		return names;
 	}
 	
 	/**
@@ -80,47 +142,76 @@ public final class Interpolation {
 	public static Object interpolate(String query, Object object) {
 		checkQuery(query);
 		
+		Object value = lookup(split(query), object);
+		return value == UNDEFINED ? null : value;
+	}
+	
+	/**
+	 * This method looks up a compiled query's variables in the object graph. It differs
+	 * from {@link #interpolate(String, Object)} in that it looks up each variable only once
+	 * and tells an undefined base variable from a failed interpolation.
+	 * 
+	 * @param query the compiled query, not {@link Context#SELF}
+	 * @param object the object graph
+	 * @return {@link #UNDEFINED} if there is no base variable matching the query, the
+	 * interpolated value or {@code null} if it failed otherwise
+	 * @throws IllegalArgumentException if the query is {@link Context#SELF}
+	 */
+	public static Object lookup(Query query, Object object) {
+		if ( query.isSelf() ) {
+			throw new IllegalArgumentException("Invalid query : " + query);
+		}
+		return lookup(query.getNames(), object);
+	}
+	
+	private static Object lookup(String[] names, Object object) {
+		Object value = getVariable(names[0], object);
+		if (value == UNDEFINED) {
+			return UNDEFINED;
+		}
+		return lookup(names, 1, value);
+	}
+	
+	/**
+	 * Looks up the remaining variables of a query, once its base variable is found.
+	 */
+	static Object lookup(String[] names, int offset, Object object) {
 		Object value = object;
-		String[] names = SEPARATOR_PATTERN.split(query);
 		
-		for (String name : names) {
+		for (int i = offset; i < names.length; i++) {
+			value = getVariable(names[i], value);
 			
-			if ( !hasBaseVariable(name, value) ) {
+			if (value == UNDEFINED) {
 				return null;
 			}
-			
-			value = getValue(name, value);
 		}
 		
 		return value;
 	}
 	
-	private static Object getValue(String name, Object object) {
-		if (object instanceof Map) {
-			return ((Map<?, ?>) object).get(name);
+	private static Object getVariable(String name, Object object) {
+		if (object == null || object.getClass().isArray() || object instanceof Collection) {
+			return UNDEFINED;
 		}
 		
-		try {
-			Field field = object.getClass().getDeclaredField(name);
-			field.setAccessible(true);
-			return field.get(object);
+		if (object instanceof Map) {
+			return getMapVariable(name, (Map<?, ?>) object);
 		}
-		catch (NoSuchFieldException e) {}
-		catch (IllegalAccessException e) {}
 		
-		try {
-			Method method = object.getClass().getDeclaredMethod(name);
-			if (method.getReturnType() == void.class) {
-				return null;
-			}
-			method.setAccessible(true);
-			return method.invoke(object);
+		Accessor accessor = AccessorTable.forClass( object.getClass() ).get(name);
+		return accessor == null ? UNDEFINED : accessor.get(object);
+	}
+	
+	/**
+	 * Gets a {@link Map} variable with a single probe in the common case. The key is
+	 * only looked up a second time to tell a {@code null} value from a missing key.
+	 */
+	static Object getMapVariable(String name, Map<?, ?> map) {
+		Object value = map.get(name);
+		if (value == null && !map.containsKey(name)) {
+			return UNDEFINED;
 		}
-		catch (IllegalAccessException e) {}
-		catch (InvocationTargetException e) {}
-		catch (NoSuchMethodException e) {}
-		
-		return null;
+		return value;
 	}
 	
 	/**
@@ -143,25 +234,14 @@ public final class Interpolation {
 			return false;
 		}
 		
-		String baseName = SEPARATOR_PATTERN.split(query, 2)[0];
+		int separator = query.indexOf(SEPARATOR_CHAR);
+		String baseName = separator < 0 ? query : query.substring(0, separator);
 		
 		if (object instanceof Map) {
 			return ((Map<?, ?>) object).containsKey(baseName);
 		}
 		
-		try {
-			object.getClass().getDeclaredField(baseName);
-			return true;
-		}
-		catch (NoSuchFieldException e) {}
-		
-		try {
-			object.getClass().getDeclaredMethod(baseName);
-			return true;
-		}
-		catch (NoSuchMethodException e) {
-			return false;
-		}
+		return AccessorTable.forClass( object.getClass() ).get(baseName) != null;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package mustache.util;
+
+/**
+ * The {@code Query} class is a compiled {@link Context} query. The query is
+ * validated and split into its variable names once, so that repeated lookups
+ * neither match it against {@value Interpolation#QUERY_REGEX} nor split it
+ * again.
+ * 
+ * <p>
+ * The variable names are kept as {@link String} instances for the lifetime of
+ * the {@code Query}, their hash codes are therefore computed once and reused
+ * by every {@link java.util.Map} probe.
+ * </p>
+ * 
+ * <p>Instances of this class are immutable and can be shared safely among
+ * multiple threads.</p>
+ * 
+ * @author Dri
+ * @see Context#lookup(Query)
+ */
+public final class Query {
+
+	private final String query;
+	private final String[] names;
+	
+	private Query(String query, String[] names) {
+		this.query = query;
+		this.names = names;
+	}
+	
+	/**
+	 * Compiles a query.
+	 * 
+	 * @param query the query to compile
+	 * @return a newly created {@code Query}
+	 * @throws IllegalArgumentException if the query is not valid
+	 * @see Context#isValidQuery(String)
+	 */
+	public static Query compile(String query) {
+		if ( !Context.isValidQuery(query) ) {
+			throw new IllegalArgumentException("Invalid query : " + query);
+		}
+		if ( Context.SELF.equals(query) ) {
+			return new Query(query, null);
+		}
+		String[] names = Interpolation.split(query);
+		for (int i = 0; i < names.length; i++) {
+			names[i] = SymbolTable.intern(names[i]);
+		}
+		return new Query(query, names);
+	}
+	
+	/**
+	 * Indicates whether this query is {@link Context#SELF}.
+	 * @return {@code true} for a {@link Context#SELF} query
+	 */
+	public boolean isSelf() {
+		return names == null;
+	}
+	
+	/**
+	 * @return the variable names of the query, {@code null} for {@link Context#SELF}
+	 */
+	String[] getNames() {
+		return names;
+	}
+	
+	/**
+	 * @return the query as a {@link String}
+	 */
+	@Override
+	public String toString() {
+		return query;
+	}
+}
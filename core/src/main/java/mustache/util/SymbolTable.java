@@ -0,0 +1,156 @@
+package mustache.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code SymbolTable} class deduplicates the strings of parsed templates,
+ * such as variable, section and partial names or literal text. Templates
+ * sharing the same names or boilerplate text share the same {@link String}
+ * instances, which can then be compared by identity.
+ * 
+ * <p>
+ * Unlike {@link String#intern()}, symbols are weakly referenced and vanish
+ * once the templates using them are garbage collected. The table keeps
+ * statistics in order to report how much memory it saves.
+ * </p>
+ * 
+ * <p>This class can be used safely by multiple threads.</p>
+ * 
+ * @author Dri
+ */
+public final class SymbolTable {
+
+	// the table is split to limit contention between parsing threads
+	private static final int STRIPES = 16;
+	
+	private static final Stripe[] TABLE = new Stripe[STRIPES];
+	
+	static {
+		for (int i = 0; i < STRIPES; i++) {
+			TABLE[i] = new Stripe();
+		}
+	}
+	
+	private static final AtomicLong lookups = new AtomicLong();
+	private static final AtomicLong hits = new AtomicLong();
+	
+	private SymbolTable() {}
+	
+	/**
+	 * Returns the canonical instance of a symbol.
+	 * @param symbol the symbol
+	 * @return the instance of the table equal to {@code symbol}, or
+	 * {@code symbol} itself if there is none
+	 * @throws NullPointerException if {@code symbol} is {@code null}
+	 */
+	public static String intern(String symbol) {
+		if (symbol == null) {
+			throw new NullPointerException();
+		}
+		
+		lookups.incrementAndGet();
+		Stripe stripe = TABLE[symbol.hashCode() & (STRIPES - 1)];
+		
+		synchronized (stripe) {
+			Symbol reference = stripe.symbols.get(symbol);
+			String canonical = reference == null ? null : reference.get();
+			if (canonical != null) {
+				hits.incrementAndGet();
+				if (canonical != symbol) {
+					reference.savedBytes += getSize(symbol);
+				}
+				return canonical;
+			}
+			stripe.symbols.put(symbol, new Symbol(symbol));
+			return symbol;
+		}
+	}
+	
+	/**
+	 * Estimates the size of a {@link String} on the heap, assuming 16 bytes
+	 * for object headers, 4 bytes references and 2 bytes per character.
+	 */
+	private static long getSize(String string) {
+		long stringSize = 16 + 4 + 4;
+		long arraySize = 16 + 2L * string.length();
+		return align(stringSize) + align(arraySize);
+	}
+	
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+	
+	/**
+	 * @return the number of symbols currently in the table
+	 */
+	public static int size() {
+		int size = 0;
+		for (Stripe stripe : TABLE) {
+			synchronized (stripe) {
+				size += stripe.symbols.size();
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * @return the number of calls to {@link #intern(String)}
+	 */
+	public static long getLookupCount() {
+		return lookups.get();
+	}
+	
+	/**
+	 * @return the number of calls to {@link #intern(String)} which returned a
+	 * symbol already in the table
+	 */
+	public static long getHitCount() {
+		return hits.get();
+	}
+	
+	/**
+	 * Estimates the memory saved by the table, that is the size of the
+	 * duplicate strings replaced by the symbols currently in the table. The
+	 * savings of a symbol no longer count once it is garbage collected.
+	 * @return the estimated number of bytes saved
+	 */
+	public static long getSavedBytes() {
+		long savedBytes = 0;
+		for (Stripe stripe : TABLE) {
+			synchronized (stripe) {
+				for ( Symbol symbol : stripe.symbols.values() ) {
+					if (symbol.get() != null) {
+						savedBytes += symbol.savedBytes;
+					}
+				}
+			}
+		}
+		return savedBytes;
+	}
+	
+	/**
+	 * @return a summary of the statistics of the table
+	 */
+	public static String getReport() {
+		return "SymbolTable[symbols=" + size() + ", lookups=" + getLookupCount() + ", hits=" + getHitCount()
+				+ ", savedBytes=" + getSavedBytes() + "]";
+	}
+	
+	private static final class Stripe {
+		private final Map<String, Symbol> symbols = new WeakHashMap<String, Symbol>();
+	}
+	
+	/**
+	 * A canonical instance, along with the size of the duplicates it replaced.
+	 */
+	private static final class Symbol extends WeakReference<String> {
+		private long savedBytes = 0;
+		
+		private Symbol(String symbol) {
+			super(symbol);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package mustache.util;
+
+/**
+ * The {@code TemplateMonitor} class is notified of the work done on
+ * templates : parsing, loading partials, looking templates up in a
+ * {@link mustache.parser.TemplateRegistry}, and rendering. A subclass
+ * overrides the notifications it needs, and typically reports them as events
+ * of a profiler or as metrics, correlated with garbage collection and CPU
+ * usage.
+ * 
+ * <p>
+ * A single monitor is installed for the whole application. When no monitor
+ * is installed, or when the installed monitor is not enabled, templates are
+ * not measured at all. A monitor reporting to a profiler can therefore only
+ * enable itself while the profiler is recording.
+ * </p>
+ * 
+ * <p>Notifications are sent by the threads doing the work, and
+ * implementations must be safe for use by multiple threads.</p>
+ * 
+ * @author Dri
+ */
+public abstract class TemplateMonitor {
+
+	private static volatile TemplateMonitor installed;
+	
+	/**
+	 * Installs the monitor of the application, replacing the previous one.
+	 * @param monitor the monitor, or {@code null} to stop monitoring
+	 */
+	public static void install(TemplateMonitor monitor) {
+		installed = monitor;
+	}
+	
+	/**
+	 * @return the installed monitor, or {@code null}
+	 */
+	public static TemplateMonitor getInstalled() {
+		return installed;
+	}
+	
+	/**
+	 * @return the installed monitor if it is enabled, otherwise {@code null}
+	 */
+	public static TemplateMonitor getActive() {
+		TemplateMonitor monitor = installed;
+		return monitor != null && monitor.isEnabled() ? monitor : null;
+	}
+	
+	/**
+	 * Indicates whether the work on templates needs to be measured. It is
+	 * checked before each parsing, rendering or lookup, and should be cheap.
+	 * @return {@code true} by default
+	 */
+	public boolean isEnabled() {
+		return true;
+	}
+	
+	/**
+	 * Notifies that a template or partial was parsed.
+	 * @param name the name of the template, {@code null} if it was not loaded by name
+	 * @param length the number of characters of the template
+	 * @param partialCount the number of partials loaded for the template
+	 * @param duration the duration of the parsing in nanoseconds, partials included
+	 */
+	public void templateParsed(String name, int length, int partialCount, long duration) {
+		// ignored by default
+	}
+	
+	/**
+	 * Notifies that a partial was loaded by a {@link mustache.parser.PartialLoader} and parsed.
+	 * @param name the name of the partial
+	 * @param duration the duration of the loading and parsing in nanoseconds
+	 */
+	public void partialLoaded(String name, long duration) {
+		// ignored by default
+	}
+	
+	/**
+	 * Notifies that a compiled template was found in a registry.
+	 * @param name the name of the template
+	 */
+	public void cacheHit(String name) {
+		// ignored by default
+	}
+	
+	/**
+	 * Notifies that a template was missing from a registry, and is compiled.
+	 * @param name the name of the template
+	 */
+	public void cacheMiss(String name) {
+		// ignored by default
+	}
+	
+	/**
+	 * Notifies that a template was removed from a registry, or replaced
+	 * because it expired.
+	 * @param name the name of the template
+	 */
+	public void cacheEviction(String name) {
+		// ignored by default
+	}
+	
+	/**
+	 * Notifies that a template was rendered.
+	 * @param name the name of the template, {@code null} if it was not given
+	 * @param length the number of characters written
+	 * @param instructions the number of instructions rendered by the calling thread
+	 * @param duration the duration of the rendering in nanoseconds
+	 */
+	public void templateRendered(String name, long length, long instructions, long duration) {
+		// ignored by default
+	}
+}
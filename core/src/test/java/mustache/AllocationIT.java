@@ -0,0 +1,268 @@
+package mustache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.Assert;
+import mustache.core.Processor;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.parser.PartialLoader;
+
+import org.codehaus.jackson.map.DeserializationConfig;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Checks that the bytes allocated by the rendering of each spec fixture, and
+ * of larger synthetic templates, stay within the budgets committed for the
+ * major version of the JVM, such as {@code mustache/allocation-budgets-8.properties}.
+ * JVMs without budgets are skipped. Running with
+ * {@code -Dallocation.budgets.update} writes fresh budgets to {@code target}
+ * instead of checking them.
+ * 
+ * <p>
+ * Each template is rendered until the JIT compiler settles, then the median
+ * of several batches of renderings is compared with its budget, which keeps
+ * compilations and garbage collections happening during a batch from
+ * failing the build.
+ * </p>
+ */
+@RunWith(Parameterized.class)
+public class AllocationIT {
+
+	private static final String UPDATE_PROPERTY = "allocation.budgets.update";
+	
+	private static final int BATCH_RENDERINGS = 100;
+	private static final int MEASURED_BATCHES = 9;
+	// the warm-up ends once this many batches did not trigger any compilation
+	private static final int SETTLED_BATCHES = 5;
+	private static final int MAX_WARMUP_BATCHES = 200;
+	
+	private static final int JAVA_VERSION = getJavaVersion();
+	private static final String BUDGETS_NAME = "allocation-budgets-" + JAVA_VERSION + ".properties";
+	
+	private static final Properties budgets = new Properties();
+	private static final Properties measures = new Properties();
+	private static boolean budgeted = false;
+	
+	private final String key;
+	private final String template;
+	private final Object data;
+	private final Map<String, String> partials;
+	
+	public AllocationIT(String key, String template, Object data, Map<String, String> partials) {
+		this.key = key;
+		this.template = template;
+		this.data = data;
+		this.partials = partials;
+	}
+	
+	@Test
+	public void shouldAllocateWithinBudget() throws IOException, ParseException {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		Assume.assumeTrue( allocationBean.isThreadAllocatedMemorySupported() );
+		Assume.assumeTrue( budgeted || Boolean.getBoolean(UPDATE_PROPERTY) );
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+		
+		Processor processor = Parser.parseString(template, new PartialLoader() {
+			public Readable loadPartial(String name) throws IOException {
+				String partial = partials.get(name);
+				return new StringReader(partial == null ? "" : partial);
+			}
+		});
+		StringBuilder output = new StringBuilder();
+		warmUp(processor, output);
+		
+		long threadId = Thread.currentThread().getId();
+		long[] batches = new long[MEASURED_BATCHES];
+		for (int i = 0; i < MEASURED_BATCHES; i++) {
+			long before = allocationBean.getThreadAllocatedBytes(threadId);
+			renderBatch(processor, output);
+			batches[i] = (allocationBean.getThreadAllocatedBytes(threadId) - before) / BATCH_RENDERINGS;
+		}
+		Arrays.sort(batches);
+		long allocated = batches[MEASURED_BATCHES / 2];
+		
+		if ( Boolean.getBoolean(UPDATE_PROPERTY) ) {
+			// headroom for the variations between runs, tight enough to catch regressions
+			measures.setProperty(key, Long.toString(allocated + allocated / 8 + 64));
+			return;
+		}
+		String budget = budgets.getProperty(key);
+		Assert.assertNotNull("No allocation budget for " + key + ", which allocates " + allocated + " bytes per rendering",
+				budget);
+		Assert.assertTrue(key + " allocates " + allocated + " bytes per rendering, over its budget of " + budget,
+				allocated <= Long.parseLong(budget));
+	}
+	
+	private void renderBatch(Processor processor, StringBuilder output) throws IOException {
+		for (int i = 0; i < BATCH_RENDERINGS; i++) {
+			output.setLength(0);
+			Renderer.render(processor, data, output);
+		}
+	}
+	
+	/**
+	 * Renders batches until the JIT compiler stops compiling, or at least
+	 * {@value #SETTLED_BATCHES} batches if the JVM does not tell.
+	 */
+	private void warmUp(Processor processor, StringBuilder output) throws IOException {
+		CompilationMXBean compilationBean = ManagementFactory.getCompilationMXBean();
+		boolean monitored = compilationBean != null && compilationBean.isCompilationTimeMonitoringSupported();
+		long compilationTime = monitored ? compilationBean.getTotalCompilationTime() : 0;
+		int settledBatches = 0;
+		
+		for (int i = 0; i < MAX_WARMUP_BATCHES && settledBatches < SETTLED_BATCHES; i++) {
+			renderBatch(processor, output);
+			long time = monitored ? compilationBean.getTotalCompilationTime() : 0;
+			settledBatches = time == compilationTime ? settledBatches + 1 : 0;
+			compilationTime = time;
+		}
+	}
+	
+	@AfterClass
+	public static void writeMeasures() throws IOException {
+		if ( !Boolean.getBoolean(UPDATE_PROPERTY) ) {
+			return;
+		}
+		OutputStream stream = new FileOutputStream("target/" + BUDGETS_NAME);
+		try {
+			measures.store(stream, "Bytes allocated per rendering on Java " + JAVA_VERSION);
+		} finally {
+			stream.close();
+		}
+	}
+	
+	private static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version");
+		if ( version.startsWith("1.") ) {
+			version = version.substring(2);
+		}
+		try {
+			return Integer.parseInt(version);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	@Parameters
+	public static Collection<Object[]> loadTemplates() throws IOException, URISyntaxException {
+		ClassLoader classLoader = AllocationIT.class.getClassLoader();
+		InputStream budgetStream = classLoader.getResourceAsStream("mustache/" + BUDGETS_NAME);
+		if (budgetStream != null) {
+			try {
+				budgets.load(budgetStream);
+				budgeted = true;
+			} finally {
+				budgetStream.close();
+			}
+		}
+		
+		List<Object[]> templates = new ArrayList<Object[]>();
+		ObjectMapper mapper = new ObjectMapper().configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		File[] files = new File(classLoader.getResource("mustache").toURI()).listFiles();
+		Arrays.sort(files);
+		
+		for (File file : files) {
+			if ( !file.getName().endsWith(".json") ) {
+				continue;
+			}
+			String suiteName = file.getName().substring(0, file.getName().length() - 5);
+			SpecTestSuite suite = mapper.readValue(file, SpecTestSuite.class);
+			for ( SpecTestCase test : suite.getTests() ) {
+				Map<String, String> partials = test.getPartials();
+				if (partials == null) {
+					partials = Collections.emptyMap();
+				}
+				templates.add( new Object[] {toKey(suiteName, test.getName()), test.getTemplate(), test.getData(), partials} );
+			}
+		}
+		
+		addSyntheticTemplates(templates);
+		return templates;
+	}
+	
+	private static String toKey(String suiteName, String testName) {
+		return suiteName + "." + testName.toLowerCase().replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "");
+	}
+	
+	private static void addSyntheticTemplates(List<Object[]> templates) {
+		Map<String, String> noPartials = Collections.emptyMap();
+		
+		List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 1000; i++) {
+			Map<String, Object> item = new HashMap<String, Object>();
+			item.put("id", i);
+			item.put("name", "Item <" + i + ">");
+			item.put("available", i % 3 != 0);
+			items.add(item);
+		}
+		Map<String, Object> list = new HashMap<String, Object>();
+		list.put("title", "Catalog");
+		list.put("items", items);
+		templates.add( new Object[] {"synthetic.large-list",
+				"<h1>{{title}}</h1>\n<ul>\n{{#items}}\n  <li id=\"{{id}}\">{{name}}{{^available}} (sold out){{/available}}</li>\n{{/items}}\n</ul>\n",
+				list, noPartials} );
+		
+		List<Object> numbers = new ArrayList<Object>();
+		for (int i = 0; i < 1000; i++) {
+			numbers.add(i * 7919);
+			numbers.add(-i * 1000003L);
+			numbers.add(i * 2.0);
+		}
+		templates.add( new Object[] {"synthetic.numbers", "{{#numbers}}{{.}} {{/numbers}}",
+				Collections.singletonMap("numbers", numbers), noPartials} );
+		
+		Map<String, Object> table = new HashMap<String, Object>();
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 50; i++) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("cells", Collections.nCopies(20, "&cell"));
+			rows.add(row);
+		}
+		table.put("rows", rows);
+		templates.add( new Object[] {"synthetic.nested-sections",
+				"<table>{{#rows}}<tr>{{#cells}}<td>{{.}}</td>{{/cells}}</tr>{{/rows}}</table>", table, noPartials} );
+		
+		Map<String, Object> tree = new HashMap<String, Object>();
+		tree.put("name", "leaf");
+		tree.put("children", false);
+		for (int i = 0; i < 8; i++) {
+			Map<String, Object> node = new HashMap<String, Object>();
+			node.put("name", "node " + i);
+			List<Map<String, Object>> children = new ArrayList<Map<String, Object>>();
+			children.add(tree);
+			children.add(tree);
+			node.put("children", children);
+			tree = node;
+		}
+		Map<String, String> nodePartial = Collections.singletonMap("node",
+				"<li>{{name}}{{#children}}<ul>{{>node}}</ul>{{/children}}</li>");
+		templates.add( new Object[] {"synthetic.recursive-partial", "<ul>{{>node}}</ul>",
+				Collections.singletonMap("children", tree.get("children")), nodePartial} );
+	}
+}
@@ -0,0 +1,133 @@
+package mustache;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Assert;
+import mustache.core.Processor;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.parser.PartialLoader;
+import mustache.rendering.Fragment;
+import mustache.rendering.Lambda;
+
+import org.junit.Test;
+
+public class BoundTemplateTest {
+	
+	public static class Page {
+		public String title = "<page>";
+		public List<Item> items = new ArrayList<Item>();
+		public Map<String, Object> extra;
+		public Node tree;
+		
+		public Lambda getBold() {
+			return new Lambda() {
+				public CharSequence apply(String text, Fragment fragment) throws IOException {
+					return "<b>" + fragment.render(text) + "</b>";
+				}
+			};
+		}
+	}
+	
+	public static class Item {
+		public int id;
+		public boolean visible;
+		public List<String> tags = Arrays.asList("a", "b");
+		
+		public Item(int id) {
+			this.id = id;
+			this.visible = id % 2 == 0;
+		}
+	}
+	
+	public static class NamedItem extends Item {
+		public String title = "<item>";
+		
+		public NamedItem(int id) {
+			super(id);
+		}
+	}
+	
+	public static class Node {
+		public String name;
+		public List<Node> children = new ArrayList<Node>();
+		
+		public Node(String name, Node... children) {
+			this.name = name;
+			this.children.addAll( Arrays.asList(children) );
+		}
+	}
+	
+	private static final PartialLoader LOADER = new PartialLoader() {
+		public Readable loadPartial(String name) {
+			return new StringReader("{{name}}({{#children}}{{>node}}{{/children}})");
+		}
+	};
+	
+	private static Page newPage() {
+		Page page = new Page();
+		for (int i = 0; i < 5; i++) {
+			page.items.add( new Item(i) );
+		}
+		page.items.add(null);
+		page.tree = new Node("root", new Node("a", new Node("b")), new Node("c"));
+		return page;
+	}
+	
+	private static <T> String render(BoundTemplate<T> template, T model, RenderOptions options) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		template.render(model, builder, options);
+		return builder.toString();
+	}
+	
+	@Test
+	public void shouldRenderLikeRenderer() throws ParseException, IOException {
+		String template = "{{title}} {{#items}}{{id}}{{#visible}}+{{title}}{{/visible}}[{{#tags}}{{.}}{{id}}{{/tags}}]{{/items}}"
+				+ "{{^extra}}no extra{{/extra}} {{#extra}}{{key}}{{/extra}} {{#tree}}{{>node}}{{/tree}} {{#bold}}{{title}}{{/bold}}";
+		Processor processor = Parser.parseString(template, LOADER);
+		Page page = newPage();
+		
+		StringBuilder expected = new StringBuilder();
+		Renderer.render(processor, page, expected);
+		
+		BoundTemplate<Page> boundTemplate = BoundTemplate.compile(processor, Page.class);
+		Assert.assertEquals(expected.toString(), render(boundTemplate, page, new RenderOptions()));
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			RenderOptions options = new RenderOptions().setExecutor(executor).setParallelSections(true)
+					.setParallelListThreshold(2).setParallelism(3).setThreadSafeData(true);
+			Assert.assertEquals(expected.toString(), render(boundTemplate, page, options));
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void shouldReadBoundVariables() throws ParseException, IOException {
+		BoundTemplate<Page> template = BoundTemplate.compile("{{#items}}{{title}}{{/items}}", null, Page.class);
+		Page page = new Page();
+		page.items.add( new NamedItem(1) );
+		
+		// the title of the subclass is not part of the declared type
+		Assert.assertEquals("&lt;page&gt;", render(template, page, new RenderOptions()));
+	}
+	
+	@Test
+	public void shouldRejectUnknownPaths() throws ParseException, IOException {
+		try {
+			BoundTemplate.compile("{{titel}}{{#items}}{{id}}{{nmae}}{{/items}}", null, Page.class);
+			Assert.fail();
+		}
+		catch (IllegalArgumentException e) {
+			Assert.assertEquals("Paths not found in " + Page.class.getName() + " : titel nmae (in items)", e.getMessage());
+		}
+	}
+}
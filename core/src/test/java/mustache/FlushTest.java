@@ -0,0 +1,88 @@
+package mustache;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+import mustache.core.Processor;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+
+import org.junit.Test;
+
+public class FlushTest {
+	
+	/**
+	 * Records the output flushed so far at each flush.
+	 */
+	private static class FlushRecorder implements Appendable, Flushable {
+		private final StringBuilder output = new StringBuilder();
+		private final List<String> flushes = new ArrayList<String>();
+		
+		public Appendable append(CharSequence csq) {
+			output.append(csq);
+			return this;
+		}
+		
+		public Appendable append(CharSequence csq, int start, int end) {
+			output.append(csq, start, end);
+			return this;
+		}
+		
+		public Appendable append(char c) {
+			output.append(c);
+			return this;
+		}
+		
+		public void flush() {
+			flushes.add( output.toString() );
+		}
+	}
+	
+	private static FlushRecorder render(String template, Object data, RenderOptions options)
+			throws ParseException, IOException {
+		FlushRecorder recorder = new FlushRecorder();
+		Renderer.render(Parser.parseString(template, null), data, recorder, options);
+		return recorder;
+	}
+	
+	@Test
+	public void shouldFlushAtPragmas() throws ParseException, IOException {
+		FlushRecorder recorder = render("<head/>\n{{%FLUSH}}\n<body/>\n", null, new RenderOptions());
+		Assert.assertEquals("<head/>\n<body/>\n", recorder.output.toString());
+		Assert.assertEquals(Arrays.asList("<head/>\n"), recorder.flushes);
+	}
+	
+	@Test
+	public void shouldFlushAfterThreshold() throws ParseException, IOException {
+		Object data = Collections.singletonMap("items", Arrays.asList("abc", "def", "ghi"));
+		FlushRecorder recorder = render("{{#items}}{{.}}{{/items}}", data, new RenderOptions().setFlushThreshold(5));
+		Assert.assertEquals(Arrays.asList("abcdef"), recorder.flushes);
+	}
+	
+	@Test
+	public void shouldFlushBeforeLongLists() throws ParseException, IOException {
+		Object data = Collections.singletonMap("items", Arrays.asList("a", "b"));
+		RenderOptions options = new RenderOptions().setListFlushThreshold(2);
+		
+		FlushRecorder recorder = render("<ul>{{#items}}{{.}}{{/items}}</ul>", data, options);
+		Assert.assertEquals(Arrays.asList("<ul>"), recorder.flushes);
+		
+		options.setListFlushThreshold(3);
+		recorder = render("<ul>{{#items}}{{.}}{{/items}}</ul>", data, options);
+		Assert.assertTrue( recorder.flushes.isEmpty() );
+	}
+	
+	@Test
+	public void shouldEndChunksAtPragmas() throws ParseException, IOException {
+		Processor processor = Parser.parseString("<head/>\n{{%FLUSH}}\n<body/>\n", null);
+		RenderStream stream = new RenderStream(processor, null, new RenderOptions());
+		Assert.assertEquals("<head/>\n", stream.nextChunk());
+		Assert.assertEquals("<body/>\n", stream.nextChunk());
+		Assert.assertNull( stream.nextChunk() );
+	}
+}
@@ -0,0 +1,128 @@
+package mustache;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.parser.PartialLoader;
+import mustache.rendering.Fragment;
+import mustache.rendering.Lambda;
+import mustache.rendering.MemoizedLambda;
+
+import org.junit.Test;
+
+public class LambdaTest {
+	
+	private static String render(String template, Object data) throws ParseException, IOException {
+		StringBuilder result = new StringBuilder();
+		Renderer.render(Parser.parseString(template, null), data, result);
+		return result.toString();
+	}
+	
+	@Test
+	public void shouldApplySectionLambdas() throws ParseException, IOException {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("name", "Chris");
+		data.put("bold", new Lambda() {
+			public CharSequence apply(String text, Fragment fragment) throws IOException {
+				return "<b>" + fragment.render(text) + "</b>";
+			}
+		});
+		data.put("raw", new Lambda() {
+			public CharSequence apply(String text, Fragment fragment) {
+				return text;
+			}
+		});
+		
+		Assert.assertEquals("<b>Hi Chris.</b>", render("{{#bold}}Hi {{name}}.{{/bold}}", data));
+		Assert.assertEquals("Hi {{name}}.", render("{{#raw}}Hi {{name}}.{{/raw}}", data));
+		Assert.assertEquals("", render("{{^bold}}Hi {{name}}.{{/bold}}", data));
+	}
+	
+	@Test
+	public void shouldRenderSectionsWithTheirDelimiters() throws ParseException, IOException {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("name", "Chris");
+		data.put("bold", new Lambda() {
+			public CharSequence apply(String text, Fragment fragment) throws IOException {
+				return "<b>" + fragment.render(text) + "</b>";
+			}
+		});
+		data.put("greet", new Lambda() {
+			public CharSequence apply(String text, Fragment fragment) throws IOException {
+				return fragment.render(text + " <%name%>!");
+			}
+		});
+		
+		Assert.assertEquals("<b>Hi Chris.</b>", render("{{=<% %>=}}<%#bold%>Hi <%name%>.<%/bold%>", data));
+		Assert.assertEquals("Hi Chris!", render("{{=<% %>=}}<%#greet%>Hi<%/greet%>", data));
+	}
+	
+	@Test
+	public void shouldRenderPartialsOfSections() throws ParseException, IOException {
+		PartialLoader loader = new PartialLoader() {
+			public Readable loadPartial(String partial) {
+				return new StringReader(partial.equals("item") ? "[{{.}}]" : "{{name}}");
+			}
+		};
+		final int[] calls = {0};
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("name", "Chris");
+		data.put("names", Arrays.asList("Chris", "Dri"));
+		data.put("bold", new Lambda() {
+			public CharSequence apply(String text, Fragment fragment) throws IOException {
+				return "<b>" + fragment.render(text) + "</b>";
+			}
+		});
+		data.put("twice", new Lambda() {
+			public CharSequence apply(String text, Fragment fragment) throws IOException {
+				calls[0]++;
+				return fragment.render(text + text);
+			}
+		});
+		
+		StringBuilder result = new StringBuilder();
+		Renderer.render(Parser.parseString("{{#bold}}Hi {{>p}}.{{/bold}}", loader), data, result);
+		Assert.assertEquals("<b>Hi Chris.</b>", result.toString());
+		
+		result.setLength(0);
+		Renderer.render(Parser.parseString("{{#names}}{{#twice}}{{>item}}{{/twice}};{{/names}}", loader),
+				data, result);
+		Assert.assertEquals("[Chris][Chris];[Dri][Dri];", result.toString());
+		Assert.assertEquals(2, calls[0]);
+	}
+	
+	@Test
+	public void shouldEscapeVariableLambdas() throws ParseException, IOException {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("tag", new Lambda() {
+			public CharSequence apply(String text, Fragment fragment) {
+				return "<br>";
+			}
+		});
+		
+		Assert.assertEquals("&lt;br&gt;<br>", render("{{tag}}{{{tag}}}", data));
+	}
+	
+	@Test
+	public void shouldMemoizeTransformations() throws ParseException, IOException {
+		final int[] calls = {0};
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("items", new String[] {"a", "b", "a", "a"});
+		data.put("upper", new MemoizedLambda(16) {
+			@Override
+			protected CharSequence transform(String input) {
+				calls[0]++;
+				return input.toUpperCase();
+			}
+		});
+		
+		Assert.assertEquals("ABAA", render("{{#items}}{{#upper}}{{.}}{{/upper}}{{/items}}", data));
+		Assert.assertEquals(2, calls[0]);
+	}
+}
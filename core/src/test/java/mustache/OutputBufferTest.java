@@ -0,0 +1,88 @@
+package mustache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+
+import org.junit.Test;
+
+public class OutputBufferTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private static String repeat(String string, int times) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			builder.append(string);
+		}
+		return builder.toString();
+	}
+	
+	@Test
+	public void shouldGrowAcrossSegments() {
+		String expected = repeat("0123456789", 1000) + 'x' + repeat("é", 5000);
+		
+		OutputBuffer buffer = new OutputBuffer()
+				.append( new StringBuilder(repeat("0123456789", 1000)) )
+				.append('x')
+				.append( repeat("é", 5000) );
+		
+		Assert.assertEquals(expected.length(), buffer.length());
+		Assert.assertEquals(expected, buffer.toString());
+		Assert.assertEquals(expected.charAt(4096), buffer.charAt(4096));
+		Assert.assertEquals(expected.substring(4000, 9000), buffer.subSequence(4000, 9000).toString());
+		Assert.assertEquals(expected.substring(4500, 4600),
+				buffer.subSequence(4000, 9000).subSequence(500, 600).toString());
+	}
+	
+	@Test
+	public void shouldWriteSegments() throws IOException {
+		// a surrogate pair across the first two segments
+		String expected = repeat("a", 4095) + "𝄞" + repeat("<b>", 2000);
+		OutputBuffer buffer = new OutputBuffer().append(expected);
+		
+		StringWriter writer = new StringWriter();
+		buffer.writeTo(writer);
+		Assert.assertEquals(expected, writer.toString());
+		
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		buffer.writeTo(stream, UTF_8);
+		Assert.assertEquals(expected, new String(stream.toByteArray(), UTF_8));
+		
+		stream.reset();
+		buffer.writeTo(Channels.newChannel(stream), UTF_8);
+		Assert.assertEquals(expected, new String(stream.toByteArray(), UTF_8));
+	}
+	
+	@Test
+	public void shouldReuseReleasedBuffer() throws IOException, ParseException {
+		Map<String, String> data = new HashMap<String, String>();
+		data.put("name", "Chris");
+		
+		OutputBufferPool pool = new OutputBufferPool(1);
+		OutputBuffer buffer = pool.acquire();
+		Renderer.render(Parser.parseString("Hello {{name}}", null), data, buffer);
+		Assert.assertEquals("Hello Chris", buffer.toString());
+		pool.release(buffer);
+		
+		OutputBuffer reused = pool.acquire();
+		Assert.assertSame(buffer, reused);
+		Assert.assertEquals(0, reused.length());
+		OutputBuffer other = pool.acquire();
+		Assert.assertNotSame(reused, other);
+		
+		pool.release(reused);
+		pool.release(other);
+		Assert.assertEquals(1, pool.size());
+		pool.clear();
+		Assert.assertEquals(0, pool.size());
+	}
+}
@@ -0,0 +1,192 @@
+package mustache;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Assert;
+import mustache.core.Processor;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.parser.PartialLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelRenderTest {
+	
+	private ExecutorService executor;
+	
+	@Before
+	public void startExecutor() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+	
+	@After
+	public void stopExecutor() {
+		executor.shutdownNow();
+	}
+	
+	private static String render(Processor processor, Object data, RenderOptions options) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		Renderer.render(processor, data, builder, options);
+		return builder.toString();
+	}
+	
+	private static Map<String, Object> newData(int size) {
+		List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < size; i++) {
+			Map<String, Object> item = new HashMap<String, Object>();
+			item.put("id", i);
+			item.put("tags", Arrays.asList("a", "b"));
+			items.add(item);
+		}
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("title", "<items>");
+		data.put("items", items);
+		data.put("empty", new ArrayList<Object>());
+		return data;
+	}
+	
+	@Test
+	public void shouldStitchSectionsInOrder() throws ParseException, IOException {
+		PartialLoader loader = new PartialLoader() {
+			public Readable loadPartial(String name) {
+				return new StringReader("  {{#items}}<{{id}}>{{/items}}\n");
+			}
+		};
+		String template = "{{title}}\n{{#items}}{{id}}:{{#tags}}{{.}}{{/tags}} {{/items}}\n"
+				+ "{{^empty}}none{{/empty}}\n  {{> ids}}\n{{#title}}[{{.}}]{{/title}}\n{{#missing}}x{{/missing}}end\n";
+		Processor processor = Parser.parseString(template, loader);
+		Map<String, Object> data = newData(100);
+		
+		String expected = render(processor, data, new RenderOptions());
+		RenderOptions options = new RenderOptions().setExecutor(executor).setParallelSections(true)
+				.setThreadSafeData(true);
+		
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals(expected, render(processor, data, options));
+		}
+	}
+	
+	@Test
+	public void shouldRenderSectionsInExecutor() throws ParseException, IOException {
+		final List<String> threads = new ArrayList<String>();
+		Object value = new Object() {
+			@Override
+			public String toString() {
+				synchronized (threads) {
+					threads.add( Thread.currentThread().getName() );
+				}
+				return "value";
+			}
+		};
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("section", Arrays.asList(value));
+		
+		Processor processor = Parser.parseString("{{#section}}{{.}}{{/section}}", null);
+		RenderOptions options = new RenderOptions().setExecutor(executor).setParallelSections(true)
+				.setThreadSafeData(true);
+		
+		Assert.assertEquals("value", render(processor, data, options));
+		Assert.assertEquals(1, threads.size());
+		Assert.assertFalse( Thread.currentThread().getName().equals(threads.get(0)) );
+	}
+	
+	@Test
+	public void shouldRenderConditionalSectionsAndUnsafeDataInPlace() throws ParseException, IOException {
+		final List<String> threads = new ArrayList<String>();
+		Object value = new Object() {
+			@Override
+			public String toString() {
+				synchronized (threads) {
+					threads.add( Thread.currentThread().getName() );
+				}
+				return "value";
+			}
+		};
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("section", value);
+		data.put("list", Arrays.asList(value));
+		
+		Processor processor = Parser.parseString("{{#section}}{{.}}{{/section}}", null);
+		RenderOptions options = new RenderOptions().setExecutor(executor).setParallelSections(true)
+				.setThreadSafeData(true);
+		Assert.assertEquals("value", render(processor, data, options));
+		
+		processor = Parser.parseString("{{#list}}{{.}}{{/list}}", null);
+		Assert.assertEquals("value", render(processor, data, options.setThreadSafeData(false)));
+		Assert.assertEquals(Collections.nCopies(2, Thread.currentThread().getName()), threads);
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void shouldPropagateSectionFailures() throws ParseException, IOException {
+		Object value = new Object() {
+			@Override
+			public String toString() {
+				throw new IllegalStateException();
+			}
+		};
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("section", Arrays.asList(value));
+		
+		Processor processor = Parser.parseString("before {{#section}}{{.}}{{/section}} after", null);
+		render(processor, data, new RenderOptions().setExecutor(executor).setParallelSections(true)
+				.setThreadSafeData(true));
+	}
+	
+	@Test
+	public void shouldRenderListsInOrder() throws ParseException, IOException {
+		String template = "{{#items}}{{id}}:{{title}}{{#tags}}{{.}}{{/tags}},{{/items}}\n"
+				+ "{{#items}}{{%CACHE}}{{#tags}}[{{id}}]{{/tags}}{{/items}}\n{{^items}}none{{/items}}";
+		Processor processor = Parser.parseString(template, null);
+		Map<String, Object> data = newData(1001);
+		
+		String expected = render(processor, data, new RenderOptions());
+		RenderOptions options = new RenderOptions().setExecutor(executor).setParallelListThreshold(100)
+				.setParallelism(7).setThreadSafeData(true);
+		
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals(expected, render(processor, data, options));
+		}
+		Assert.assertEquals(expected, render(processor, data, options.setParallelSections(true)));
+	}
+	
+	@Test
+	public void shouldNotSplitListsOfUnsafeData() throws ParseException, IOException {
+		final List<String> threads = new ArrayList<String>();
+		List<Object> items = new ArrayList<Object>();
+		for (int i = 0; i < 10; i++) {
+			items.add(new Object() {
+				@Override
+				public String toString() {
+					synchronized (threads) {
+						threads.add( Thread.currentThread().getName() );
+					}
+					return "-";
+				}
+			});
+		}
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("items", items);
+		
+		Processor processor = Parser.parseString("{{#items}}{{.}}{{/items}}", null);
+		RenderOptions options = new RenderOptions().setExecutor(executor).setParallelListThreshold(2).setParallelism(4);
+		
+		Assert.assertEquals("----------", render(processor, data, options));
+		Assert.assertEquals(Collections.nCopies(10, Thread.currentThread().getName()), threads);
+		
+		threads.clear();
+		Assert.assertEquals("----------", render(processor, data, options.setThreadSafeData(true)));
+		Assert.assertTrue(new HashSet<String>(threads).size() > 1);
+	}
+}
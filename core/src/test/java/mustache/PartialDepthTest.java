@@ -0,0 +1,80 @@
+package mustache;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+import mustache.core.Processor;
+import mustache.core.RecursivePartialException;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.parser.PartialLoader;
+
+import org.junit.Test;
+
+public class PartialDepthTest {
+
+	private static PartialLoader loader(final String... partials) {
+		return new PartialLoader() {
+			public Readable loadPartial(String partial) throws IOException {
+				for (int i = 0; i < partials.length; i += 2) {
+					if ( partials[i].equals(partial) ) {
+						return new StringReader(partials[i + 1]);
+					}
+				}
+				return new StringReader("");
+			}
+		};
+	}
+	
+	private static Map<String, Object> tree(int depth) {
+		Map<String, Object> node = new HashMap<String, Object>();
+		node.put("depth", depth);
+		node.put("child", depth > 1 ? tree(depth - 1) : false);
+		return node;
+	}
+	
+	private static String render(Processor processor, Object data, RenderOptions options) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		Renderer.render(processor, data, builder, options);
+		return builder.toString();
+	}
+	
+	@Test
+	public void shouldEnterMutuallyRecursivePartials() throws IOException, ParseException {
+		PartialLoader loader = loader(
+				"a", "a{{depth}}{{#child}}{{>b}}{{/child}}",
+				"b", "b{{depth}}{{#child}}{{>a}}{{/child}}");
+		Processor processor = Parser.parseString("{{>a}}", loader);
+		
+		Assert.assertEquals("a5b4a3b2a1", render(processor, tree(5), new RenderOptions()));
+	}
+	
+	@Test
+	public void shouldLimitPartialDepth() throws IOException, ParseException {
+		Processor processor = Parser.parseString("{{>node}}", loader("node", "{{depth}}{{#child}}{{>node}}{{/child}}"));
+		RenderOptions options = new RenderOptions().setMaxPartialDepth(10);
+		
+		Assert.assertEquals("10987654321", render(processor, tree(10), options));
+		try {
+			render(processor, tree(11), options);
+			Assert.fail();
+		} catch (RecursivePartialException e) {
+			Assert.assertEquals("node", e.getPartial());
+			Assert.assertEquals(10, e.getDepth());
+		}
+	}
+	
+	@Test
+	public void shouldStopEndlessRecursion() throws IOException, ParseException {
+		Processor processor = Parser.parseString("{{>loop}}", loader("loop", "loop {{>loop}}"));
+		try {
+			render(processor, null, new RenderOptions());
+			Assert.fail();
+		} catch (RecursivePartialException e) {
+			Assert.assertEquals(Processor.DEFAULT_MAX_PARTIAL_DEPTH, e.getDepth());
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package mustache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import mustache.RenderLimitException.Limit;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+
+import org.junit.Test;
+
+public class RenderLimitTest {
+
+	private static Map<String, Object> data(int size) {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("items", Collections.nCopies(size, "item"));
+		return data;
+	}
+	
+	private static Limit render(String template, Object data, RenderOptions options) throws IOException, ParseException {
+		StringBuilder builder = new StringBuilder();
+		try {
+			Renderer.render(Parser.parseString(template, null), data, builder, options);
+		} catch (RenderLimitException e) {
+			return e.getLimit();
+		}
+		return null;
+	}
+	
+	@Test
+	public void shouldRenderWithinLimits() throws IOException, ParseException {
+		RenderOptions options = new RenderOptions()
+				.setTimeout(1, TimeUnit.MINUTES)
+				.setMaxInstructions(1000)
+				.setMaxOutputLength(1000)
+				.setMaxSectionDepth(1)
+				.setCancellationToken( new CancellationToken() );
+		
+		StringBuilder builder = new StringBuilder();
+		Renderer.render(Parser.parseString("{{#items}}{{.}},{{/items}}", null), data(100), builder, options);
+		Assert.assertEquals(500, builder.length());
+	}
+	
+	@Test
+	public void shouldStopAtLimits() throws IOException, ParseException {
+		String template = "{{#items}}{{.}},{{/items}}";
+		
+		Assert.assertEquals(Limit.INSTRUCTIONS, render(template, data(100), new RenderOptions().setMaxInstructions(100)));
+		Assert.assertEquals(Limit.OUTPUT_LENGTH, render(template, data(100), new RenderOptions().setMaxOutputLength(499)));
+		
+		List<Map<String, Object>> nested = new ArrayList<Map<String, Object>>();
+		nested.add( Collections.<String, Object>singletonMap("items", data(1)) );
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("items", nested);
+		String nestedTemplate = "{{#items}}{{#items}}{{#items}}{{.}}{{/items}}{{/items}}{{/items}}";
+		Assert.assertNull( render(nestedTemplate, data, new RenderOptions().setMaxSectionDepth(3)) );
+		Assert.assertEquals(Limit.SECTION_DEPTH, render(nestedTemplate, data, new RenderOptions().setMaxSectionDepth(2)));
+	}
+	
+	@Test
+	public void shouldLimitParallelRenderings() throws IOException, ParseException {
+		final AtomicInteger rendered = new AtomicInteger();
+		Object item = new Object() {
+			@Override
+			public String toString() {
+				rendered.incrementAndGet();
+				return "item";
+			}
+		};
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("items", Collections.nCopies(100000, item));
+		data.put("outer", true);
+		String template = "{{#items}}{{.}},{{/items}}";
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			RenderOptions sections = new RenderOptions().setExecutor(executor).setParallelSections(true)
+					.setThreadSafeData(true).setMaxOutputLength(1000);
+			Assert.assertEquals(Limit.OUTPUT_LENGTH, render(template, data, sections));
+			Assert.assertTrue(rendered.get() < 1000);
+			
+			rendered.set(0);
+			RenderOptions lists = new RenderOptions().setExecutor(executor).setParallelListThreshold(2)
+					.setParallelism(4).setThreadSafeData(true);
+			Assert.assertEquals(Limit.OUTPUT_LENGTH, render(template, data, lists.setMaxOutputLength(1000)));
+			Assert.assertTrue(rendered.get() < 4000);
+			
+			lists.setMaxOutputLength(0).setMaxSectionDepth(1);
+			Assert.assertEquals(Limit.SECTION_DEPTH, render("{{#outer}}" + template + "{{/outer}}", data, lists));
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void shouldStopAfterTimeout() throws IOException, ParseException {
+		Map<String, Object> data = data(1000);
+		data.put("slow", new Object() {
+			@Override
+			public String toString() {
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "";
+			}
+		});
+		
+		RenderOptions options = new RenderOptions().setTimeout(10, TimeUnit.MILLISECONDS);
+		Assert.assertEquals(Limit.TIMEOUT, render("{{#items}}{{slow}}{{/items}}", data, options));
+	}
+	
+	@Test
+	public void shouldStopWhenCancelledOrInterrupted() throws IOException, ParseException {
+		CancellationToken token = new CancellationToken();
+		RenderOptions options = new RenderOptions().setCancellationToken(token);
+		String template = "{{#items}}{{.}}{{/items}}";
+		
+		Assert.assertNull( render(template, data(10), options) );
+		token.cancel();
+		Assert.assertEquals(Limit.CANCELLED, render(template, data(10), options));
+		
+		Thread.currentThread().interrupt();
+		try {
+			Assert.assertEquals(Limit.INTERRUPTED, render(template, data(10), new RenderOptions().setMaxInstructions(100)));
+		} finally {
+			Thread.interrupted();
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package mustache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import mustache.core.Processor;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+
+import org.junit.Test;
+
+public class RenderStreamTest {
+	
+	private static final String TEMPLATE = "<ul>\n{{#items}}\n  <li>{{.}}</li>\n{{/items}}\n</ul>\n";
+	
+	private static Map<String, Object> createData() {
+		List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			items.add(i);
+		}
+		return Collections.<String, Object>singletonMap("items", items);
+	}
+	
+	private static String render(Processor processor) throws IOException {
+		StringBuilder result = new StringBuilder();
+		Renderer.render(processor, createData(), result);
+		return result.toString();
+	}
+	
+	/**
+	 * A non-blocking channel accepting a few bytes per call, and none every other call.
+	 */
+	private static class SlowChannel implements WritableByteChannel {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private boolean writable = false;
+		
+		public int write(ByteBuffer src) {
+			writable = !writable;
+			if (!writable) {
+				return 0;
+			}
+			int length = Math.min(src.remaining(), 7);
+			for (int i = 0; i < length; i++) {
+				bytes.write( src.get() );
+			}
+			return length;
+		}
+		
+		public boolean isOpen() {
+			return true;
+		}
+		
+		public void close() {}
+	}
+	
+	@Test
+	public void shouldRenderChunks() throws ParseException, IOException {
+		Processor processor = Parser.parseString(TEMPLATE, null);
+		RenderStream stream = new RenderStream(processor.copy(), createData(), new RenderOptions().setChunkSize(100));
+		
+		StringBuilder result = new StringBuilder();
+		int chunks = 0;
+		for (String chunk = stream.nextChunk(); chunk != null; chunk = stream.nextChunk()) {
+			result.append(chunk);
+			chunks++;
+		}
+		
+		Assert.assertTrue(stream.isFinished());
+		Assert.assertTrue(chunks > 100);
+		Assert.assertEquals(render(processor), result.toString());
+	}
+	
+	@Test
+	public void shouldSuspendWhenChannelIsNotWritable() throws ParseException, IOException {
+		Processor processor = Parser.parseString(TEMPLATE, null);
+		RenderStream stream = new RenderStream(processor.copy(), createData(), new RenderOptions());
+		SlowChannel channel = new SlowChannel();
+		Charset charset = Charset.forName("UTF-8");
+		
+		int calls = 1;
+		while ( !stream.writeTo(channel, charset) ) {
+			calls++;
+		}
+		
+		Assert.assertTrue(calls > 1);
+		Assert.assertTrue(stream.isFinished());
+		Assert.assertEquals(render(processor), new String(channel.bytes.toByteArray(), "UTF-8"));
+	}
+	
+	private static byte[] writeChunks(String charsetName, String... items) throws ParseException, IOException {
+		Processor processor = Parser.parseString("{{#items}}{{{.}}}{{/items}}", null);
+		Map<String, Object> data = Collections.<String, Object>singletonMap("items", Arrays.asList(items));
+		RenderStream stream = new RenderStream(processor, data, new RenderOptions().setChunkSize(1));
+		SlowChannel channel = new SlowChannel();
+		
+		while ( !stream.writeTo(channel, Charset.forName(charsetName)) ) {
+			continue;
+		}
+		Assert.assertTrue(stream.isFinished());
+		return channel.bytes.toByteArray();
+	}
+	
+	@Test
+	public void shouldReplaceUnmappableCharacters() throws ParseException, IOException {
+		byte[] bytes = writeChunks("ISO-8859-1", "10 \u20ac", " or ", "\u00a310");
+		Assert.assertEquals("10 ? or \u00a310", new String(bytes, "ISO-8859-1"));
+	}
+	
+	@Test
+	public void shouldEncodeSurrogatePairsAcrossChunks() throws ParseException, IOException {
+		byte[] bytes = writeChunks("UTF-8", "a\ud83d", "\ude00b", "\ud83d");
+		Assert.assertTrue(Arrays.equals("a\ud83d\ude00b?".getBytes("UTF-8"), bytes));
+	}
+}
@@ -0,0 +1,92 @@
+package mustache;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import mustache.RenderTracer.Event;
+import mustache.core.AppendVariable;
+import mustache.core.Processor;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.parser.PartialLoader;
+
+import org.junit.Test;
+
+public class RenderTracerTest {
+
+	private static final PartialLoader LOADER = new PartialLoader() {
+		public Readable loadPartial(String partial) throws IOException {
+			return new StringReader("<li>{{.}}</li>");
+		}
+	};
+	
+	private static void render(Processor processor, RenderOptions options) throws IOException {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("items", Arrays.asList("a", "b", "c"));
+		Renderer.render(processor, data, new StringBuilder(), options);
+	}
+	
+	@Test
+	public void shouldTraceInstructions() throws IOException, ParseException {
+		Processor processor = Parser.parseString("<ul>{{#items}}{{>item}}{{/items}}</ul>", LOADER);
+		RenderTracer tracer = new RenderTracer(1, 1000);
+		render(processor, new RenderOptions().setTracer(tracer).setTemplateName("list"));
+		
+		List<Event> events = tracer.getEvents();
+		Assert.assertFalse( events.isEmpty() );
+		
+		int variables = 0;
+		long previousStart = -1;
+		for (Event event : events) {
+			Assert.assertEquals(1, event.getTraceId());
+			Assert.assertEquals("list", event.getTemplate());
+			Assert.assertTrue(event.getStartTime() >= previousStart);
+			Assert.assertTrue(event.getElapsedTime() >= 0);
+			previousStart = event.getStartTime();
+			if (event.getInstruction() instanceof AppendVariable) {
+				Assert.assertEquals("item", event.getPartial());
+				Assert.assertEquals(variables++, event.getIteration());
+			}
+		}
+		Assert.assertEquals(3, variables);
+	}
+	
+	@Test
+	public void shouldSampleRenderings() throws IOException, ParseException {
+		Processor processor = Parser.parseString("{{#items}}{{.}}{{/items}}", null);
+		RenderTracer tracer = new RenderTracer(0.25, 1000);
+		RenderOptions options = new RenderOptions().setTracer(tracer);
+		for (int i = 0; i < 8; i++) {
+			render(processor, options);
+		}
+		
+		List<Event> events = tracer.getEvents();
+		Assert.assertEquals(1, events.get(0).getTraceId());
+		Assert.assertEquals(2, events.get(events.size() - 1).getTraceId());
+		Assert.assertEquals(0, events.size() % 2);
+		
+		tracer.clear();
+		render(processor, new RenderOptions().setTracer( new RenderTracer(0, 1000) ));
+		Assert.assertTrue( tracer.getEvents().isEmpty() );
+	}
+	
+	@Test
+	public void shouldKeepRecentEvents() throws IOException, ParseException {
+		Processor processor = Parser.parseString("{{#items}}{{.}}{{/items}}", null);
+		RenderTracer tracer = new RenderTracer(1, 4);
+		RenderOptions options = new RenderOptions().setTracer(tracer);
+		render(processor, options);
+		render(processor, options);
+		
+		List<Event> events = tracer.getEvents();
+		Assert.assertEquals(4, events.size());
+		for (Event event : events) {
+			Assert.assertEquals(2, event.getTraceId());
+		}
+	}
+}
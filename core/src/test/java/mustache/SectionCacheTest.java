@@ -0,0 +1,90 @@
+package mustache;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import mustache.core.Processor;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.rendering.SectionCache;
+
+import org.junit.Test;
+
+public class SectionCacheTest {
+	
+	private static String render(Processor processor, Object data, SectionCache cache) throws IOException {
+		StringBuilder result = new StringBuilder();
+		Renderer.render(processor, data, result, new RenderOptions().setSectionCache(cache));
+		return result.toString();
+	}
+	
+	@Test
+	public void shouldReuseOutputsWithSameDependencies() throws ParseException, IOException {
+		Processor processor = Parser.parseString("{{%CACHE}}{{#user}}Hi {{name}}!{{/user}} {{count}}", null);
+		SectionCache cache = new SectionCache(10, 1, TimeUnit.MINUTES);
+		
+		Map<String, Object> user = new HashMap<String, Object>();
+		user.put("name", "Chris");
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("user", user);
+		data.put("count", 1);
+		
+		Assert.assertEquals("Hi Chris! 1", render(processor, data, cache));
+		Assert.assertEquals(1, cache.size());
+		
+		data.put("count", 2);
+		Assert.assertEquals("Hi Chris! 2", render(processor, data, cache));
+		Assert.assertEquals(1, cache.size());
+		
+		user.put("name", "Jon");
+		Assert.assertEquals("Hi Jon! 2", render(processor, data, cache));
+		Assert.assertEquals(2, cache.size());
+	}
+	
+	@Test
+	public void shouldCacheSkippedSections() throws ParseException, IOException {
+		Processor processor = Parser.parseString("a{{%CACHE}}{{#list}}{{.}}{{/list}}b", null);
+		SectionCache cache = new SectionCache(10, 1, TimeUnit.MINUTES);
+		
+		Map<String, Object> data = new HashMap<String, Object>();
+		Assert.assertEquals("ab", render(processor, data, cache));
+		Assert.assertEquals("ab", render(processor, data, cache));
+		Assert.assertEquals(1, cache.size());
+		
+		data.put("list", Arrays.asList(1, 2, 3));
+		Assert.assertEquals("a123b", render(processor, data, cache));
+	}
+	
+	@Test
+	public void shouldNotDependOnEnclosingScope() throws ParseException, IOException {
+		Processor processor = Parser.parseString("{{%CACHE}}{{#list}}{{.}}{{/list}} {{count}}", null);
+		SectionCache cache = new SectionCache(10, 1, TimeUnit.MINUTES);
+		
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("list", Arrays.asList(1, 2, 3));
+		data.put("count", 1);
+		Assert.assertEquals("123 1", render(processor, data, cache));
+		
+		data.put("count", 2);
+		Assert.assertEquals("123 2", render(processor, data, cache));
+		Assert.assertEquals(1, cache.size());
+	}
+	
+	@Test
+	public void shouldRenderWithoutCache() throws ParseException, IOException {
+		Processor processor = Parser.parseString("{{%CACHE}}{{#a}}{{b}}{{/a}}", null);
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("a", true);
+		data.put("b", "c");
+		Assert.assertEquals("c", render(processor, data, null));
+	}
+	
+	@Test(expected = ParseException.class)
+	public void shouldRejectUnknownPragmas() throws ParseException, IOException {
+		Parser.parseString("{{%UNKNOWN}}", null);
+	}
+}
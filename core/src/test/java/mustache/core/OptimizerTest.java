@@ -0,0 +1,54 @@
+package mustache.core;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class OptimizerTest {
+	
+	@Test
+	public void shouldMergeAdjacentTexts() throws SequenceException {
+		Sequencer sequencer = new Sequencer()
+			.add( new AppendText("a") )
+			.add( new AppendText("") )
+			.add( new AppendText("b") )
+			.add( OpenSection.newInstance("s", false) )
+			.add( new AppendText("c") )
+			.add( new AppendText("d") )
+			.add( CloseSection.newInstance("s") );
+		
+		List<Instruction> sequence = Optimizer.optimize(sequencer).getSequence();
+		
+		Assert.assertEquals(4, sequence.size());
+		Assert.assertEquals("ab", ((AppendText) sequence.get(0)).getText());
+		Assert.assertEquals("cd", ((AppendText) sequence.get(2)).getText());
+		Assert.assertEquals(3, ((OpenSection) sequence.get(1)).getCloseIndex());
+		Assert.assertEquals(1, ((CloseSection) sequence.get(3)).getOpenIndex());
+	}
+	
+	@Test
+	public void shouldDropEmptyInvertedSections() throws SequenceException {
+		Sequencer sequencer = new Sequencer()
+			.add( new AppendText("a") )
+			.add( OpenSection.newInstance("s", true) )
+			.add( OpenSection.newInstance("t", true) )
+			.add( CloseSection.newInstance("t") )
+			.add( CloseSection.newInstance("s") )
+			.add( new AppendText("b") )
+			.add( OpenSection.newInstance("u", false) )
+			.add( CloseSection.newInstance("u") );
+		
+		List<Instruction> sequence = Optimizer.optimize(sequencer).getSequence();
+		
+		Assert.assertEquals(3, sequence.size());
+		Assert.assertEquals("ab", ((AppendText) sequence.get(0)).getText());
+		Assert.assertEquals("u", ((OpenSection) sequence.get(1)).getName());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectUnprocessableSequences() throws SequenceException {
+		Optimizer.optimize( new Sequencer().add(OpenSection.newInstance("s", false)) );
+	}
+}
@@ -0,0 +1,79 @@
+package mustache.core;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import junit.framework.Assert;
+import mustache.core.TemplateAnalysis.Scope;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.parser.PartialLoader;
+
+import org.junit.Test;
+
+public class TemplateAnalysisTest {
+	
+	private static final PartialLoader LOADER = new PartialLoader() {
+		public Readable loadPartial(String name) {
+			if ( name.equals("item") ) {
+				return new StringReader("{{name}}{{#tags}}{{.}}{{/tags}}{{>item}}");
+			}
+			return new StringReader("{{footer}}");
+		}
+	};
+	
+	@Test
+	public void shouldGroupPathsByScope() throws ParseException, IOException {
+		Processor processor = Parser.parseString("{{title}}{{#items}}{{id}}{{#user.name}}{{first}}{{/user.name}}{{/items}}"
+				+ "{{^items}}{{empty}}{{/items}}", null);
+		TemplateAnalysis analysis = TemplateAnalysis.analyze(processor);
+		
+		Scope root = analysis.getRootScope();
+		Assert.assertEquals(set("title", "items"), root.getPaths());
+		Assert.assertEquals(2, root.getScopes().size());
+		
+		Scope items = root.getScopes().get(0);
+		Assert.assertSame(root, items.getParent());
+		Assert.assertEquals(1, items.getDepth());
+		Assert.assertEquals("items", items.getSection().getName());
+		Assert.assertEquals(set("id", "user.name"), items.getPaths());
+		Assert.assertEquals(set("first"), items.getScopes().get(0).getPaths());
+		
+		Scope inverted = root.getScopes().get(1);
+		Assert.assertTrue( inverted.getSection().isInverted() );
+		Assert.assertEquals(set("empty"), inverted.getPaths());
+		
+		Assert.assertEquals(set("title", "items", "id", "user.name", "first", "empty"), analysis.getPaths());
+		Assert.assertTrue( analysis.getPartials().isEmpty() );
+	}
+	
+	@Test
+	public void shouldAnalyzePartialsInPlace() throws ParseException, IOException {
+		Processor processor = Parser.parseString("{{#items}}{{>item}}{{/items}}{{>footer}}{{>footer}}", LOADER);
+		TemplateAnalysis analysis = TemplateAnalysis.analyze(processor);
+		
+		Scope root = analysis.getRootScope();
+		Assert.assertEquals(set("items", "footer"), root.getPaths());
+		Assert.assertEquals(3, root.getQueries().size());
+		
+		Scope items = root.getScopes().get(0);
+		Assert.assertEquals(set("name", "tags"), items.getPaths());
+		Assert.assertEquals(1, items.getScopes().size());
+		Assert.assertEquals(set("."), items.getScopes().get(0).getPaths());
+		Assert.assertSame(items.getScopes().get(0), items.getScope( items.getScopes().get(0).getSection() ));
+		
+		Assert.assertEquals(set("item", "footer"), analysis.getPartials());
+	}
+	
+	@Test
+	public void shouldKeepPartialNames() throws SequenceException {
+		Sequencer sequencer = new Sequencer().add( EnterPartial.newInstance("partial") );
+		Assert.assertEquals(Arrays.asList("partial"), sequencer.getPartials());
+	}
+	
+	private static LinkedHashSet<String> set(String... paths) {
+		return new LinkedHashSet<String>( Arrays.asList(paths) );
+	}
+}
@@ -0,0 +1,95 @@
+package mustache.parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+import mustache.Renderer;
+import mustache.core.Processor;
+
+import org.junit.Test;
+
+public class IncrementalTemplateTest {
+	
+	private static final String TEMPLATE = "<h1>{{title}}</h1>\n"
+			+ "{{#items}}\n"
+			+ "  <li>{{.}}</li>\n"
+			+ "{{/items}}\n"
+			+ "{{=<% %>=}}\n"
+			+ "<p><% title %></p>\n"
+			+ "<%={{ }}=%>\n"
+			+ "<p>{{footer}}</p>\n";
+	
+	private static String render(Processor processor) throws IOException {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("title", "Title");
+		data.put("items", Arrays.asList("a", "b"));
+		data.put("footer", "Footer");
+		StringBuilder result = new StringBuilder();
+		Renderer.render(processor, data, result);
+		return result.toString();
+	}
+	
+	private static void assertEdit(int offset, int removedLength, String insertedText) throws ParseException, IOException {
+		IncrementalTemplate template = IncrementalTemplate.parse(TEMPLATE, null);
+		IncrementalTemplate edited = template.edit(offset, removedLength, insertedText);
+		String source = TEMPLATE.substring(0, offset) + insertedText + TEMPLATE.substring(offset + removedLength);
+		
+		Assert.assertEquals(source, edited.getSource());
+		Assert.assertEquals(render(Parser.parseString(source, null)), render(edited.newProcessor()));
+	}
+	
+	@Test
+	public void shouldRenderLikeParser() throws ParseException, IOException {
+		IncrementalTemplate template = IncrementalTemplate.parse(TEMPLATE, null);
+		Assert.assertEquals(render(Parser.parseString(TEMPLATE, null)), render(template.newProcessor()));
+		Assert.assertEquals(6, template.getSegmentCount());
+	}
+	
+	@Test
+	public void shouldApplyEdits() throws ParseException, IOException {
+		assertEdit(0, 0, "x");
+		assertEdit(4, 9, "{{footer}}");
+		assertEdit(TEMPLATE.indexOf("<li>"), 4, "<b>{{title}}</b>\n");
+		assertEdit(TEMPLATE.indexOf("<% title %>"), 0, "<%footer%>");
+		assertEdit(TEMPLATE.indexOf("{{=<%"), TEMPLATE.indexOf("<p>{{") - TEMPLATE.indexOf("{{=<%"), "");
+		assertEdit(TEMPLATE.indexOf("{{=<%") + 3, 5, "[ ]");
+		assertEdit(TEMPLATE.indexOf("{{#items}}"), 10, "{{^items}}");
+		assertEdit(TEMPLATE.length(), 0, "\r");
+		assertEdit(TEMPLATE.indexOf("</h1>") + 5, 0, "\r");
+	}
+	
+	@Test
+	public void shouldReuseSegmentsAfterEdit() throws ParseException, IOException {
+		IncrementalTemplate template = IncrementalTemplate.parse(TEMPLATE, null);
+		IncrementalTemplate edited = template.edit(4, 0, "New ");
+		Assert.assertEquals(template.getSegmentCount(), edited.getSegmentCount());
+		Assert.assertNotSame(template.getSegmentInstructions(0), edited.getSegmentInstructions(0));
+		for (int i = 1; i < template.getSegmentCount(); i++) {
+			Assert.assertSame(template.getSegmentInstructions(i), edited.getSegmentInstructions(i));
+		}
+		Assert.assertEquals(render(Parser.parseString(edited.getSource(), null)), render(edited.newProcessor()));
+	}
+	
+	@Test
+	public void shouldSpliceEditsAfterSections() throws ParseException, IOException {
+		IncrementalTemplate template = IncrementalTemplate.parse(TEMPLATE, null);
+		int offset = TEMPLATE.indexOf("<li>");
+		IncrementalTemplate edited = template.edit(offset, 4, "<li>{{#items}}{{.}}{{/items}} ");
+		String source = TEMPLATE.substring(0, offset) + "<li>{{#items}}{{.}}{{/items}} " + TEMPLATE.substring(offset + 4);
+		offset = source.indexOf("{{footer}}") + 10;
+		edited = edited.edit(offset, 0, "{{#items}}-{{/items}}");
+		source = source.substring(0, offset) + "{{#items}}-{{/items}}" + source.substring(offset);
+		
+		Assert.assertEquals(source, edited.getSource());
+		Assert.assertEquals(render(Parser.parseString(source, null)), render(edited.newProcessor()));
+		Assert.assertSame(template.getSegmentInstructions(0), edited.getSegmentInstructions(0));
+	}
+	
+	@Test(expected = ParseException.class)
+	public void shouldRejectInvalidEdits() throws ParseException, IOException {
+		IncrementalTemplate.parse(TEMPLATE, null).edit(TEMPLATE.indexOf("{{/items}}"), 10, "");
+	}
+}
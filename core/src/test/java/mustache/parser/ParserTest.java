@@ -0,0 +1,64 @@
+package mustache.parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+import junit.framework.Assert;
+import mustache.Renderer;
+import mustache.core.Processor;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class ParserTest {
+	
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
+	private static File createFile(byte[] bytes) throws IOException {
+		File file = File.createTempFile("template", ".mustache");
+		file.deleteOnExit();
+		OutputStream stream = new FileOutputStream(file);
+		try {
+			stream.write(bytes);
+		} finally {
+			IOUtils.closeQuietly(stream);
+		}
+		return file;
+	}
+	
+	private static String render(Processor processor) throws IOException {
+		StringBuilder result = new StringBuilder();
+		Renderer.render(processor, Collections.singletonMap("name", "Zo\u00e9"), result);
+		return result.toString();
+	}
+	
+	@Test
+	public void shouldParseFilesWithCharset() throws ParseException, IOException {
+		String template = "\u00c9t\u00e9 {{&name}}\r\n";
+		File file = createFile( template.getBytes("UTF-8") );
+		Assert.assertEquals("\u00c9t\u00e9 Zo\u00e9\r\n", render(Parser.parseFile(file, UTF_8, null)));
+	}
+	
+	@Test
+	public void shouldParseLargeFiles() throws ParseException, IOException {
+		StringBuilder template = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			template.append("<p>\u00e9 {{&name}}</p>\n");
+			expected.append("<p>\u00e9 Zo\u00e9</p>\n");
+		}
+		File file = createFile( template.toString().getBytes("UTF-8") );
+		Assert.assertEquals(expected.toString(), render(Parser.parseFile(file.getPath(), UTF_8, null)));
+	}
+	
+	@Test(expected = CharacterCodingException.class)
+	public void shouldRejectMalformedFiles() throws ParseException, IOException {
+		File file = createFile(new byte[] {'a', (byte) 0xC3});
+		Parser.parseFile(file, UTF_8, null);
+	}
+}
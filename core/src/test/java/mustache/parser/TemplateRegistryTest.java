@@ -0,0 +1,144 @@
+package mustache.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import mustache.Renderer;
+import mustache.core.Processor;
+
+import org.junit.Test;
+
+public class TemplateRegistryTest {
+	
+	private static class CountingLoader implements PartialLoader {
+		private final AtomicInteger loads = new AtomicInteger();
+		private volatile String template = "v{{version}}";
+		
+		public Readable loadPartial(String partial) throws IOException {
+			loads.incrementAndGet();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted");
+			}
+			return new StringReader(template);
+		}
+	}
+	
+	private static String render(Processor processor) throws IOException {
+		StringBuilder result = new StringBuilder();
+		Renderer.render(processor, Collections.singletonMap("version", 1), result);
+		return result.toString();
+	}
+	
+	@Test
+	public void shouldCompileMissingTemplatesOnce() throws Exception {
+		final CountingLoader loader = new CountingLoader();
+		final TemplateRegistry registry = new TemplateRegistry(loader);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Processor> processors = Collections.synchronizedList(new ArrayList<Processor>());
+		
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						processors.add( registry.get("page") );
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		Assert.assertEquals(1, loader.loads.get());
+		Assert.assertEquals(8, processors.size());
+		Assert.assertNotSame(processors.get(0), processors.get(1));
+		Assert.assertEquals("v1", render(processors.get(0)));
+	}
+	
+	@Test
+	public void shouldServeStaleTemplatesWhileRevalidating() throws Exception {
+		CountingLoader loader = new CountingLoader();
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		Executor executor = new Executor() {
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		};
+		TemplateRegistry registry = new TemplateRegistry(loader, 1, TimeUnit.HOURS, executor);
+		
+		Assert.assertEquals("v1", render(registry.get("page")));
+		loader.template = "w{{version}}";
+		registry.invalidate("page");
+		
+		Assert.assertEquals("v1", render(registry.get("page")));
+		Assert.assertEquals(1, tasks.size());
+		Assert.assertEquals("v1", render(registry.get("page")));
+		
+		tasks.get(0).run();
+		Assert.assertEquals("w1", render(registry.get("page")));
+		Assert.assertEquals(1, tasks.size());
+	}
+	
+	@Test
+	public void shouldKeepStaleTemplatesOnErrors() throws Exception {
+		CountingLoader loader = new CountingLoader();
+		TemplateRegistry registry = new TemplateRegistry(loader);
+		
+		Assert.assertEquals("v1", render(registry.get("page")));
+		loader.template = "{{#unclosed}}";
+		registry.invalidate("page");
+		Assert.assertEquals("v1", render(registry.get("page")));
+		
+		registry.remove("page");
+		try {
+			registry.get("page");
+			Assert.fail();
+		} catch (ParseException e) {
+			Assert.assertEquals(0, registry.size());
+		}
+	}
+	
+	@Test
+	public void shouldNotRetryFailedTemplatesBeforeExpiration() throws Exception {
+		CountingLoader loader = new CountingLoader();
+		TemplateRegistry registry = new TemplateRegistry(loader, 500, TimeUnit.MILLISECONDS, null);
+		
+		Assert.assertEquals("v1", render(registry.get("page")));
+		loader.template = "{{#unclosed}}";
+		registry.invalidate("page");
+		for (int i = 0; i < 4; i++) {
+			Assert.assertEquals("v1", render(registry.get("page")));
+		}
+		Assert.assertEquals(2, loader.loads.get());
+		
+		Thread.sleep(600);
+		loader.template = "w{{version}}";
+		Assert.assertEquals("w1", render(registry.get("page")));
+		Assert.assertEquals(3, loader.loads.get());
+		
+		loader.template = "{{#unclosed}}";
+		registry.invalidate("page");
+		Assert.assertEquals("w1", render(registry.get("page")));
+		registry.invalidate("page");
+		Assert.assertEquals("w1", render(registry.get("page")));
+		Assert.assertEquals(5, loader.loads.get());
+	}
+}
@@ -0,0 +1,96 @@
+package mustache.rendering;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import mustache.core.TemplateAnalysis;
+import mustache.core.TemplateAnalysis.Scope;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.rendering.AccessPlan.Binding;
+
+import org.junit.Test;
+
+public class AccessPlanTest {
+	
+	public static class Page {
+		public String title;
+		public List<Item> items;
+		public Map<String, Object> extra;
+		
+		public User getUser() {
+			return null;
+		}
+	}
+	
+	public static class Item {
+		public int id;
+		public String[] tags;
+	}
+	
+	public static class User {
+		public String name;
+	}
+	
+	private static AccessPlan newPlan(String template) throws ParseException, IOException {
+		return AccessPlan.newInstance(TemplateAnalysis.analyze( Parser.parseString(template, null) ), Page.class);
+	}
+	
+	@Test
+	public void shouldBindPathsToScopes() throws ParseException, IOException {
+		AccessPlan plan = newPlan("{{title}}{{user.name}}{{#items}}{{id}}{{title}}{{#tags}}{{.}}{{/tags}}{{/items}}");
+		Scope root = plan.getAnalysis().getRootScope();
+		Scope items = root.getScopes().get(0);
+		Scope tags = items.getScopes().get(0);
+		
+		Binding title = plan.getBinding(root, "title");
+		Assert.assertEquals(Binding.Kind.STATIC, title.getKind());
+		Assert.assertEquals(0, title.getDepth());
+		Assert.assertEquals(String.class, title.getType());
+		
+		Page page = new Page();
+		page.title = "title";
+		Assert.assertTrue( title.accepts(page) );
+		Assert.assertEquals("title", title.get(page));
+		Assert.assertNull( plan.getBinding(root, "user.name").get(page) );
+		
+		Assert.assertEquals(Item.class, plan.getItemType(items));
+		Assert.assertEquals(0, plan.getBinding(items, "id").getDepth());
+		Assert.assertEquals(1, plan.getBinding(items, "title").getDepth());
+		Assert.assertEquals(String.class, plan.getItemType(tags));
+		Assert.assertEquals(Binding.Kind.STATIC, plan.getBinding(tags, ".").getKind());
+		Assert.assertEquals(0, plan.getBinding(tags, ".").getDepth());
+		
+		Assert.assertTrue( plan.getMissingBindings().isEmpty() );
+	}
+	
+	@Test
+	public void shouldReportMissingPaths() throws ParseException, IOException {
+		AccessPlan plan = newPlan("{{titel}}{{#items}}{{id.value}}{{tags.length}}{{/items}}{{user.nmae}}");
+		List<String> missing = Arrays.asList("titel", "user.nmae", "id.value", "tags.length");
+		
+		Assert.assertEquals(missing.size(), plan.getMissingBindings().size());
+		for (int i = 0; i < missing.size(); i++) {
+			Binding binding = plan.getMissingBindings().get(i);
+			Assert.assertEquals(missing.get(i), binding.getPath());
+			Assert.assertEquals(Binding.Kind.MISSING, binding.getKind());
+		}
+	}
+	
+	@Test
+	public void shouldNotBindMaps() throws ParseException, IOException {
+		AccessPlan plan = newPlan("{{extra.key}}{{#extra}}{{key}}{{title}}{{/extra}}{{^items}}{{title}}{{/items}}");
+		Scope root = plan.getAnalysis().getRootScope();
+		
+		Assert.assertEquals(Binding.Kind.DYNAMIC, plan.getBinding(root, "extra.key").getKind());
+		Assert.assertEquals(Binding.Kind.DYNAMIC, plan.getBinding(root.getScopes().get(0), "key").getKind());
+		Assert.assertEquals(Binding.Kind.DYNAMIC, plan.getBinding(root.getScopes().get(0), "title").getKind());
+		Assert.assertEquals(1, plan.getBinding(root.getScopes().get(1), "title").getDepth());
+		
+		plan = AccessPlan.newInstance(plan.getAnalysis(), Map.class);
+		Assert.assertEquals(Binding.Kind.DYNAMIC, plan.getBinding(root, "extra.key").getKind());
+	}
+}
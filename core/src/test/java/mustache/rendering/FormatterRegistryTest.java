@@ -0,0 +1,81 @@
+package mustache.rendering;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import junit.framework.Assert;
+import mustache.RenderOptions;
+import mustache.Renderer;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+
+import org.junit.Test;
+
+public class FormatterRegistryTest {
+	
+	private enum Status {
+		OPEN_NOW, CLOSED
+	}
+	
+	private static final Formatter<Object> ENUM_FORMATTER = new Formatter<Object>() {
+		public void format(Object value, Appendable output) throws IOException {
+			output.append( ((Enum<?>) value).name().toLowerCase().replace('_', ' ') );
+		}
+	};
+	
+	private static final Formatter<CharSequence> QUOTE_FORMATTER = new Formatter<CharSequence>() {
+		public void format(CharSequence value, Appendable output) throws IOException {
+			output.append('"').append(value).append('"');
+		}
+	};
+	
+	@Test
+	public void shouldResolveFormattersByType() {
+		FormatterRegistry registry = new FormatterRegistry()
+				.register(Enum.class, ENUM_FORMATTER)
+				.register(CharSequence.class, QUOTE_FORMATTER);
+		
+		Assert.assertSame(ENUM_FORMATTER, registry.getFormatter(Status.class));
+		Assert.assertSame(QUOTE_FORMATTER, registry.getFormatter(String.class));
+		Assert.assertSame(QUOTE_FORMATTER, registry.getFormatter(StringBuilder.class));
+		Assert.assertNull( registry.getFormatter(Integer.class) );
+		
+		Formatter<Object> stringFormatter = new Formatter<Object>() {
+			public void format(Object value, Appendable output) {}
+		};
+		registry.register(String.class, stringFormatter);
+		Assert.assertSame(stringFormatter, registry.getFormatter(String.class));
+	}
+	
+	@Test
+	public void shouldFormatValues() throws ParseException, IOException {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		dateFormat.setTimeZone( TimeZone.getTimeZone("UTC") );
+		FormatterRegistry registry = new FormatterRegistry()
+				.register(Enum.class, ENUM_FORMATTER)
+				.register(CharSequence.class, QUOTE_FORMATTER)
+				.register(Date.class, dateFormat);
+		
+		Calendar calendar = new GregorianCalendar( TimeZone.getTimeZone("UTC") );
+		calendar.clear();
+		calendar.set(2012, Calendar.MARCH, 4);
+		
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("status", Status.OPEN_NOW);
+		data.put("name", "<b>");
+		data.put("date", calendar.getTime());
+		data.put("price", new BigDecimal("9.90"));
+		
+		StringBuilder builder = new StringBuilder();
+		Renderer.render(Parser.parseString("{{status}} {{name}} {{{name}}} {{date}} {{price}}", null), data, builder,
+				new RenderOptions().setFormatterRegistry(registry));
+		Assert.assertEquals("open now &quot;&lt;b&gt;&quot; \"<b>\" 2012-03-04 9.90", builder.toString());
+	}
+}
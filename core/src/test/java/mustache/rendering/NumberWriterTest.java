@@ -0,0 +1,98 @@
+package mustache.rendering;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.NumberFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+import mustache.RenderOptions;
+import mustache.Renderer;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+
+import org.junit.Test;
+
+public class NumberWriterTest {
+	
+	private static String write(Object value) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		Assert.assertTrue( NumberWriter.write(value, builder) );
+		return builder.toString();
+	}
+	
+	@Test
+	public void shouldWriteLikeToString() throws IOException {
+		Object[] values = {0, -0, 7, -7, 10, 99, -100, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE,
+				Long.MIN_VALUE, (short) -12, (byte) 127, 0.0, -0.0, 1.0, -42.0, 9999999.0, 1e7, 0.5, 1e-4,
+				Double.NaN, Double.NEGATIVE_INFINITY, 3.0f, -0.0f, 1.5f, 1e8f, true, new BigDecimal("1E+3")};
+		for (Object value : values) {
+			Assert.assertEquals(value.toString(), write(value));
+		}
+		
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			long value = random.nextLong() >> random.nextInt(64);
+			Assert.assertEquals(Long.toString(value), write(value));
+			double integral = (double) (value % 20000000);
+			Assert.assertEquals(Double.toString(integral), write(integral));
+		}
+		
+		Assert.assertFalse( NumberWriter.write("1", new StringBuilder()) );
+		Assert.assertFalse( NumberWriter.write('<', new StringBuilder()) );
+	}
+	
+	@Test
+	public void shouldAppendNumbersAtOnce() throws IOException {
+		final StringBuilder builder = new StringBuilder();
+		final int[] appends = {0};
+		Appendable appendable = new Appendable() {
+			public Appendable append(CharSequence csq) {
+				appends[0]++;
+				builder.append(csq);
+				return this;
+			}
+			
+			public Appendable append(CharSequence csq, int start, int end) {
+				appends[0]++;
+				builder.append(csq, start, end);
+				return this;
+			}
+			
+			public Appendable append(char c) {
+				appends[0]++;
+				builder.append(c);
+				return this;
+			}
+		};
+		
+		NumberWriter writer = new NumberWriter();
+		Object[] values = {Long.MIN_VALUE, 1234567, -42.0, 9999999.0f, 0};
+		for (Object value : values) {
+			Assert.assertTrue( writer.append(value, appendable) );
+		}
+		Assert.assertEquals("-92233720368547758081234567-42.09999999.00", builder.toString());
+		Assert.assertEquals(values.length, appends[0]);
+	}
+	
+	@Test
+	public void shouldFormatNumbers() throws ParseException, IOException {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("int", 1234567);
+		data.put("double", 1234.5);
+		data.put("text", "1234");
+		String template = "{{int}} {{double}} {{text}}";
+		
+		StringBuilder builder = new StringBuilder();
+		Renderer.render(Parser.parseString(template, null), data, builder);
+		Assert.assertEquals("1234567 1234.5 1234", builder.toString());
+		
+		builder.setLength(0);
+		RenderOptions options = new RenderOptions().setNumberFormat( NumberFormat.getInstance(Locale.US) );
+		Renderer.render(Parser.parseString(template, null), data, builder, options);
+		Assert.assertEquals("1,234,567 1,234.5 1234", builder.toString());
+	}
+}
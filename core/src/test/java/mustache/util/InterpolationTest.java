@@ -0,0 +1,109 @@
+package mustache.util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.Assert;
+import mustache.Renderer;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+
+import org.junit.Test;
+
+public class InterpolationTest {
+
+	interface Named {
+		String getName();
+	}
+	
+	static class Animal implements Named {
+		private String species = "dog";
+		
+		public String getName() {
+			return "Rex";
+		}
+		
+		public boolean isHungry() {
+			return true;
+		}
+	}
+	
+	static class Dog extends Animal {
+		@SuppressWarnings("unused")
+		private String species = "beagle";
+		
+		String bark() {
+			return "woof";
+		}
+	}
+	
+	@Test
+	public void shouldResolveInheritedMembers() {
+		Dog dog = new Dog();
+		
+		Assert.assertEquals("Rex", Interpolation.interpolate("name", dog));
+		Assert.assertEquals(Boolean.TRUE, Interpolation.interpolate("hungry", dog));
+		Assert.assertEquals("woof", Interpolation.interpolate("bark", dog));
+		Assert.assertEquals("Rex", Interpolation.interpolate("getName", dog));
+		Assert.assertTrue( Interpolation.hasBaseVariable("name.length", dog) );
+	}
+	
+	@Test
+	public void shouldPreferMostDerivedMembers() {
+		Assert.assertEquals("beagle", Interpolation.interpolate("species", new Dog()));
+		Assert.assertEquals("dog", Interpolation.interpolate("species", new Animal()));
+	}
+	
+	@Test
+	public void shouldIgnoreObjectMembers() {
+		Assert.assertFalse( Interpolation.hasBaseVariable("class", new Dog()) );
+		Assert.assertFalse( Interpolation.hasBaseVariable("hashCode", new Dog()) );
+	}
+	
+	@Test
+	public void shouldResolvePublicDeclarationsOfHiddenClasses() throws IOException, ParseException {
+		Map<String, Integer> map = new TreeMap<String, Integer>();
+		map.put("cats", 2);
+		map.put("dogs", 3);
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("entries", map.entrySet());
+		
+		StringBuilder builder = new StringBuilder();
+		Renderer.render(Parser.parseString("{{#entries}}{{key}}={{value}};{{/entries}}", null), data, builder);
+		Assert.assertEquals("cats=2;dogs=3;", builder.toString());
+		
+		Class<?> entryClass = map.entrySet().iterator().next().getClass();
+		Assert.assertTrue( Accessor.forVariable(entryClass, "getKey").toString().endsWith("java.util.Map$Entry.getKey()") );
+	}
+	
+	@Test
+	public void shouldValidateQueries() {
+		Assert.assertTrue( Interpolation.isValidQuery("dog") );
+		Assert.assertTrue( Interpolation.isValidQuery("_Dog.body2.TAIL") );
+		Assert.assertFalse( Interpolation.isValidQuery("") );
+		Assert.assertFalse( Interpolation.isValidQuery("2dogs") );
+		Assert.assertFalse( Interpolation.isValidQuery("dog.") );
+		Assert.assertFalse( Interpolation.isValidQuery("dog..tail") );
+		Assert.assertFalse( Interpolation.isValidQuery("dog tail") );
+		Assert.assertFalse( Interpolation.isValidQuery("d\u00f6g") );
+		Assert.assertEquals(3, Interpolation.split("dog.body.tail").length);
+		Assert.assertEquals("tail", Interpolation.split("dog.body.tail")[2]);
+	}
+	
+	@Test
+	public void shouldTellNullFromUndefined() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("dog", null);
+		Context context = Context.newInstance(map);
+		
+		Assert.assertNull( context.lookup(Query.compile("dog")) );
+		Assert.assertNull( context.lookup(Query.compile("dog.name")) );
+		Assert.assertSame( Interpolation.UNDEFINED, context.lookup(Query.compile("cat")) );
+		
+		map.put("dog", new Dog());
+		Assert.assertEquals( "Rex", context.lookup(Query.compile("dog.name")) );
+		Assert.assertNull( context.lookup(Query.compile("dog.tail")) );
+	}
+}
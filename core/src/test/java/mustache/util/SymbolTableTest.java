@@ -0,0 +1,65 @@
+package mustache.util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+import mustache.Renderer;
+import mustache.core.AppendText;
+import mustache.core.AppendVariable;
+import mustache.core.Instruction;
+import mustache.core.Processor;
+import mustache.parser.ParseException;
+import mustache.parser.Parser;
+import mustache.parser.PartialLoader;
+
+import org.junit.Test;
+
+public class SymbolTableTest {
+	
+	@Test
+	public void shouldReturnCanonicalSymbols() {
+		String symbol = new String("symbol");
+		String duplicate = new String("symbol");
+		long savedBytes = SymbolTable.getSavedBytes();
+		
+		Assert.assertSame(symbol, SymbolTable.intern(symbol));
+		Assert.assertSame(symbol, SymbolTable.intern(duplicate));
+		Assert.assertTrue(SymbolTable.getSavedBytes() > savedBytes);
+	}
+	
+	@Test
+	public void shouldShareInstructionStrings() {
+		AppendText text = new AppendText( new String("<li>") );
+		Assert.assertSame(text.getText(), new AppendText( new String("<li>") ).getText());
+		Assert.assertSame(text.getText(), text.indent("  ").getText());
+		
+		AppendVariable variable = AppendVariable.newInstance("dog.name", false);
+		Assert.assertSame(SymbolTable.intern( new String("name") ), variable.getQuery().getNames()[1]);
+	}
+	
+	@Test
+	public void shouldNotLookUpWhileRendering() throws ParseException, IOException {
+		Processor processor = Parser.parseString("{{#items}}\n  {{>item}}\n{{>item}}{{/items}}", new PartialLoader() {
+			public Readable loadPartial(String partial) {
+				return new StringReader("<li>{{.}}</li>\n");
+			}
+		});
+		long lookups = SymbolTable.getLookupCount();
+		StringBuilder builder = new StringBuilder();
+		Renderer.render(processor, Collections.singletonMap("items", new Integer[] {1, 2}), builder);
+		
+		Assert.assertEquals("  <li>1</li>\n<li>1</li>\n  <li>2</li>\n<li>2</li>\n", builder.toString());
+		Assert.assertEquals(lookups, SymbolTable.getLookupCount());
+	}
+	
+	@Test
+	public void shouldShareParsedNames() throws ParseException, IOException {
+		Parser.parseString("{{name}}", null);
+		Parser.parseString("{{name}}", null);
+		Assert.assertTrue( SymbolTable.getReport().startsWith("SymbolTable[") );
+		Assert.assertTrue(SymbolTable.getHitCount() > 0);
+	}
+}
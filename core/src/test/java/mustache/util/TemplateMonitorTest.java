@@ -0,0 +1,115 @@
+package mustache.util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+import mustache.RenderOptions;
+import mustache.Renderer;
+import mustache.core.Processor;
+import mustache.parser.ParseException;
+import mustache.parser.PartialLoader;
+import mustache.parser.TemplateRegistry;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TemplateMonitorTest {
+
+	private static final PartialLoader LOADER = new PartialLoader() {
+		public Readable loadPartial(String partial) throws IOException {
+			if ( partial.equals("page") ) {
+				return new StringReader("<p>{{>greeting}}</p>");
+			}
+			return new StringReader("Hello {{name}}");
+		}
+	};
+	
+	private static final class Recorder extends TemplateMonitor {
+		private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		private volatile boolean enabled = true;
+		
+		@Override
+		public boolean isEnabled() {
+			return enabled;
+		}
+		
+		@Override
+		public void templateParsed(String name, int length, int partialCount, long duration) {
+			events.add("parsed " + name + " " + length + " " + partialCount);
+		}
+		
+		@Override
+		public void partialLoaded(String name, long duration) {
+			events.add("loaded " + name);
+		}
+		
+		@Override
+		public void cacheHit(String name) {
+			events.add("hit " + name);
+		}
+		
+		@Override
+		public void cacheMiss(String name) {
+			events.add("miss " + name);
+		}
+		
+		@Override
+		public void cacheEviction(String name) {
+			events.add("eviction " + name);
+		}
+		
+		@Override
+		public void templateRendered(String name, long length, long instructions, long duration) {
+			events.add("rendered " + name + " " + length + " " + (instructions > 0));
+		}
+	}
+	
+	@After
+	public void uninstall() {
+		TemplateMonitor.install(null);
+	}
+	
+	@Test
+	public void shouldNotifyTemplateWork() throws IOException, ParseException {
+		Recorder recorder = new Recorder();
+		TemplateMonitor.install(recorder);
+		
+		TemplateRegistry registry = new TemplateRegistry(LOADER);
+		Processor processor = registry.get("page");
+		registry.get("page");
+		StringBuilder builder = new StringBuilder();
+		Renderer.render(processor, Collections.singletonMap("name", "Chris"), builder,
+				new RenderOptions().setTemplateName("page"));
+		registry.remove("page");
+		
+		Assert.assertEquals("<p>Hello Chris</p>", builder.toString());
+		Assert.assertEquals(Arrays.asList(
+				"miss page",
+				"parsed greeting 14 0",
+				"loaded greeting",
+				"parsed page 20 1",
+				"hit page",
+				"rendered page 18 true",
+				"eviction page"), recorder.events);
+	}
+	
+	@Test
+	public void shouldIgnoreDisabledMonitor() throws IOException, ParseException {
+		Recorder recorder = new Recorder();
+		recorder.enabled = false;
+		TemplateMonitor.install(recorder);
+		
+		TemplateRegistry registry = new TemplateRegistry(LOADER);
+		Renderer.render(registry.get("page"), null, new StringBuilder());
+		registry.clear();
+		
+		Assert.assertTrue( recorder.events.isEmpty() );
+		Assert.assertNull( TemplateMonitor.getActive() );
+		Assert.assertSame(recorder, TemplateMonitor.getInstalled());
+	}
+}
@@ -7,11 +7,15 @@ import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import mustache.OutputBuffer;
+import mustache.OutputBufferPool;
+import mustache.RenderOptions;
 import mustache.Renderer;
 import mustache.core.Processor;
 import mustache.parser.ParseException;
 import mustache.parser.Parser;
 import mustache.parser.PartialLoader;
+import mustache.parser.TemplateRegistry;
 
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.EncodedResource;
@@ -21,6 +25,10 @@ public class MustacheView extends AbstractTemplateView {
 	
 	private EncodedResource encodedResource;
 	private PartialLoader partialLoader;
+	private MustacheViewResolver templateResolver;
+	private String templateName;
+	private RenderOptions renderOptions = new RenderOptions();
+	private OutputBufferPool bufferPool;
 	
 	protected final Resource getResource() {
 		return encodedResource.getResource();
@@ -34,6 +42,31 @@ public class MustacheView extends AbstractTemplateView {
 		this.partialLoader = partialLoader;
 	}
 
+	final void setRenderOptions(RenderOptions renderOptions) {
+		this.renderOptions = renderOptions;
+	}
+
+	/**
+	 * Sets the pool of the {@link OutputBuffer}s the page is rendered in and
+	 * then written at once to the response.
+	 * @param bufferPool the pool of the resolver, or {@code null} to stream
+	 * the page instead
+	 */
+	final void setBufferPool(OutputBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Sets the resolver whose registry compiles the template once for all
+	 * renderings. The registry is looked up for each rendering, so that the
+	 * view follows the resolver when its cache is cleared. Without a resolver,
+	 * the template is parsed for each rendering.
+	 */
+	final void setTemplateResolver(MustacheViewResolver templateResolver, String templateName) {
+		this.templateResolver = templateResolver;
+		this.templateName = templateName;
+	}
+
 	@Override
 	public boolean checkResource(Locale locale) {
 		return encodedResource.getResource().isReadable();
@@ -43,7 +76,24 @@ public class MustacheView extends AbstractTemplateView {
 	protected void renderMergedTemplateModel(Map<String, Object> model,
 			HttpServletRequest request, HttpServletResponse response) throws IOException, ParseException {
 		
-		Processor processor = Parser.parseReadable(encodedResource.getReader(), partialLoader);
-		Renderer.render(processor, model, response.getWriter());
+		Processor processor;
+		if (templateResolver != null) {
+			TemplateRegistry templateRegistry = templateResolver.getTemplateRegistry();
+			processor = templateRegistry.get(templateName);
+		} else {
+			processor = Parser.parseReadable(encodedResource.getReader(), partialLoader);
+		}
+		if (bufferPool == null) {
+			Renderer.render(processor, model, response.getWriter(), renderOptions);
+			return;
+		}
+		
+		OutputBuffer buffer = bufferPool.acquire();
+		try {
+			Renderer.render(processor, model, buffer, renderOptions);
+			buffer.writeTo( response.getWriter() );
+		} finally {
+			bufferPool.release(buffer);
+		}
 	}
 }
\ No newline at end of file
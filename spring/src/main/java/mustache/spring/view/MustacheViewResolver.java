@@ -1,27 +1,98 @@
 package mustache.spring.view;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
+import mustache.OutputBufferPool;
+import mustache.RenderOptions;
 import mustache.parser.PartialLoader;
+import mustache.parser.TemplateRegistry;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.EncodedResource;
 import org.springframework.web.servlet.view.AbstractTemplateViewResolver;
 
-public class MustacheViewResolver extends AbstractTemplateViewResolver implements PartialLoader {
+public class MustacheViewResolver extends AbstractTemplateViewResolver implements PartialLoader, DisposableBean {
 	
 	public static final String DEFAULT_ENCODING = "UTF-8";
+	public static final int DEFAULT_BUFFER_POOL_SIZE = 16;
 	
 	private String encoding = DEFAULT_ENCODING;
+	private long templateTimeToLive = 0;
+	private int flushThreshold = 0;
+	private int listFlushThreshold = 0;
+	private boolean bufferOutput = false;
+	private int bufferPoolSize = DEFAULT_BUFFER_POOL_SIZE;
+	private volatile TemplateRegistry templateRegistry;
+	private OutputBufferPool bufferPool;
 
 	@Override
 	protected MustacheView buildView(String viewName) throws Exception {
 		MustacheView view = (MustacheView) super.buildView(viewName);
 		view.setEncodedResource( getResource(view) );
 		view.setPartialLoader( getPartialLoader() );
+		if ( isCache() ) {
+			view.setTemplateResolver(this, viewName);
+		}
+		view.setRenderOptions( new RenderOptions()
+				.setFlushThreshold(flushThreshold)
+				.setListFlushThreshold(listFlushThreshold) );
+		view.setBufferPool( bufferOutput ? getBufferPool() : null );
 		return view;
 	}
 
+	/**
+	 * @return the pool of the buffers shared by the views, created after the
+	 * cache is cleared
+	 */
+	private synchronized OutputBufferPool getBufferPool() {
+		if (bufferPool == null) {
+			bufferPool = new OutputBufferPool(bufferPoolSize);
+		}
+		return bufferPool;
+	}
+
+	/**
+	 * @return the registry of the compiled templates, created after the cache
+	 * is cleared or the time to live is changed
+	 */
+	TemplateRegistry getTemplateRegistry() {
+		TemplateRegistry registry = templateRegistry;
+		if (registry != null) {
+			return registry;
+		}
+		synchronized (this) {
+			if (templateRegistry == null) {
+				templateRegistry = new TemplateRegistry(this, templateTimeToLive, TimeUnit.SECONDS, null);
+			}
+			return templateRegistry;
+		}
+	}
+
+	@Override
+	public void clearCache() {
+		super.clearCache();
+		synchronized (this) {
+			if (templateRegistry != null) {
+				templateRegistry.clear();
+				templateRegistry = null;
+			}
+			if (bufferPool != null) {
+				bufferPool.clear();
+				bufferPool = null;
+			}
+		}
+	}
+
+	/**
+	 * Clears the cache, which drops the compiled templates and the pooled
+	 * buffers along with the views.
+	 */
+	public void destroy() {
+		clearCache();
+	}
+
 	protected EncodedResource getResource(MustacheView view) {
 		Resource resource = getApplicationContext().getResource( view.getUrl() );
 		return new EncodedResource(resource, encoding);
@@ -49,4 +120,87 @@ public class MustacheViewResolver extends AbstractTemplateViewResolver implement
 	public void setEncoding(String encoding) {
 		this.encoding = encoding;
 	}
+
+	public int getFlushThreshold() {
+		return flushThreshold;
+	}
+
+	/**
+	 * Sets the number of characters after which the response is flushed, so
+	 * that browsers receive the beginning of pages early.
+	 * @param flushThreshold the number of characters, {@code 0} to only flush at the
+	 * {@value mustache.parser.Parser#FLUSH_PRAGMA} pragmas of templates
+	 * @see RenderOptions#setFlushThreshold(int)
+	 */
+	public void setFlushThreshold(int flushThreshold) {
+		this.flushThreshold = flushThreshold;
+	}
+
+	public int getListFlushThreshold() {
+		return listFlushThreshold;
+	}
+
+	/**
+	 * @see RenderOptions#setListFlushThreshold(int)
+	 */
+	public void setListFlushThreshold(int listFlushThreshold) {
+		this.listFlushThreshold = listFlushThreshold;
+	}
+
+	public boolean isBufferOutput() {
+		return bufferOutput;
+	}
+
+	/**
+	 * Sets whether pages are rendered in a buffer reused by the views and
+	 * written at once to the response. Flush thresholds and
+	 * {@value mustache.parser.Parser#FLUSH_PRAGMA} pragmas have no effect on
+	 * buffered pages.
+	 * @param bufferOutput {@code true} to buffer pages, {@code false} to
+	 * stream them
+	 * @see #setBufferPoolSize(int)
+	 */
+	public void setBufferOutput(boolean bufferOutput) {
+		this.bufferOutput = bufferOutput;
+	}
+
+	public int getBufferPoolSize() {
+		return bufferPoolSize;
+	}
+
+	/**
+	 * Sets the number of buffers kept between renderings when pages are
+	 * buffered. The pool belongs to this resolver rather than to the threads
+	 * of the container : it retains at most this many buffers of up to 256K
+	 * characters each, and is dropped when the cache is cleared or the
+	 * resolver destroyed, so it does not outlive the application. The size
+	 * applies to the views built afterwards.
+	 * @param bufferPoolSize the number of buffers, {@value #DEFAULT_BUFFER_POOL_SIZE} by default
+	 * @throws IllegalArgumentException if {@code bufferPoolSize} is not positive
+	 * @see mustache.OutputBufferPool
+	 */
+	public synchronized void setBufferPoolSize(int bufferPoolSize) {
+		if (bufferPoolSize <= 0) {
+			throw new IllegalArgumentException("Invalid buffer pool size : " + bufferPoolSize);
+		}
+		this.bufferPoolSize = bufferPoolSize;
+		bufferPool = null;
+	}
+
+	public long getTemplateTimeToLive() {
+		return templateTimeToLive;
+	}
+
+	/**
+	 * Sets the time to live of compiled templates when views are cached. Expired
+	 * templates are compiled again while the previous ones keep being used.
+	 * @param templateTimeToLive the time to live in seconds, {@code 0} for no expiration
+	 */
+	public synchronized void setTemplateTimeToLive(long templateTimeToLive) {
+		this.templateTimeToLive = templateTimeToLive;
+		if (templateRegistry != null) {
+			templateRegistry.clear();
+			templateRegistry = null;
+		}
+	}
 }
\ No newline at end of file